@@ -0,0 +1,110 @@
+package com.airmap.airmapsdk.controllers;
+
+import com.airmap.airmapsdk.models.Coordinate;
+import com.airmap.airmapsdk.models.traffic.AirMapTraffic;
+
+import java.util.List;
+
+/**
+ * Writes traffic straight into a GeoJSON FeatureCollection string, one Point feature per target,
+ * without building Mapbox Features, Points or property objects along the way. The buffer is
+ * reused, so a writer must only be used from one thread.
+ */
+class TrafficGeoJsonWriter {
+
+    // feature properties, for styling the layer
+    static final String ID = "id";
+    static final String HEADING = "heading";
+    static final String TYPE = "type";
+    static final String ALTITUDE = "altitude";
+    static final String ALERT = "alert";
+
+    private final StringBuilder json = new StringBuilder(16 * 1024);
+
+    String write(List<AirMapTraffic> traffic) {
+        json.setLength(0);
+        json.append("{\"type\":\"FeatureCollection\",\"features\":[");
+        boolean first = true;
+        for (AirMapTraffic target : traffic) {
+            Coordinate coordinate = target.getCoordinate();
+            if (coordinate == null) {
+                continue;
+            }
+            // read once, as projections update the coordinate from another thread
+            double latitude = coordinate.getLatitude();
+            double longitude = coordinate.getLongitude();
+            if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+                continue;
+            }
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append("{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[");
+            number(longitude);
+            json.append(',');
+            number(latitude);
+            json.append("]},\"properties\":{");
+            key(ID);
+            string(target.getId());
+            json.append(',');
+            key(HEADING);
+            number(heading(target));
+            json.append(',');
+            key(TYPE);
+            string(target.getTrafficType() != null ? target.getTrafficType().name() : null);
+            json.append(',');
+            key(ALTITUDE);
+            number(target.getAltitudeFt());
+            json.append(',');
+            key(ALERT);
+            json.append(target.shouldShowAlert());
+            json.append("}}");
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    /**
+     * @return the true heading if it was reported, otherwise the direction, otherwise north
+     */
+    private static double heading(AirMapTraffic target) {
+        if (target.getTrueHeading() >= 0) {
+            return target.getTrueHeading();
+        }
+        return target.getDirection() >= 0 ? target.getDirection() : 0;
+    }
+
+    private void key(String key) {
+        json.append('"').append(key).append("\":");
+    }
+
+    private void number(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            json.append("null");
+        } else if (value == (long) value) {
+            json.append((long) value);
+        } else {
+            json.append(value);
+        }
+    }
+
+    private void string(String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append("\\u00").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xf, 16));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
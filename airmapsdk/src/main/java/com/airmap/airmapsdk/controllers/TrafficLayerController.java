@@ -0,0 +1,213 @@
+package com.airmap.airmapsdk.controllers;
+
+import android.view.Choreographer;
+
+import androidx.core.content.ContextCompat;
+
+import com.airmap.airmapsdk.R;
+import com.airmap.airmapsdk.models.traffic.AirMapTraffic;
+import com.airmap.airmapsdk.networking.callbacks.AirMapTrafficListener;
+import com.airmap.airmapsdk.networking.services.TrafficService;
+import com.airmap.airmapsdk.ui.views.AirMapMapView;
+import com.airmap.airmapsdk.util.Utils;
+import com.mapbox.mapboxsdk.maps.MapView;
+import com.mapbox.mapboxsdk.maps.Style;
+import com.mapbox.mapboxsdk.style.layers.Property;
+import com.mapbox.mapboxsdk.style.layers.SymbolLayer;
+import com.mapbox.mapboxsdk.style.sources.GeoJsonSource;
+
+import java.util.List;
+
+import rx.Scheduler;
+import rx.functions.Action0;
+import rx.schedulers.Schedulers;
+
+import static com.mapbox.mapboxsdk.style.expressions.Expression.color;
+import static com.mapbox.mapboxsdk.style.expressions.Expression.get;
+import static com.mapbox.mapboxsdk.style.expressions.Expression.match;
+import static com.mapbox.mapboxsdk.style.expressions.Expression.stop;
+import static com.mapbox.mapboxsdk.style.layers.PropertyFactory.iconAllowOverlap;
+import static com.mapbox.mapboxsdk.style.layers.PropertyFactory.iconColor;
+import static com.mapbox.mapboxsdk.style.layers.PropertyFactory.iconIgnorePlacement;
+import static com.mapbox.mapboxsdk.style.layers.PropertyFactory.iconImage;
+import static com.mapbox.mapboxsdk.style.layers.PropertyFactory.iconRotate;
+import static com.mapbox.mapboxsdk.style.layers.PropertyFactory.iconRotationAlignment;
+
+/**
+ * Draws the traffic from a TrafficService on an AirMapMapView as a single GeoJSON source and
+ * symbol layer, rotated by heading and coloured by traffic type, instead of an annotation per
+ * aircraft. The source is rebuilt from all the traffic in one pass on a background thread when
+ * traffic changes, and set on the map at most once per frame. Start it once the map is ready,
+ * and stop it before the map is destroyed.
+ */
+public class TrafficLayerController implements AirMapTrafficListener, MapView.OnDidFinishLoadingStyleListener {
+
+    public static final String TRAFFIC_SOURCE = "airmap-traffic-source";
+    public static final String TRAFFIC_LAYER = "airmap-traffic-layer";
+    private static final String TRAFFIC_IMAGE = "airmap-traffic-img";
+
+    private AirMapMapView map;
+    private TrafficService trafficService;
+    private final TrafficGeoJsonWriter writer = new TrafficGeoJsonWriter();
+    private Choreographer choreographer;
+    // a new one per start, so work scheduled before a stop can tell it is out of date
+    private Scheduler.Worker worker;
+
+    // only touched on the main thread
+    private boolean rebuilding;
+    private boolean changed;
+    private String geoJson;
+
+    public TrafficLayerController(AirMapMapView map, TrafficService trafficService) {
+        this.map = map;
+        this.trafficService = trafficService;
+    }
+
+    /**
+     * Add the layer to the map and start following the traffic. Must be called on the main thread
+     */
+    public void start() {
+        if (worker != null) {
+            return;
+        }
+        choreographer = Choreographer.getInstance();
+        worker = Schedulers.computation().createWorker();
+        map.addOnDidFinishLoadingStyleListener(this);
+        trafficService.addListener(this);
+        getSource();
+        requestRebuild();
+    }
+
+    /**
+     * Stop following the traffic and remove the layer from the map
+     */
+    public void stop() {
+        if (worker == null) {
+            return;
+        }
+        trafficService.removeListener(this);
+        map.removeOnDidFinishLoadingStyleListener(this);
+        worker.unsubscribe();
+        worker = null;
+        rebuilding = false;
+        changed = false;
+        geoJson = null;
+
+        Style style = map.getMap() != null ? map.getMap().getStyle() : null;
+        if (style != null && style.isFullyLoaded()) {
+            style.removeLayer(TRAFFIC_LAYER);
+            style.removeSource(TRAFFIC_SOURCE);
+            style.removeImage(TRAFFIC_IMAGE);
+        }
+    }
+
+    @Override
+    public void onAddTraffic(List<AirMapTraffic> added) {
+        requestRebuild();
+    }
+
+    @Override
+    public void onUpdateTraffic(List<AirMapTraffic> updated) {
+        requestRebuild();
+    }
+
+    @Override
+    public void onRemoveTraffic(List<AirMapTraffic> removed) {
+        requestRebuild();
+    }
+
+    /**
+     * A new style drops the layer, so add it back with the latest traffic
+     */
+    @Override
+    public void onDidFinishLoadingStyle() {
+        GeoJsonSource source = getSource();
+        if (source != null && geoJson != null) {
+            source.setGeoJson(geoJson);
+        }
+    }
+
+    /**
+     * Rebuild the source, unless a rebuild is already on its way to the map, in which case
+     * rebuild again once it has been set
+     */
+    private void requestRebuild() {
+        if (worker == null) {
+            return;
+        }
+        if (rebuilding) {
+            changed = true;
+            return;
+        }
+        rebuilding = true;
+        changed = false;
+        final Scheduler.Worker started = worker;
+        final Choreographer choreographer = this.choreographer;
+        worker.schedule(new Action0() {
+            @Override
+            public void call() {
+                final String built;
+                synchronized (writer) { //A rebuild from before a stop may still be running
+                    built = writer.write(trafficService.getAllTraffic());
+                }
+                choreographer.postFrameCallback(new Choreographer.FrameCallback() {
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        apply(started, built);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Set a rebuilt source on the map, on the main thread, unless it was rebuilt before a stop.
+     * Its rebuild isn't the one in flight any more, so it mustn't clear rebuilding either
+     *
+     * @param started the worker the rebuild was scheduled on
+     */
+    private void apply(Scheduler.Worker started, String built) {
+        if (started != worker) {
+            return;
+        }
+        rebuilding = false;
+        geoJson = built;
+        GeoJsonSource source = getSource();
+        if (source != null) {
+            source.setGeoJson(geoJson);
+        }
+        if (changed) {
+            requestRebuild();
+        }
+    }
+
+    /**
+     * @return the traffic source, after adding it and the layer to the style if they aren't
+     * there yet, or null if the style isn't loaded
+     */
+    private GeoJsonSource getSource() {
+        Style style = map.getMap() != null ? map.getMap().getStyle() : null;
+        if (style == null || !style.isFullyLoaded()) {
+            return null;
+        }
+        GeoJsonSource source = style.getSourceAs(TRAFFIC_SOURCE);
+        if (source != null) {
+            return source;
+        }
+        // drawn in white and tinted per feature
+        style.addImage(TRAFFIC_IMAGE, Utils.getBitmapForDrawable(map.getContext(), R.drawable.ic_traffic), true);
+        source = new GeoJsonSource(TRAFFIC_SOURCE);
+        style.addSource(source);
+        SymbolLayer layer = new SymbolLayer(TRAFFIC_LAYER, TRAFFIC_SOURCE).withProperties(
+                iconImage(TRAFFIC_IMAGE),
+                iconRotate(get(TrafficGeoJsonWriter.HEADING)),
+                iconRotationAlignment(Property.ICON_ROTATION_ALIGNMENT_MAP),
+                iconAllowOverlap(true),
+                iconIgnorePlacement(true),
+                iconColor(match(get(TrafficGeoJsonWriter.TYPE),
+                        color(ContextCompat.getColor(map.getContext(), R.color.colorAccent)),
+                        stop(AirMapTraffic.TrafficType.Alert.name(), color(ContextCompat.getColor(map.getContext(), R.color.status_red))))));
+        style.addLayer(layer);
+        return source;
+    }
+}
@@ -46,6 +46,11 @@ public class AirMapTraffic implements Serializable, AirMapBaseModel {
         return incomingTime;
     }
 
+    public AirMapTraffic setIncomingTime(Date incomingTime) {
+        this.incomingTime = incomingTime;
+        return this;
+    }
+
     public AirMapTraffic() {
 
     }
@@ -0,0 +1,56 @@
+package com.airmap.airmapsdk.models.traffic;
+
+import java.io.Serializable;
+
+/**
+ * Traffic predicted to come too close to ownship, as found on the device from ownship telemetry
+ * rather than sent by the traffic alert channel
+ */
+@SuppressWarnings("unused")
+public class AirMapTrafficConflict implements Serializable {
+    private AirMapTraffic traffic;
+    private double timeToClosestApproach;
+    private double closestApproachDistance;
+    private double verticalSeparation;
+    private double distance;
+
+    /**
+     * @param traffic                 The conflicting traffic
+     * @param timeToClosestApproach   Seconds until the traffic is closest to ownship
+     * @param closestApproachDistance Horizontal distance at closest approach, in meters
+     * @param verticalSeparation      Altitude difference at closest approach, in feet; positive when the traffic is above ownship
+     * @param distance                Current horizontal distance, in meters
+     */
+    public AirMapTrafficConflict(AirMapTraffic traffic, double timeToClosestApproach, double closestApproachDistance, double verticalSeparation, double distance) {
+        this.traffic = traffic;
+        this.timeToClosestApproach = timeToClosestApproach;
+        this.closestApproachDistance = closestApproachDistance;
+        this.verticalSeparation = verticalSeparation;
+        this.distance = distance;
+    }
+
+    public AirMapTraffic getTraffic() {
+        return traffic;
+    }
+
+    public double getTimeToClosestApproach() {
+        return timeToClosestApproach;
+    }
+
+    public double getClosestApproachDistance() {
+        return closestApproachDistance;
+    }
+
+    public double getVerticalSeparation() {
+        return verticalSeparation;
+    }
+
+    public double getDistance() {
+        return distance;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s in %.1f s at %.0f m, %.0f ft", traffic.getId(), timeToClosestApproach, closestApproachDistance, verticalSeparation);
+    }
+}
@@ -0,0 +1,12 @@
+package com.airmap.airmapsdk.networking.callbacks;
+
+import com.airmap.airmapsdk.models.traffic.AirMapTrafficConflict;
+
+import java.util.List;
+
+public interface AirMapTrafficConflictListener {
+    /**
+     * @param conflicts the current conflicts, soonest first, or an empty list once there are none
+     */
+    void onTrafficConflicts(List<AirMapTrafficConflict> conflicts);
+}
@@ -0,0 +1,188 @@
+package com.airmap.airmapsdk.networking.services;
+
+import androidx.annotation.Nullable;
+
+import com.airmap.airmapsdk.models.Telemetry;
+import com.google.protobuf.MessageLite;
+
+/**
+ * Default {@link TelemetryRatePolicy}. Each message type has a minimum interval, which caps how
+ * often it is sent while the aircraft is manoeuvring, and a maximum interval, which acts as a
+ * heartbeat while nothing changes. In between, a sample is only sent if it differs from the last
+ * one sent by more than the dead-band for that type.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class AdaptiveTelemetryRatePolicy implements TelemetryRatePolicy {
+
+    private static final double METERS_PER_DEGREE = 111320;
+
+    // intervals in milliseconds
+    private volatile long positionMinInterval = 100;
+    private volatile long positionMaxInterval = 1000;
+    private volatile long attitudeMinInterval = 100;
+    private volatile long attitudeMaxInterval = 1000;
+    private volatile long speedMinInterval = 100;
+    private volatile long speedMaxInterval = 1000;
+    private volatile long barometerMinInterval = 5000;
+    private volatile long barometerMaxInterval = 5000;
+
+    private volatile double horizontalDeadband = 1; // meters
+    private volatile double verticalDeadband = 0.5; // meters
+    private volatile double attitudeDeadband = 2; // degrees
+    private volatile double speedDeadband = 0.5; // meters per second
+
+    @Override
+    public boolean shouldSend(MessageLite sample, @Nullable MessageLite lastSent, long elapsed) {
+        if (lastSent == null) {
+            return true;
+        }
+
+        if (sample instanceof Telemetry.Position) {
+            Telemetry.Position position = (Telemetry.Position) sample;
+            Telemetry.Position last = (Telemetry.Position) lastSent;
+            return shouldSend(elapsed, positionMinInterval, positionMaxInterval)
+                    || (elapsed >= positionMinInterval && moved(position.getLatitude(), position.getLongitude(), position.getAltitudeMsl(),
+                    last.getLatitude(), last.getLongitude(), last.getAltitudeMsl()));
+        } else if (sample instanceof Telemetry.Attitude) {
+            Telemetry.Attitude attitude = (Telemetry.Attitude) sample;
+            Telemetry.Attitude last = (Telemetry.Attitude) lastSent;
+            return shouldSend(elapsed, attitudeMinInterval, attitudeMaxInterval)
+                    || (elapsed >= attitudeMinInterval && turned(attitude.getYaw(), attitude.getPitch(), attitude.getRoll(),
+                    last.getYaw(), last.getPitch(), last.getRoll()));
+        } else if (sample instanceof Telemetry.Speed) {
+            Telemetry.Speed speed = (Telemetry.Speed) sample;
+            Telemetry.Speed last = (Telemetry.Speed) lastSent;
+            return shouldSend(elapsed, speedMinInterval, speedMaxInterval)
+                    || (elapsed >= speedMinInterval && accelerated(speed.getVelocityX(), speed.getVelocityY(), speed.getVelocityZ(),
+                    last.getVelocityX(), last.getVelocityY(), last.getVelocityZ()));
+        } else if (sample instanceof Telemetry.Barometer) {
+            return shouldSend(elapsed, barometerMinInterval, barometerMaxInterval);
+        }
+        return true;
+    }
+
+    /**
+     * The same decision made on a sample's fields, as laid out by TelemetrySession#write, so that
+     * no message has to be built for a sample that isn't sent
+     *
+     * @param lastSent the fields of the last sample of the type that was sent, or null if none has been
+     */
+    boolean shouldSend(TelemetryEncoder.MessageType type, double[] sample, @Nullable double[] lastSent, long elapsed) {
+        if (lastSent == null) {
+            return true;
+        }
+
+        switch (type) {
+            case POSITION:
+                return shouldSend(elapsed, positionMinInterval, positionMaxInterval)
+                        || (elapsed >= positionMinInterval && moved(sample[0], sample[1], sample[3], lastSent[0], lastSent[1], lastSent[3]));
+            case ATTITUDE:
+                return shouldSend(elapsed, attitudeMinInterval, attitudeMaxInterval)
+                        || (elapsed >= attitudeMinInterval && turned(sample[0], sample[1], sample[2], lastSent[0], lastSent[1], lastSent[2]));
+            case SPEED:
+                return shouldSend(elapsed, speedMinInterval, speedMaxInterval)
+                        || (elapsed >= speedMinInterval && accelerated(sample[0], sample[1], sample[2], lastSent[0], lastSent[1], lastSent[2]));
+            case BAROMETER:
+                return shouldSend(elapsed, barometerMinInterval, barometerMaxInterval);
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * @param minInterval the shortest time between position messages, in milliseconds
+     * @param maxInterval the longest time between position messages, in milliseconds
+     */
+    public AdaptiveTelemetryRatePolicy setPositionInterval(long minInterval, long maxInterval) {
+        positionMinInterval = minInterval;
+        positionMaxInterval = Math.max(minInterval, maxInterval);
+        return this;
+    }
+
+    /**
+     * @param minInterval the shortest time between attitude messages, in milliseconds
+     * @param maxInterval the longest time between attitude messages, in milliseconds
+     */
+    public AdaptiveTelemetryRatePolicy setAttitudeInterval(long minInterval, long maxInterval) {
+        attitudeMinInterval = minInterval;
+        attitudeMaxInterval = Math.max(minInterval, maxInterval);
+        return this;
+    }
+
+    /**
+     * @param minInterval the shortest time between speed messages, in milliseconds
+     * @param maxInterval the longest time between speed messages, in milliseconds
+     */
+    public AdaptiveTelemetryRatePolicy setSpeedInterval(long minInterval, long maxInterval) {
+        speedMinInterval = minInterval;
+        speedMaxInterval = Math.max(minInterval, maxInterval);
+        return this;
+    }
+
+    /**
+     * @param minInterval the shortest time between barometer messages, in milliseconds
+     * @param maxInterval the longest time between barometer messages, in milliseconds
+     */
+    public AdaptiveTelemetryRatePolicy setBarometerInterval(long minInterval, long maxInterval) {
+        barometerMinInterval = minInterval;
+        barometerMaxInterval = Math.max(minInterval, maxInterval);
+        return this;
+    }
+
+    /**
+     * @param horizontal the horizontal movement, in meters, below which a position isn't sent
+     * @param vertical   the altitude change, in meters, below which a position isn't sent
+     */
+    public AdaptiveTelemetryRatePolicy setPositionDeadband(double horizontal, double vertical) {
+        horizontalDeadband = horizontal;
+        verticalDeadband = vertical;
+        return this;
+    }
+
+    /**
+     * @param degrees the change in yaw, pitch or roll below which an attitude isn't sent
+     */
+    public AdaptiveTelemetryRatePolicy setAttitudeDeadband(double degrees) {
+        attitudeDeadband = degrees;
+        return this;
+    }
+
+    /**
+     * @param metersPerSecond the change in velocity below which a speed isn't sent
+     */
+    public AdaptiveTelemetryRatePolicy setSpeedDeadband(double metersPerSecond) {
+        speedDeadband = metersPerSecond;
+        return this;
+    }
+
+    //Whether the heartbeat is due, or the sample is due regardless of the dead-band
+    private static boolean shouldSend(long elapsed, long minInterval, long maxInterval) {
+        return elapsed >= maxInterval || (elapsed >= minInterval && minInterval == maxInterval);
+    }
+
+    private boolean moved(double latitude, double longitude, double altitude, double lastLatitude, double lastLongitude, double lastAltitude) {
+        double north = (latitude - lastLatitude) * METERS_PER_DEGREE;
+        double east = (longitude - lastLongitude) * METERS_PER_DEGREE * Math.cos(Math.toRadians(lastLatitude));
+        double vertical = Math.abs(altitude - lastAltitude);
+        return north * north + east * east > horizontalDeadband * horizontalDeadband || vertical > verticalDeadband;
+    }
+
+    private boolean turned(double yaw, double pitch, double roll, double lastYaw, double lastPitch, double lastRoll) {
+        return angle(yaw, lastYaw) > attitudeDeadband
+                || angle(pitch, lastPitch) > attitudeDeadband
+                || angle(roll, lastRoll) > attitudeDeadband;
+    }
+
+    private boolean accelerated(double x, double y, double z, double lastX, double lastY, double lastZ) {
+        double dx = x - lastX;
+        double dy = y - lastY;
+        double dz = z - lastZ;
+        return dx * dx + dy * dy + dz * dz > speedDeadband * speedDeadband;
+    }
+
+    //The smallest difference between two angles in degrees, accounting for wrap around
+    private static double angle(double a, double b) {
+        double difference = Math.abs(a - b) % 360;
+        return difference > 180 ? 360 - difference : difference;
+    }
+}
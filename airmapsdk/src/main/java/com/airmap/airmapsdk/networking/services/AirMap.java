@@ -338,6 +338,13 @@ public final class AirMap {
         return config;
     }
 
+    /**
+     * Use a config without initializing the SDK, e.g. in tests that can't load the assets
+     */
+    static void setConfig(JSONObject config) {
+        AirMap.config = config;
+    }
+
     public static void setLoginListener(LoginListener listener) {
         loginListener = listener;
     }
@@ -353,6 +360,11 @@ public final class AirMap {
         AuthService.logout(context);
         setAuthToken(null);
         userId = null;
+        if (airMapTelemetryService != null) {
+            airMapTelemetryService.shutdown();
+            airMapTelemetryService = null;
+        }
+        getClient().clearCache();
         getClient().resetClient(context);
         saveTokens(context, null, null);
     }
@@ -364,6 +376,21 @@ public final class AirMap {
         return client;
     }
 
+    /**
+     * @return the hit and miss counts of the cache of rulesets, airspace, aircraft, map styles and
+     * pilot profiles
+     */
+    public static CacheMetrics getCacheMetrics() {
+        return getClient().getCacheMetrics();
+    }
+
+    /**
+     * Drop every cached response, so the next requests go to the server
+     */
+    public static void clearCache() {
+        getClient().clearCache();
+    }
+
     /**
      * @return whether AirMap has been initialized
      */
@@ -723,6 +750,17 @@ public final class AirMap {
         return FlightService.getCommKey(flightId, callback);
     }
 
+    /**
+     * Fetch the comm key for a flight ahead of its first telemetry, so that telemetry is sent
+     * as soon as it arrives. Flights created with {@link #createFlight} or submitted with
+     * {@link #submitFlightPlan} are prefetched automatically.
+     *
+     * @param flightId The ID of the flight that will send telemetry
+     */
+    public static void prefetchCommKey(@NonNull String flightId) {
+        getTelemetryService().prefetchCommKey(flightId, null);
+    }
+
     /**
      * Stop receiving notifications for traffic alerts
      *
@@ -5,7 +5,6 @@ import android.os.Build;
 import android.text.TextUtils;
 
 import com.airmap.airmapsdk.AirMapException;
-import com.airmap.airmapsdk.Auth;
 import com.airmap.airmapsdk.auth.AuthConstants;
 import com.airmap.airmapsdk.models.AirMapBaseModel;
 import com.airmap.airmapsdk.util.Utils;
@@ -33,12 +32,32 @@ import okhttp3.Request.Builder;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import rx.Observable;
+import rx.functions.Action0;
 import rx.functions.Func0;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
 
 @SuppressWarnings("unused")
 public class AirMapClient {
 
     private OkHttpClient client;
+    private ResponseCache cache;
+    private final TokenRefresher tokenRefresher = new TokenRefresher(new Func0<String>() {
+        @Override
+        public String call() {
+            return AirMap.getAuthToken();
+        }
+    }, new Action0() {
+        @Override
+        public void call() {
+            AirMap.refreshAccessToken();
+        }
+    }, new Func1<String, Long>() {
+        @Override
+        public Long call(String token) {
+            return TokenRefresher.decodeExpiry(token);
+        }
+    }, Schedulers.io());
 
     /**
      * Initialize the client
@@ -310,17 +329,26 @@ public class AirMapClient {
             builder.certificatePinner(getCertificatePinner());
         }
 
+        // This interceptor answers from the response cache, before the token is checked
+        if (cache == null) {
+            cache = ResponseCache.create(context);
+        }
+        builder.cache(cache.getDisk());
+        builder.addInterceptor(cache.interceptor());
+        builder.addNetworkInterceptor(cache.networkInterceptor());
+
         // This interceptor refreshes the access token if needed
         builder.addInterceptor(new Interceptor() {
             @Override
             public Response intercept(Chain chain) throws IOException {
                 // Don't intercept if not logged in or refresh token not yet expired or request is for login/refresh
-                if (TextUtils.isEmpty(AirMap.getAuthToken()) || !Auth.isTokenExpired() || chain.request().url().toString().matches(AuthService.refreshTokenUrl) || chain.request().url().toString().matches(AuthService.loginUrl)) {
+                String staleToken = AirMap.getAuthToken();
+                if (TextUtils.isEmpty(staleToken) || !tokenRefresher.isExpired(staleToken) || chain.request().url().toString().matches(AuthService.refreshTokenUrl) || chain.request().url().toString().matches(AuthService.loginUrl)) {
                     return chain.proceed(chain.request());
                 }
-                AirMap.refreshAccessToken();
+                // Concurrent requests share one refresh
+                String authToken = tokenRefresher.refresh(staleToken);
                 Builder newRequest = chain.request().newBuilder();
-                String authToken = AirMap.getAuthToken();
                 if (!TextUtils.isEmpty(authToken)) {
                     newRequest.header("Authorization", "Bearer " + authToken);
                 }
@@ -384,6 +412,21 @@ public class AirMapClient {
 
         //TODO: Check for active connections before reassigning client
         client = builder.connectTimeout(60, TimeUnit.SECONDS).readTimeout(60, TimeUnit.SECONDS).writeTimeout(60, TimeUnit.SECONDS).build();
+        cache.setClient(client);
+    }
+
+    /**
+     * @return the hit and miss counts of the response cache
+     */
+    public CacheMetrics getCacheMetrics() {
+        return cache.getMetrics();
+    }
+
+    /**
+     * Drop every cached response
+     */
+    public void clearCache() {
+        cache.clear();
     }
 
     /**
@@ -0,0 +1,47 @@
+package com.airmap.airmapsdk.networking.services;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter. Each delay is drawn from the upper half of a window that
+ * doubles with every attempt up to a maximum, so clients that lost their connection at the same
+ * time don't all retry at the same time, but none retries much sooner than the window.
+ */
+class Backoff {
+
+    private final long initial;
+    private final long max;
+    private final Random random;
+    private int attempts;
+
+    /**
+     * @param initial the window for the first attempt, in milliseconds
+     * @param max     the largest window, in milliseconds
+     */
+    Backoff(long initial, long max, Random random) {
+        this.initial = initial;
+        this.max = max;
+        this.random = random;
+    }
+
+    /**
+     * @return how long to wait before the next attempt, in milliseconds
+     */
+    synchronized long next() {
+        // compared before shifting, so the window can't overflow
+        long window = attempts < 63 && initial <= max >> attempts ? initial << attempts : max;
+        attempts++;
+        return window / 2 + (long) (random.nextDouble() * (window - window / 2));
+    }
+
+    synchronized int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Start again from the initial window, e.g. once connected
+     */
+    synchronized void reset() {
+        attempts = 0;
+    }
+}
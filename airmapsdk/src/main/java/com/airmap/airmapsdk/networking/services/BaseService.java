@@ -18,6 +18,7 @@ public class BaseService {
     protected static final String mapTilesBaseUrl = apiUrl + "/maps/v4/tilejson";
     protected static final String mapTilesRulesUrl = apiUrl + "/tiledata" + mapTilesVersion;
     protected static final String mapTilesBaseJurisdictionsUrl = mapTilesRulesUrl + "/base-jurisdiction/{z}/{x}/{y}";
+    protected static final String mapStylesUrl = "https://cdn.airmap.com/static/map-styles/0.10.0-beta1/"; //Used if airmap.config.json has no map_style
 
     //Aircraft
     protected static final String aircraftVersion = "/v2";
@@ -0,0 +1,82 @@
+package com.airmap.airmapsdk.networking.services;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hit and miss counts of the response cache, over the requests to endpoints that are cached.
+ * Everything is updated atomically, so it can be read from any thread while requests are made.
+ */
+public class CacheMetrics {
+
+    final AtomicLong memoryHits = new AtomicLong();
+    final AtomicLong diskHits = new AtomicLong();
+    final AtomicLong staleHits = new AtomicLong();
+    final AtomicLong misses = new AtomicLong();
+    final AtomicLong revalidations = new AtomicLong();
+
+    CacheMetrics() {
+    }
+
+    /**
+     * @return the number of requests answered from memory while fresh
+     */
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    /**
+     * @return the number of requests answered from the disk cache while fresh
+     */
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    /**
+     * @return the number of requests answered with a stale response, from memory or disk, while it
+     * was revalidated in the background
+     */
+    public long getStaleHits() {
+        return staleHits.get();
+    }
+
+    /**
+     * @return the number of requests that went to the server, including conditional requests
+     * answered with not modified
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of background revalidations of stale responses
+     */
+    public long getRevalidations() {
+        return revalidations.get();
+    }
+
+    /**
+     * @return the share of requests answered from the cache, between 0 and 1
+     */
+    public double getHitRatio() {
+        long hits = getMemoryHits() + getDiskHits() + getStaleHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0 : hits / (double) total;
+    }
+
+    /**
+     * @return every metric by name, e.g. for reporting
+     */
+    public Map<String, String> toMap() {
+        Map<String, String> values = new LinkedHashMap<>();
+        values.put("cache_memory_hits", String.valueOf(getMemoryHits()));
+        values.put("cache_disk_hits", String.valueOf(getDiskHits()));
+        values.put("cache_stale_hits", String.valueOf(getStaleHits()));
+        values.put("cache_misses", String.valueOf(getMisses()));
+        values.put("cache_revalidations", String.valueOf(getRevalidations()));
+        values.put("cache_hit_ratio", String.format(Locale.US, "%.3f", getHitRatio()));
+        return values;
+    }
+}
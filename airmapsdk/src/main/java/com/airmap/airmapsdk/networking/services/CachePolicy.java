@@ -0,0 +1,172 @@
+package com.airmap.airmapsdk.networking.services;
+
+import android.text.TextUtils;
+
+import com.airmap.airmapsdk.util.AirMapConfig;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long responses from a family of endpoints are cached. A response is fresh for the TTL, and
+ * for the stale window after that it is still served while it is revalidated in the background.
+ *
+ * The defaults can be changed per family in airmap.config.json, in seconds, e.g.
+ *
+ * "airmap": { "cache": { "rulesets": { "ttl": 3600, "stale": 86400 }, "pilot": { "ttl": 0 } } }
+ *
+ * A TTL of 0 turns caching off for the family.
+ *
+ * A family can be limited to the URLs a number of path segments below its prefix, e.g. only the
+ * pilot profile and not the pilot's aircraft. Writes anywhere in the family still drop the cached
+ * URL they belong to, so creating an aircraft drops the profile of its pilot.
+ */
+class CachePolicy {
+
+    static final String RULESETS = "rulesets";
+    static final String AIRSPACE = "airspace";
+    static final String AIRCRAFT = "aircraft";
+    static final String STYLES = "styles";
+    static final String PILOT = "pilot";
+
+    static final int ANY_DEPTH = -1;
+
+    final String family;
+    final String prefix;
+    final int depth;
+    final long ttl;
+    final long stale;
+
+    /**
+     * @param prefix the start of every URL in the family
+     * @param ttl    how long a response is fresh, in milliseconds
+     * @param stale  how long after that a response may be served while revalidating, in milliseconds
+     */
+    CachePolicy(String family, String prefix, long ttl, long stale) {
+        this(family, prefix, ANY_DEPTH, ttl, stale);
+    }
+
+    /**
+     * @param depth how many path segments below the prefix the cached URLs are, or
+     *              {@link #ANY_DEPTH} to cache every URL in the family
+     */
+    CachePolicy(String family, String prefix, int depth, long ttl, long stale) {
+        this.family = family;
+        this.prefix = prefix;
+        this.depth = depth;
+        this.ttl = ttl;
+        this.stale = stale;
+    }
+
+    /**
+     * @return whether responses from the URL are cached
+     */
+    boolean matches(String url) {
+        if (!contains(url)) {
+            return false;
+        }
+        String[] segments = segments(url);
+        return depth == ANY_DEPTH || (segments != null && segments.length == depth);
+    }
+
+    /**
+     * @return whether the URL is in the family, whether or not it is cached
+     */
+    boolean contains(String url) {
+        return url.startsWith(prefix);
+    }
+
+    /**
+     * @return the cached URL, without a query, that a URL in the family belongs to, or null if the
+     * family isn't limited to a depth
+     */
+    String getItem(String url) {
+        String[] segments = segments(url);
+        if (depth == ANY_DEPTH || segments == null || segments.length < depth) {
+            return null;
+        }
+        StringBuilder item = new StringBuilder(prefix);
+        for (int i = 0; i < depth; i++) {
+            item.append('/').append(segments[i]);
+        }
+        return item.toString();
+    }
+
+    //The path segments of a URL below the prefix, or null if it only shares the prefix's characters
+    private String[] segments(String url) {
+        String path = url.substring(prefix.length());
+        int end = path.length();
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '?' || path.charAt(i) == '#') {
+                end = i;
+                break;
+            }
+        }
+        path = path.substring(0, end);
+        if (path.isEmpty() || path.equals("/")) {
+            return new String[0];
+        }
+        if (path.charAt(0) != '/') {
+            return null;
+        }
+        return path.substring(1).split("/");
+    }
+
+    /**
+     * @return the first policy that matches the URL, or null if it isn't cached
+     */
+    static CachePolicy find(List<CachePolicy> policies, String url) {
+        for (CachePolicy policy : policies) {
+            if (policy.matches(url)) {
+                return policy;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the first policy of the family the URL is in, or null if it isn't in one
+     */
+    static CachePolicy findFamily(List<CachePolicy> policies, String url) {
+        for (CachePolicy policy : policies) {
+            if (policy.contains(url)) {
+                return policy;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param config the "cache" settings from airmap.config.json, or null for the defaults
+     * @return the policies of the families that are cached
+     */
+    static List<CachePolicy> fromConfig(JSONObject config) {
+        String stylesUrl = AirMapConfig.getMapStyleUrl();
+        if (TextUtils.isEmpty(stylesUrl)) {
+            stylesUrl = BaseService.mapStylesUrl;
+        }
+
+        List<CachePolicy> policies = new ArrayList<>();
+        add(policies, config, RULESETS, BaseService.rulesetBaseUrl, ANY_DEPTH, TimeUnit.HOURS.toSeconds(1), TimeUnit.DAYS.toSeconds(1));
+        add(policies, config, AIRSPACE, BaseService.airspaceBaseUrl, ANY_DEPTH, TimeUnit.DAYS.toSeconds(1), TimeUnit.DAYS.toSeconds(7));
+        add(policies, config, AIRCRAFT, BaseService.aircraftBaseUrl, ANY_DEPTH, TimeUnit.DAYS.toSeconds(7), TimeUnit.DAYS.toSeconds(30));
+        add(policies, config, STYLES, stylesUrl, ANY_DEPTH, TimeUnit.DAYS.toSeconds(1), TimeUnit.DAYS.toSeconds(7));
+        // only the profile, at pilot/v2/{id}
+        add(policies, config, PILOT, BaseService.pilotBaseUrl, 1, TimeUnit.MINUTES.toSeconds(5), TimeUnit.HOURS.toSeconds(1));
+        return policies;
+    }
+
+    private static void add(List<CachePolicy> policies, JSONObject config, String family, String prefix, int depth, long ttl, long stale) {
+        JSONObject settings = config != null ? config.optJSONObject(family) : null;
+        if (settings != null) {
+            ttl = settings.optLong("ttl", ttl);
+            stale = settings.optLong("stale", stale);
+        }
+        if (ttl > 0) {
+            policies.add(new CachePolicy(family, prefix, depth, TimeUnit.SECONDS.toMillis(ttl), TimeUnit.SECONDS.toMillis(Math.max(0, stale))));
+        }
+    }
+}
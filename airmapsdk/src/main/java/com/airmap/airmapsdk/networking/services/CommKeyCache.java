@@ -0,0 +1,186 @@
+package com.airmap.airmapsdk.networking.services;
+
+import android.content.SharedPreferences;
+import android.util.Base64;
+
+import androidx.annotation.Nullable;
+
+import com.airmap.airmapsdk.models.comm.AirMapComm;
+import com.airmap.airmapsdk.util.PreferenceUtils;
+import com.airmap.airmapsdk.util.SecuredPreferenceException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func0;
+import rx.functions.Func1;
+import timber.log.Timber;
+
+/**
+ * Caches telemetry comm keys in memory and in the secured preferences, so that a flight's key
+ * only has to be fetched from /start-comm once, and can be fetched ahead of the first packet.
+ * Concurrent requests for the same flight share one network call.
+ */
+class CommKeyCache {
+
+    // used when the flight's end time isn't known
+    static final long DEFAULT_TTL = 12 * 60 * 60 * 1000;
+
+    private static final String PREFERENCES_KEY = "telemetry_comm_keys";
+    private static final String KEY = "key";
+    private static final String EXPIRES_AT = "expires_at";
+
+    private final Map<String, Entry> keys;
+    private final Map<String, Observable<byte[]>> pending;
+    private boolean loaded;
+
+    CommKeyCache() {
+        keys = new ConcurrentHashMap<>();
+        pending = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Get the comm key for a flight, from the cache if it hasn't expired, otherwise from AirMap.
+     * The cache is read when the observable is subscribed to, so subscribe off the main thread.
+     *
+     * @param flightId  the flight to get the key for
+     * @param expiresAt when the key stops being useful (normally the end of the flight), or null
+     *                  to use a default
+     */
+    Observable<byte[]> get(final String flightId, @Nullable final Date expiresAt) {
+        return Observable.defer(new Func0<Observable<byte[]>>() {
+            @Override
+            public Observable<byte[]> call() {
+                return lookup(flightId, expiresAt);
+            }
+        });
+    }
+
+    private synchronized Observable<byte[]> lookup(final String flightId, @Nullable final Date expiresAt) {
+        load();
+
+        Entry entry = keys.get(flightId);
+        if (entry != null && !entry.isExpired()) {
+            return Observable.just(entry.key);
+        }
+
+        Observable<byte[]> request = pending.get(flightId);
+        if (request == null) {
+            request = FlightService.getCommKey(flightId)
+                    .map(new Func1<AirMapComm, byte[]>() {
+                        @Override
+                        public byte[] call(AirMapComm comm) {
+                            return comm.getKey();
+                        }
+                    })
+                    .doOnNext(new Action1<byte[]>() {
+                        @Override
+                        public void call(byte[] key) {
+                            long expiry = expiresAt != null ? expiresAt.getTime() : System.currentTimeMillis() + DEFAULT_TTL;
+                            put(flightId, new Entry(key, expiry));
+                        }
+                    })
+                    .doOnTerminate(new Action0() {
+                        @Override
+                        public void call() {
+                            pending.remove(flightId);
+                        }
+                    })
+                    .cache();
+            pending.put(flightId, request);
+        }
+        return request;
+    }
+
+    private synchronized void put(String flightId, Entry entry) {
+        keys.put(flightId, entry);
+        save();
+    }
+
+    //Reads the keys persisted by a previous session, once
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        SharedPreferences preferences = getPreferences();
+        String json = preferences != null ? preferences.getString(PREFERENCES_KEY, null) : null;
+        if (json == null) {
+            return;
+        }
+
+        try {
+            JSONObject stored = new JSONObject(json);
+            Iterator<String> flightIds = stored.keys();
+            while (flightIds.hasNext()) {
+                String flightId = flightIds.next();
+                JSONObject entryJson = stored.getJSONObject(flightId);
+                Entry entry = new Entry(Base64.decode(entryJson.getString(KEY), Base64.NO_WRAP), entryJson.getLong(EXPIRES_AT));
+                if (!entry.isExpired()) {
+                    keys.put(flightId, entry);
+                }
+            }
+        } catch (JSONException | IllegalArgumentException e) {
+            Timber.e(e, "Unable to read cached comm keys");
+        }
+    }
+
+    //Persists the keys that haven't expired yet
+    private void save() {
+        SharedPreferences preferences = getPreferences();
+        if (preferences == null) {
+            return;
+        }
+
+        JSONObject stored = new JSONObject();
+        try {
+            for (Map.Entry<String, Entry> entry : keys.entrySet()) {
+                if (entry.getValue().isExpired()) {
+                    keys.remove(entry.getKey());
+                    continue;
+                }
+                JSONObject entryJson = new JSONObject();
+                entryJson.put(KEY, Base64.encodeToString(entry.getValue().key, Base64.NO_WRAP));
+                entryJson.put(EXPIRES_AT, entry.getValue().expiresAt);
+                stored.put(entry.getKey(), entryJson);
+            }
+        } catch (JSONException e) {
+            Timber.e(e, "Unable to cache comm keys");
+            return;
+        }
+        preferences.edit().putString(PREFERENCES_KEY, stored.toString()).apply();
+    }
+
+    @Nullable
+    private static SharedPreferences getPreferences() {
+        try {
+            return PreferenceUtils.getPreferences(AirMap.getInstance().getContext());
+        } catch (SecuredPreferenceException | IllegalStateException e) {
+            Timber.w(e, "Comm keys will only be cached in memory");
+            return null;
+        }
+    }
+
+    private static class Entry {
+        final byte[] key;
+        final long expiresAt;
+
+        Entry(byte[] key, long expiresAt) {
+            this.key = key;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAt;
+        }
+    }
+}
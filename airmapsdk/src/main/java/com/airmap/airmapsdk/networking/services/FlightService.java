@@ -4,6 +4,7 @@ import androidx.annotation.Nullable;
 import android.text.TextUtils;
 
 import com.airmap.airmapsdk.AirMapException;
+import com.airmap.airmapsdk.models.AirMapBaseModel;
 import com.airmap.airmapsdk.models.comm.AirMapComm;
 import com.airmap.airmapsdk.models.flight.AirMapFlight;
 import com.airmap.airmapsdk.models.flight.AirMapFlightBriefing;
@@ -154,7 +155,7 @@ class FlightService extends BaseService {
         String url = String.format(flightPlanSubmitUrl, flightPlanId);
         Map<String, String> params = new HashMap<>();
         params.put("public", Boolean.toString(isPublic));
-        return AirMap.getClient().post(url, params, new GenericOkHttpCallback(callback, AirMapFlightPlan.class));
+        return AirMap.getClient().post(url, params, new PrefetchCommKeyCallback(callback, AirMapFlightPlan.class));
     }
 
     static Call getFlightPlanById(String flightPlanId, final AirMapCallback<AirMapFlightPlan> callback) {
@@ -189,7 +190,7 @@ class FlightService extends BaseService {
     static Call createFlight(AirMapFlight flight, final AirMapCallback<AirMapFlight> listener) {
         String url = flightBaseUrl + flight.getGeometryType().toString();
         JSONObject params = flight.getAsParams();
-        return AirMap.getClient().postWithJsonBody(url, params, new GenericOkHttpCallback(listener, AirMapFlight.class));
+        return AirMap.getClient().postWithJsonBody(url, params, new PrefetchCommKeyCallback(listener, AirMapFlight.class));
     }
 
     /**
@@ -238,4 +239,41 @@ class FlightService extends BaseService {
         String url = String.format(flightEndCommUrl, flight.getFlightId());
         return AirMap.getClient().post(url, new VoidCallback(listener));
     }
+
+    /**
+     * Fetches the comm key of a created or submitted flight as soon as the response is parsed, so
+     * that its first telemetry is sent immediately. The listener is still only posted to the main
+     * thread once
+     */
+    private static class PrefetchCommKeyCallback extends GenericOkHttpCallback {
+
+        PrefetchCommKeyCallback(@Nullable AirMapCallback listener, Class<? extends AirMapBaseModel> classToInstantiate) {
+            //Responses are only parsed for a listener
+            super(listener != null ? listener : new AirMapCallback<Object>() {
+                @Override
+                protected void onSuccess(Object response) {
+                }
+
+                @Override
+                protected void onError(AirMapException e) {
+                }
+            }, classToInstantiate);
+        }
+
+        @Override
+        protected void success(Object response) {
+            if (response instanceof AirMapFlightPlan) {
+                prefetch(((AirMapFlightPlan) response).getFlightId(), ((AirMapFlightPlan) response).getEndsAt());
+            } else if (response instanceof AirMapFlight) {
+                prefetch(((AirMapFlight) response).getFlightId(), ((AirMapFlight) response).getEndsAt());
+            }
+            super.success(response);
+        }
+
+        private static void prefetch(@Nullable String flightId, @Nullable Date endsAt) {
+            if (flightId != null) {
+                AirMap.getTelemetryService().prefetchCommKey(flightId, endsAt);
+            }
+        }
+    }
 }
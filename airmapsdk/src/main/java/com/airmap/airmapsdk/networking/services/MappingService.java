@@ -246,7 +246,7 @@ public class MappingService extends BaseService {
 
         // fallback
         if (TextUtils.isEmpty(stylesUrl)) {
-            stylesUrl = "https://cdn.airmap.com/static/map-styles/0.10.0-beta1/";
+            stylesUrl = mapStylesUrl;
         }
 
         switch (theme) {
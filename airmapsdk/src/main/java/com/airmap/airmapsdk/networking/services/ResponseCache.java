@@ -0,0 +1,456 @@
+package com.airmap.airmapsdk.networking.services;
+
+import android.content.Context;
+
+import com.airmap.airmapsdk.util.AirMapConfig;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Cache;
+import okhttp3.CacheControl;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import timber.log.Timber;
+
+/**
+ * Caches GET responses from the endpoints that have a {@link CachePolicy}, in two tiers: the
+ * bodies of recent responses in memory, in front of OkHttp's disk cache. The disk cache keeps
+ * responses for the TTL of their policy whatever caching headers the server sent.
+ *
+ * A response older than its TTL but within its stale window is still answered from either tier,
+ * and a single request per URL revalidates it in the background. Writes to a URL drop the cached
+ * responses for it and for its parent collection.
+ *
+ * Both tiers key responses on the URL without its access token, as the token changes whenever it
+ * is refreshed. The token is taken out of the request before it reaches OkHttp's cache, and only
+ * put back on the way to the server.
+ *
+ * The memory tier keeps response bodies rather than parsed models, as models are mutable and
+ * callers would otherwise share them.
+ */
+class ResponseCache {
+
+    static final long DEFAULT_DISK_SIZE = 20 * 1024 * 1024;
+    static final long DEFAULT_MEMORY_SIZE = 2 * 1024 * 1024;
+
+    private static final String ACCESS_TOKEN = "access_token";
+    private static final Revalidation REVALIDATION = new Revalidation();
+
+    private final List<CachePolicy> policies;
+    private final Cache disk;
+    private final Memory memory;
+    private final CacheMetrics metrics = new CacheMetrics();
+    private final Set<String> revalidating = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile OkHttpClient client;
+
+    /**
+     * @param disk       the disk tier, or null for memory only
+     * @param memorySize the most response bytes to keep in memory
+     */
+    ResponseCache(List<CachePolicy> policies, Cache disk, long memorySize) {
+        this.policies = policies;
+        this.disk = disk;
+        memory = new Memory(memorySize);
+    }
+
+    /**
+     * Create the cache from the settings in airmap.config.json, with the disk tier in the app's
+     * cache directory
+     */
+    static ResponseCache create(Context context) {
+        JSONObject settings = AirMapConfig.getCacheSettings();
+        long diskSize = DEFAULT_DISK_SIZE;
+        long memorySize = DEFAULT_MEMORY_SIZE;
+        if (settings != null) {
+            diskSize = settings.optLong("disk_mb", diskSize / 1024 / 1024) * 1024 * 1024;
+            memorySize = settings.optLong("memory_kb", memorySize / 1024) * 1024;
+        }
+        Cache disk = diskSize > 0 ? new Cache(new File(context.getCacheDir(), "airmap-http"), diskSize) : null;
+        return new ResponseCache(CachePolicy.fromConfig(settings), disk, memorySize);
+    }
+
+    /**
+     * @param client the client to revalidate with, built with this cache's interceptors
+     */
+    void setClient(OkHttpClient client) {
+        this.client = client;
+    }
+
+    Cache getDisk() {
+        return disk;
+    }
+
+    CacheMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Drop every cached response, e.g. when the user logs out
+     */
+    void clear() {
+        memory.clear();
+        if (disk != null) {
+            try {
+                disk.evictAll();
+            } catch (IOException e) {
+                Timber.e(e, "Unable to clear the disk cache");
+            }
+        }
+    }
+
+    /**
+     * @return the application interceptor that answers from memory. Add it before the other
+     * interceptors, so a cached response doesn't need an access token
+     */
+    Interceptor interceptor() {
+        return new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                return ResponseCache.this.intercept(chain);
+            }
+        };
+    }
+
+    /**
+     * @return the network interceptor that puts the access token back for the server, and sets
+     * how long the disk tier keeps a response
+     */
+    Interceptor networkInterceptor() {
+        return new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                Request request = chain.request();
+                AccessToken token = request.tag(AccessToken.class);
+                Response response = chain.proceed(token != null ? token.addTo(request) : request);
+                if (token != null) {
+                    // the disk tier keys on the URL of the response's request
+                    response = response.newBuilder().request(request).build();
+                }
+                if (!"GET".equals(request.method()) || (!response.isSuccessful() && response.code() != HttpURLConnection.HTTP_NOT_MODIFIED)) {
+                    return response;
+                }
+                CachePolicy policy = CachePolicy.find(policies, request.url().toString());
+                if (policy == null) {
+                    return response;
+                }
+                return response.newBuilder()
+                        .removeHeader("Pragma")
+                        .removeHeader("Expires")
+                        .header("Cache-Control", "max-age=" + TimeUnit.MILLISECONDS.toSeconds(policy.ttl))
+                        .build();
+            }
+        };
+    }
+
+    private Response intercept(Interceptor.Chain chain) throws IOException {
+        Request request = chain.request();
+        if (!"GET".equals(request.method())) {
+            invalidate(request);
+            return chain.proceed(request);
+        }
+        CachePolicy policy = CachePolicy.find(policies, request.url().toString());
+        if (policy == null) {
+            return chain.proceed(request);
+        }
+
+        String key = key(request.url());
+        Request forward = withoutAccessToken(request);
+        long now = System.currentTimeMillis();
+        boolean revalidation = request.tag(Revalidation.class) != null;
+        if (!revalidation) {
+            Entry entry = memory.get(key);
+            if (entry != null) {
+                long age = now - entry.receivedAt;
+                if (age < policy.ttl) {
+                    metrics.memoryHits.incrementAndGet();
+                    return entry.toResponse(request);
+                } else if (age < policy.ttl + policy.stale) {
+                    metrics.staleHits.incrementAndGet();
+                    revalidate(request, key);
+                    return entry.toResponse(request);
+                }
+                memory.remove(key);
+            }
+            if (policy.stale > 0) {
+                // let the disk tier answer with a stale response too, which is revalidated below
+                forward = forward.newBuilder()
+                        .cacheControl(new CacheControl.Builder().maxStale((int) TimeUnit.MILLISECONDS.toSeconds(policy.stale), TimeUnit.SECONDS).build())
+                        .build();
+            }
+        }
+
+        Response response = chain.proceed(forward);
+        long receivedAt = response.receivedResponseAtMillis() > 0 ? response.receivedResponseAtMillis() : now;
+        if (response.networkResponse() == null && response.cacheResponse() != null) {
+            if (now - receivedAt < policy.ttl) {
+                metrics.diskHits.incrementAndGet();
+            } else {
+                metrics.staleHits.incrementAndGet();
+                revalidate(request, key);
+            }
+        } else if (!revalidation) {
+            metrics.misses.incrementAndGet();
+        }
+        if (!response.isSuccessful() || response.body() == null) {
+            return response;
+        }
+        return store(key, response, receivedAt);
+    }
+
+    private Response store(String key, Response response, long receivedAt) throws IOException {
+        ResponseBody body = response.body();
+        if (body.contentLength() > memory.maxEntrySize) {
+            return response;
+        }
+        MediaType type = body.contentType();
+        byte[] bytes = body.bytes();
+        if (bytes.length <= memory.maxEntrySize) {
+            memory.put(key, new Entry(response, type, bytes, receivedAt));
+        }
+        return response.newBuilder().body(ResponseBody.create(type, bytes)).build();
+    }
+
+    /**
+     * Fetch a stale response again in the background, unless it is already being fetched. The
+     * request goes through the interceptors again, which cache the new response
+     */
+    private void revalidate(Request request, final String key) {
+        OkHttpClient client = this.client;
+        if (client == null || !revalidating.add(key)) {
+            return;
+        }
+        metrics.revalidations.incrementAndGet();
+        Request revalidation = request.newBuilder()
+                .cacheControl(new CacheControl.Builder().maxAge(0, TimeUnit.SECONDS).build()) //conditional, if the server sent validators
+                .tag(Revalidation.class, REVALIDATION)
+                .build();
+        client.newCall(revalidation).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                revalidating.remove(key);
+                Timber.w(e, "Unable to revalidate %s", key);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                revalidating.remove(key);
+                response.close();
+            }
+        });
+    }
+
+    /**
+     * Drop the cached responses for the URL written to. Updates and deletes also drop the
+     * collection the URL belongs to, and any write drops the cached URL it is below in a family
+     * limited to a depth, from both tiers. OkHttp already drops the disk response for a URL that is
+     * posted to
+     */
+    private void invalidate(Request request) {
+        HttpUrl url = request.url();
+        CachePolicy policy = CachePolicy.findFamily(policies, url.toString());
+        if (policy == null) {
+            return;
+        }
+        List<String> paths = new ArrayList<>();
+        if ("POST".equals(request.method())) {
+            memory.remove(key(url));
+        } else {
+            paths.add(path(url));
+            if (url.pathSize() > 1) {
+                paths.add(path(url.newBuilder().removePathSegment(url.pathSize() - 1).build()));
+            }
+        }
+        String item = policy.getItem(url.toString());
+        if (item != null) {
+            paths.add(item);
+        }
+        if (paths.isEmpty()) {
+            return;
+        }
+        memory.removePaths(paths);
+        if (disk != null) {
+            try {
+                Iterator<String> urls = disk.urls();
+                while (urls.hasNext()) {
+                    HttpUrl cached = HttpUrl.parse(urls.next());
+                    if (cached != null && paths.contains(path(cached))) {
+                        urls.remove();
+                    }
+                }
+            } catch (IOException e) {
+                Timber.e(e, "Unable to invalidate the disk cache");
+            }
+        }
+    }
+
+    /**
+     * @return the URL without the access token, which changes whenever the token is refreshed
+     */
+    static String key(HttpUrl url) {
+        return url.newBuilder().removeAllQueryParameters(ACCESS_TOKEN).build().toString();
+    }
+
+    private static String path(HttpUrl url) {
+        return url.newBuilder().query(null).build().toString();
+    }
+
+    /**
+     * @return the request without its access token, tagged with the token to send the server
+     */
+    private static Request withoutAccessToken(Request request) {
+        String token = request.url().queryParameter(ACCESS_TOKEN);
+        if (token == null) {
+            return request;
+        }
+        return request.newBuilder()
+                .url(request.url().newBuilder().removeAllQueryParameters(ACCESS_TOKEN).build())
+                .tag(AccessToken.class, new AccessToken(request.url().host(), token))
+                .build();
+    }
+
+    /**
+     * A cached response, which can be answered to any number of requests
+     */
+    private static class Entry {
+
+        final String path;
+        final int code;
+        final String message;
+        final Protocol protocol;
+        final Headers headers;
+        final MediaType type;
+        final byte[] body;
+        final long receivedAt;
+
+        Entry(Response response, MediaType type, byte[] body, long receivedAt) {
+            path = path(response.request().url());
+            code = response.code();
+            message = response.message();
+            protocol = response.protocol();
+            headers = response.headers();
+            this.type = type;
+            this.body = body;
+            this.receivedAt = receivedAt;
+        }
+
+        Response toResponse(Request request) {
+            return new Response.Builder()
+                    .request(request)
+                    .protocol(protocol)
+                    .code(code)
+                    .message(message)
+                    .headers(headers)
+                    .body(ResponseBody.create(type, body))
+                    .sentRequestAtMillis(receivedAt)
+                    .receivedResponseAtMillis(receivedAt)
+                    .build();
+        }
+    }
+
+    /**
+     * Least recently used responses are dropped once the bodies add up to more than the size
+     */
+    private static class Memory {
+
+        final long maxSize;
+        final long maxEntrySize;
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long size;
+
+        Memory(long maxSize) {
+            this.maxSize = maxSize;
+            maxEntrySize = maxSize / 8; //so one large response doesn't flush everything else
+        }
+
+        synchronized Entry get(String key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(String key, Entry entry) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                size -= previous.body.length;
+            }
+            size += entry.body.length;
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (size > maxSize && eldest.hasNext()) {
+                size -= eldest.next().body.length;
+                eldest.remove();
+            }
+        }
+
+        synchronized void remove(String key) {
+            Entry entry = entries.remove(key);
+            if (entry != null) {
+                size -= entry.body.length;
+            }
+        }
+
+        synchronized void removePaths(List<String> paths) {
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next().getValue();
+                if (paths.contains(entry.path)) {
+                    size -= entry.body.length;
+                    iterator.remove();
+                }
+            }
+        }
+
+        synchronized void clear() {
+            entries.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * The access token taken out of a request's URL
+     */
+    private static class AccessToken {
+
+        final String host;
+        final String value;
+
+        AccessToken(String host, String value) {
+            this.host = host;
+            this.value = value;
+        }
+
+        Request addTo(Request request) {
+            if (!host.equals(request.url().host())) {
+                return request; //redirected elsewhere
+            }
+            return request.newBuilder()
+                    .url(request.url().newBuilder().addQueryParameter(ACCESS_TOKEN, value).build())
+                    .build();
+        }
+    }
+
+    /**
+     * Tags the background requests that revalidate a stale response
+     */
+    private static class Revalidation {
+    }
+}
@@ -0,0 +1,280 @@
+package com.airmap.airmapsdk.networking.services;
+
+import com.airmap.airmapsdk.models.Telemetry;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encodes telemetry packets into buffers owned by a single session so that the steady state
+ * send path does not allocate. A packet is laid out as:
+ *
+ * serial (int) | flight id length (byte) | flight id | encryption (byte) | iv (16 bytes) | payload
+ *
+ * where the payload is a sequence of type (short) | length (short) | protobuf message, encrypted
+ * with AES-256-CBC and PKCS5 padding. Instances are not thread safe.
+ */
+class TelemetryEncoder {
+
+    static final int BLOCK_SIZE = 16;
+    static final int MAX_PAYLOAD_SIZE = 4096;
+    static final int MAX_PACKET_SIZE = 4 + 1 + 255 + 1 + BLOCK_SIZE + MAX_PAYLOAD_SIZE + BLOCK_SIZE;
+
+    private static final int CODED_BUFFER_SIZE = 256;
+
+    //Payload buffers are recycled between sessions so a new flight doesn't need a fresh allocation
+    private static final ConcurrentLinkedQueue<ByteBuffer> payloadPool = new ConcurrentLinkedQueue<>();
+
+    enum Encryption {
+        NONE,
+        AES256CBC
+    }
+
+    enum MessageType {
+        POSITION(1),
+        SPEED(2),
+        ATTITUDE(3),
+        BAROMETER(4);
+
+        public final int value;
+
+        MessageType(int value) {
+            this.value = value;
+        }
+
+        static MessageType from(MessageLite message) {
+            if (message instanceof Telemetry.Position) {
+                return POSITION;
+            } else if (message instanceof Telemetry.Speed) {
+                return SPEED;
+            } else if (message instanceof Telemetry.Attitude) {
+                return ATTITUDE;
+            } else if (message instanceof Telemetry.Barometer) {
+                return BAROMETER;
+            }
+            return null;
+        }
+
+        static MessageType from(Class<?> messageClass) {
+            if (messageClass == Telemetry.Position.class) {
+                return POSITION;
+            } else if (messageClass == Telemetry.Speed.class) {
+                return SPEED;
+            } else if (messageClass == Telemetry.Attitude.class) {
+                return ATTITUDE;
+            } else if (messageClass == Telemetry.Barometer.class) {
+                return BAROMETER;
+            }
+            return null;
+        }
+    }
+
+    private final byte[] flightId;
+    private final Encryption encryption;
+
+    private final ByteBuffer payload;
+    private final CodedOutputStream payloadStream;
+    private final byte[] packet;
+
+    // AES is used as a raw block cipher and chained by hand, which lets us change the IV for every
+    // packet without re-initializing the cipher (and allocating a new key schedule) each time.
+    // The output is identical to "AES/CBC/PKCS5Padding".
+    private final Cipher blockCipher;
+    private final SecureRandom random;
+    private final byte[] nonce;
+    private final byte[] iv;
+    private final byte[] block;
+
+    TelemetryEncoder(String flightId, byte[] key, Encryption encryption) throws GeneralSecurityException {
+        this.flightId = new byte[flightId.length()];
+        for (int i = 0; i < flightId.length(); i++) {
+            this.flightId[i] = (byte) flightId.charAt(i);
+        }
+        this.encryption = encryption;
+
+        ByteBuffer pooled = payloadPool.poll();
+        payload = pooled != null ? pooled : ByteBuffer.allocate(MAX_PAYLOAD_SIZE + BLOCK_SIZE);
+        payload.clear();
+        payloadStream = CodedOutputStream.newInstance(new PayloadOutputStream(payload), CODED_BUFFER_SIZE);
+        packet = new byte[MAX_PACKET_SIZE];
+
+        nonce = new byte[BLOCK_SIZE];
+        iv = new byte[BLOCK_SIZE];
+        block = new byte[BLOCK_SIZE];
+
+        if (encryption == Encryption.AES256CBC) {
+            blockCipher = Cipher.getInstance("AES/ECB/NoPadding");
+            blockCipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"));
+            random = new SecureRandom();
+            random.nextBytes(nonce);
+        } else {
+            blockCipher = null;
+            random = null;
+        }
+    }
+
+    /**
+     * @return the number of payload bytes a message takes up, including its type and length
+     */
+    static int messageSize(MessageLite message) {
+        return 4 + message.getSerializedSize();
+    }
+
+    /**
+     * @return the size of a packet carrying a payload of the given length
+     */
+    int packetSize(int payloadLength) {
+        int header = 4 + 1 + flightId.length + 1;
+        switch (encryption) {
+            case AES256CBC:
+                return header + BLOCK_SIZE + (payloadLength / BLOCK_SIZE + 1) * BLOCK_SIZE;
+            case NONE:
+            default:
+                return header + payloadLength;
+        }
+    }
+
+    /**
+     * The buffer the last packet was encoded into. Only valid until the next call to encode.
+     */
+    byte[] getBuffer() {
+        return packet;
+    }
+
+    /**
+     * Encode a packet into the buffer returned by {@link #getBuffer()}
+     *
+     * @param serialNumber the packet's sequence number
+     * @param messages     the telemetry messages to include in the payload
+     * @return the length of the encoded packet
+     */
+    int encode(int serialNumber, List<MessageLite> messages) throws IOException, GeneralSecurityException {
+        int offset = 0;
+        offset = writeInt(packet, offset, serialNumber);
+        packet[offset++] = (byte) flightId.length;
+        System.arraycopy(flightId, 0, packet, offset, flightId.length);
+        offset += flightId.length;
+
+        int payloadLength = 0;
+        for (int i = 0; i < messages.size(); i++) {
+            payloadLength += messageSize(messages.get(i));
+        }
+        if (payloadLength > MAX_PAYLOAD_SIZE) {
+            throw new IOException("Telemetry payload of " + payloadLength + " bytes exceeds " + MAX_PAYLOAD_SIZE);
+        }
+
+        payload.clear();
+        for (int i = 0; i < messages.size(); i++) {
+            writeMessage(messages.get(i));
+        }
+        payloadStream.flush();
+
+        switch (encryption) {
+            case AES256CBC:
+                packet[offset++] = 1;
+                generateIv(serialNumber);
+                System.arraycopy(iv, 0, packet, offset, BLOCK_SIZE);
+                offset += BLOCK_SIZE;
+                offset = encrypt(payload.array(), payloadLength, packet, offset);
+                break;
+            case NONE:
+            default:
+                packet[offset++] = 0;
+                System.arraycopy(payload.array(), 0, packet, offset, payloadLength);
+                offset += payloadLength;
+                break;
+        }
+
+        return offset;
+    }
+
+    /**
+     * Return the payload buffer to the pool. The encoder must not be used afterwards.
+     */
+    void release() {
+        payloadPool.offer(payload);
+    }
+
+    private void writeMessage(MessageLite message) throws IOException {
+        MessageType messageType = MessageType.from(message);
+        int type = messageType != null ? messageType.value : 0;
+        int size = message.getSerializedSize();
+
+        payloadStream.writeRawByte((byte) (type >>> 8));
+        payloadStream.writeRawByte((byte) type);
+        payloadStream.writeRawByte((byte) (size >>> 8));
+        payloadStream.writeRawByte((byte) size);
+        message.writeTo(payloadStream);
+    }
+
+    //Encrypts the first length bytes of the plain text into out with AES-CBC and PKCS5 padding
+    private int encrypt(byte[] plainText, int length, byte[] out, int offset) throws GeneralSecurityException {
+        int padding = BLOCK_SIZE - (length % BLOCK_SIZE);
+        for (int i = 0; i < padding; i++) {
+            plainText[length + i] = (byte) padding;
+        }
+        int paddedLength = length + padding;
+
+        byte[] previous = iv;
+        int previousOffset = 0;
+        for (int i = 0; i < paddedLength; i += BLOCK_SIZE) {
+            for (int j = 0; j < BLOCK_SIZE; j++) {
+                block[j] = (byte) (plainText[i + j] ^ previous[previousOffset + j]);
+            }
+            blockCipher.update(block, 0, BLOCK_SIZE, out, offset);
+            previous = out;
+            previousOffset = offset;
+            offset += BLOCK_SIZE;
+        }
+        return offset;
+    }
+
+    //Generates an unpredictable IV by encrypting a per-session random nonce combined with the serial number
+    private void generateIv(int serialNumber) throws GeneralSecurityException {
+        System.arraycopy(nonce, 0, block, 0, BLOCK_SIZE);
+        block[12] ^= (byte) (serialNumber >>> 24);
+        block[13] ^= (byte) (serialNumber >>> 16);
+        block[14] ^= (byte) (serialNumber >>> 8);
+        block[15] ^= (byte) serialNumber;
+        blockCipher.update(block, 0, BLOCK_SIZE, iv, 0);
+    }
+
+    private static int writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+        return offset + 4;
+    }
+
+    /**
+     * Adapts the pooled payload buffer so a single CodedOutputStream can be reused for every packet
+     */
+    private static class PayloadOutputStream extends OutputStream {
+        private final ByteBuffer buffer;
+
+        PayloadOutputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buffer.put(b, off, len);
+        }
+    }
+}
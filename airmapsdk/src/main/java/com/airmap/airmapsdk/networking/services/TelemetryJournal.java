@@ -0,0 +1,324 @@
+package com.airmap.airmapsdk.networking.services;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import timber.log.Timber;
+
+/**
+ * Durable store-and-forward queue of encoded telemetry packets for a single flight. Packets that
+ * can't be sent are appended to a memory-mapped ring file made of fixed size records, and are
+ * read back in order once the connection recovers. When the ring is full the oldest packet is
+ * overwritten, so disk usage per flight is bounded by {@link #getFileSize()}.
+ *
+ * File layout:
+ *
+ * header:  magic (int) | version (int) | record size (int) | capacity (int) | head (long) | tail (long) |
+ *          last sequence (int)
+ * records: sequence (int) | length (int) | crc32 (int) | packet
+ *
+ * head and tail only ever increase; a record's slot is its index modulo the capacity. A record
+ * is written before the tail is advanced past it and every record is checksummed, so a journal
+ * left behind by a process that was killed mid-write is recovered up to the last complete record.
+ * The header also keeps the last sequence number assigned to a packet, sent or not, so a new
+ * session for the flight never reuses one.
+ * Journals of flights that are no longer running are deleted once they are old or together take up
+ * too much space; the journal of a running session never is.
+ *
+ * A session that starts for a flight while the previous one is still closing is handed the same
+ * instance, rather than mapping the file a second time, so the two never keep separate head and
+ * tail state over one file and the file is only truncated once the last of them closes it.
+ */
+class TelemetryJournal {
+
+    static final int DEFAULT_CAPACITY = 2048;
+    static final int RECORD_SIZE = 1536;
+    static final int MAX_PACKET_SIZE = RECORD_SIZE - 12;
+
+    private static final String EXTENSION = ".journal";
+    private static final int MAGIC = 0x414D544A;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int HEAD_OFFSET = 16;
+    private static final int TAIL_OFFSET = 24;
+    private static final int SEQUENCE_OFFSET = 32;
+
+    // journals that aren't open are deleted once they haven't been written to for this long, or
+    // oldest first once together they take up more than this many bytes
+    static final long MAX_AGE = TimeUnit.DAYS.toMillis(7);
+    static final long MAX_DISK_USAGE = 8 * (HEADER_SIZE + (long) DEFAULT_CAPACITY * RECORD_SIZE);
+
+    // the journals of sessions that are running, which mustn't be deleted
+    private static final Map<File, TelemetryJournal> open = new HashMap<>();
+
+    private final File file;
+    private final int capacity;
+    private final MappedByteBuffer buffer;
+    private final CRC32 crc;
+
+    private long head;
+    private long tail;
+    // sessions the journal has been opened for and not yet closed by, guarded by open
+    private int references;
+
+    /**
+     * Open the journal for a flight, recovering any packets left in it by a previous session. If
+     * the journal is still open for another session of the flight, that instance is returned.
+     *
+     * @param directory the directory journals are kept in
+     * @param flightId  the flight the packets belong to
+     * @param capacity  the maximum number of packets to keep
+     */
+    static TelemetryJournal open(File directory, String flightId, int capacity) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create journal directory " + directory);
+        }
+        File file = new File(directory, flightId.replaceAll("[^A-Za-z0-9._-]", "_") + EXTENSION).getAbsoluteFile();
+        TelemetryJournal journal;
+        synchronized (open) {
+            journal = open.get(file);
+            if (journal == null) {
+                journal = new TelemetryJournal(file, capacity);
+                open.put(file, journal);
+            }
+            journal.references++;
+        }
+        deleteOldJournals(directory);
+        return journal;
+    }
+
+    private TelemetryJournal(File file, int capacity) throws IOException {
+        this.file = file;
+        this.capacity = capacity;
+        this.crc = new CRC32();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            long size = getFileSize();
+            raf.setLength(size);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            raf.close();
+        }
+
+        recover();
+    }
+
+    /**
+     * @return the number of packets waiting in the journal
+     */
+    synchronized int size() {
+        return (int) (tail - head);
+    }
+
+    synchronized boolean isEmpty() {
+        return head == tail;
+    }
+
+    /**
+     * @return the number of bytes the journal occupies on disk
+     */
+    long getFileSize() {
+        return HEADER_SIZE + (long) capacity * RECORD_SIZE;
+    }
+
+    /**
+     * Append a packet, overwriting the oldest one if the journal is full
+     *
+     * @return whether the packet was stored. Packets larger than a record are not
+     */
+    synchronized boolean append(int sequence, byte[] packet, int length) {
+        if (length > MAX_PACKET_SIZE) {
+            Timber.w("Telemetry packet of %d bytes is too large to journal", length);
+            return false;
+        }
+
+        if (size() == capacity) {
+            // drop the oldest before its slot is reused
+            head++;
+            buffer.putLong(HEAD_OFFSET, head);
+        }
+
+        int offset = recordOffset(tail);
+        crc.reset();
+        crc.update(packet, 0, length);
+        buffer.putInt(offset, sequence);
+        buffer.putInt(offset + 4, length);
+        buffer.putInt(offset + 8, (int) crc.getValue());
+        buffer.position(offset + 12);
+        buffer.put(packet, 0, length);
+
+        tail++;
+        buffer.putLong(TAIL_OFFSET, tail);
+        return true;
+    }
+
+    /**
+     * Copy the oldest packet into out without removing it
+     *
+     * @return the length of the packet, or -1 if the journal is empty
+     */
+    synchronized int peek(byte[] out) {
+        if (isEmpty()) {
+            return -1;
+        }
+
+        int offset = recordOffset(head);
+        int length = buffer.getInt(offset + 4);
+        buffer.position(offset + 12);
+        buffer.get(out, 0, length);
+        return length;
+    }
+
+    /**
+     * @return the last sequence number assigned to a packet of the flight, or 0 if there was none
+     */
+    synchronized int getLastSequence() {
+        return buffer.getInt(SEQUENCE_OFFSET);
+    }
+
+    /**
+     * Record the sequence number assigned to a packet, whether or not it is journaled
+     */
+    synchronized void setLastSequence(int sequence) {
+        buffer.putInt(SEQUENCE_OFFSET, sequence);
+    }
+
+    /**
+     * Remove the oldest packet once it has been sent
+     */
+    synchronized void remove() {
+        if (!isEmpty()) {
+            head++;
+            buffer.putLong(HEAD_OFFSET, head);
+        }
+    }
+
+    /**
+     * Close the journal for one of the sessions it was opened for. Once the last of them has
+     * closed it, it is flushed to disk and, if nothing is left to send, the records are truncated
+     * away and only the header is kept for the last sequence number
+     */
+    void close() {
+        // held while truncating, so the file can't be opened and mapped again in the meantime
+        synchronized (open) {
+            if (references == 0 || --references > 0) {
+                return;
+            }
+            open.remove(file);
+            synchronized (this) {
+                buffer.force();
+                if (isEmpty()) {
+                    try {
+                        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                        try {
+                            raf.setLength(HEADER_SIZE);
+                        } finally {
+                            raf.close();
+                        }
+                    } catch (IOException e) {
+                        Timber.w(e, "Unable to truncate telemetry journal %s", file);
+                    }
+                }
+            }
+        }
+    }
+
+    private int recordOffset(long index) {
+        return HEADER_SIZE + (int) (index % capacity) * RECORD_SIZE;
+    }
+
+    private void recover() {
+        boolean valid = buffer.getInt(0) == MAGIC
+                && buffer.getInt(4) == VERSION
+                && buffer.getInt(8) == RECORD_SIZE
+                && buffer.getInt(12) == capacity;
+        head = buffer.getLong(HEAD_OFFSET);
+        tail = buffer.getLong(TAIL_OFFSET);
+
+        if (!valid || head < 0 || tail < head || tail - head > capacity) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, RECORD_SIZE);
+            buffer.putInt(12, capacity);
+            head = 0;
+            tail = 0;
+            buffer.putLong(HEAD_OFFSET, head);
+            buffer.putLong(TAIL_OFFSET, tail);
+            buffer.putInt(SEQUENCE_OFFSET, 0);
+            return;
+        }
+
+        // keep everything up to the first record that wasn't completely written
+        byte[] record = new byte[MAX_PACKET_SIZE];
+        for (long index = head; index < tail; index++) {
+            int offset = recordOffset(index);
+            int length = buffer.getInt(offset + 4);
+            if (length < 0 || length > MAX_PACKET_SIZE) {
+                truncate(index);
+                break;
+            }
+            buffer.position(offset + 12);
+            buffer.get(record, 0, length);
+            crc.reset();
+            crc.update(record, 0, length);
+            if ((int) crc.getValue() != buffer.getInt(offset + 8)) {
+                truncate(index);
+                break;
+            }
+        }
+
+        if (!isEmpty()) {
+            Timber.i("Recovered %d telemetry packets from %s", size(), file.getName());
+        }
+    }
+
+    private void truncate(long index) {
+        Timber.w("Discarding %d incomplete telemetry packets from %s", tail - index, file.getName());
+        tail = index;
+        buffer.putLong(TAIL_OFFSET, tail);
+    }
+
+    //Deletes the journals of flights that aren't running, once they are too old or take up too much space
+    private static void deleteOldJournals(File directory) {
+        synchronized (open) {
+            File[] journals = directory.listFiles();
+            if (journals == null) {
+                return;
+            }
+
+            // newest first
+            Arrays.sort(journals, new Comparator<File>() {
+                @Override
+                public int compare(File a, File b) {
+                    long difference = b.lastModified() - a.lastModified();
+                    return difference > 0 ? 1 : difference < 0 ? -1 : 0;
+                }
+            });
+            long now = System.currentTimeMillis();
+            long usage = 0;
+            for (File journal : journals) {
+                if (!journal.getName().endsWith(EXTENSION) || open.containsKey(journal.getAbsoluteFile())) {
+                    continue;
+                }
+                long length = journal.length();
+                if (now - journal.lastModified() < MAX_AGE && usage + length <= MAX_DISK_USAGE) {
+                    usage += length;
+                    continue;
+                }
+                if (!journal.delete()) {
+                    Timber.w("Unable to delete telemetry journal %s", journal);
+                }
+            }
+        }
+    }
+}
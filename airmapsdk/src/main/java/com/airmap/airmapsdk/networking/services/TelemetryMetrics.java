@@ -0,0 +1,234 @@
+package com.airmap.airmapsdk.networking.services;
+
+import com.google.protobuf.MessageLite;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and timings for a TelemetryService, shared by all of its flights. Sample counts are
+ * kept per message type; pass the message class, e.g. {@code Telemetry.Position.class}.
+ * Everything is updated atomically, so it can be read from any thread while telemetry is sent.
+ */
+public class TelemetryMetrics {
+
+    private static final int TYPES = TelemetryEncoder.MessageType.values().length;
+
+    final AtomicLongArray receivedSamples = new AtomicLongArray(TYPES);
+    final AtomicLongArray replacedSamples = new AtomicLongArray(TYPES);
+    final AtomicLongArray sentSamples = new AtomicLongArray(TYPES);
+    final AtomicLongArray suppressedSamples = new AtomicLongArray(TYPES);
+
+    final AtomicLong packetsSent = new AtomicLong();
+    final AtomicLong bytesSent = new AtomicLong();
+    final ConcurrentHashMap<String, AtomicLong> failures = new ConcurrentHashMap<>();
+
+    final Histogram encodeTime = new Histogram();
+    final Histogram socketSendTime = new Histogram();
+    final Histogram commKeyLatency = new Histogram();
+
+    TelemetryMetrics() {
+    }
+
+    /**
+     * @return the number of samples given to the service, of every type
+     */
+    public long getReceivedSamples() {
+        return sum(receivedSamples);
+    }
+
+    public long getReceivedSamples(Class<? extends MessageLite> type) {
+        return get(receivedSamples, type);
+    }
+
+    /**
+     * @return the number of samples dropped by sampling: replaced by a newer sample before they
+     * were taken, or suppressed by the rate policy
+     */
+    public long getDroppedSamples() {
+        return sum(replacedSamples) + sum(suppressedSamples);
+    }
+
+    public long getDroppedSamples(Class<? extends MessageLite> type) {
+        return get(replacedSamples, type) + get(suppressedSamples, type);
+    }
+
+    /**
+     * @return the number of samples the rate policy let through
+     */
+    public long getSentSamples() {
+        return sum(sentSamples);
+    }
+
+    public long getSentSamples(Class<? extends MessageLite> type) {
+        return get(sentSamples, type);
+    }
+
+    /**
+     * @return the number of samples the rate policy suppressed
+     */
+    public long getSuppressedSamples() {
+        return sum(suppressedSamples);
+    }
+
+    /**
+     * @return the number of packets handed to the socket, including resent journaled packets
+     */
+    public long getPacketsSent() {
+        return packetsSent.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * @return the number of packets that couldn't be built or sent, by exception class name
+     */
+    public Map<String, Long> getSendFailures() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Map.Entry<String, AtomicLong> failure : failures.entrySet()) {
+            counts.put(failure.getKey(), failure.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * @return how long it takes to serialize and encrypt a packet, in microseconds
+     */
+    public Histogram getEncodeTime() {
+        return encodeTime;
+    }
+
+    /**
+     * @return how long the socket takes to send a packet, in microseconds
+     */
+    public Histogram getSocketSendTime() {
+        return socketSendTime;
+    }
+
+    /**
+     * @return how long it takes to get a flight's comm key, in milliseconds
+     */
+    public Histogram getCommKeyLatency() {
+        return commKeyLatency;
+    }
+
+    void failure(Throwable t) {
+        String name = t.getClass().getSimpleName();
+        AtomicLong count = failures.get(name);
+        if (count == null) {
+            AtomicLong added = new AtomicLong();
+            count = failures.putIfAbsent(name, added);
+            if (count == null) {
+                count = added;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * @return every metric by name, e.g. for reporting
+     */
+    public Map<String, String> toMap() {
+        Map<String, String> values = new LinkedHashMap<>();
+        for (TelemetryEncoder.MessageType type : TelemetryEncoder.MessageType.values()) {
+            String name = type.name().toLowerCase();
+            values.put("telemetry_" + name + "_received", String.valueOf(receivedSamples.get(type.ordinal())));
+            values.put("telemetry_" + name + "_dropped", String.valueOf(replacedSamples.get(type.ordinal()) + suppressedSamples.get(type.ordinal())));
+        }
+        values.put("telemetry_packets_sent", String.valueOf(getPacketsSent()));
+        values.put("telemetry_bytes_sent", String.valueOf(getBytesSent()));
+        values.put("telemetry_encode_time", encodeTime.toString());
+        values.put("telemetry_socket_send_time", socketSendTime.toString());
+        values.put("telemetry_comm_key_latency", commKeyLatency.toString());
+        for (Map.Entry<String, Long> failure : getSendFailures().entrySet()) {
+            values.put("telemetry_failures_" + failure.getKey(), String.valueOf(failure.getValue()));
+        }
+        return values;
+    }
+
+    private static long get(AtomicLongArray counts, Class<? extends MessageLite> type) {
+        TelemetryEncoder.MessageType messageType = TelemetryEncoder.MessageType.from(type);
+        return messageType != null ? counts.get(messageType.ordinal()) : 0;
+    }
+
+    private static long sum(AtomicLongArray counts) {
+        long sum = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            sum += counts.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * Distribution of durations, in buckets that double in size, so percentiles are accurate to
+     * within a factor of two while recording stays lock free and allocation free
+     */
+    public static class Histogram {
+
+        private static final int BUCKETS = 32;
+
+        // bucket i counts values below 2^i
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram() {
+        }
+
+        void record(long value) {
+            value = Math.max(0, value);
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long current = max.get();
+            while (value > current && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public double getMean() {
+            long n = count.get();
+            return n == 0 ? 0 : sum.get() / (double) n;
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return an upper bound on the given percentile, or 0 if nothing has been recorded
+         */
+        public long getPercentile(double percentile) {
+            long n = count.get();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile / 100d * n);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(max.get(), (1L << i) - 1);
+                }
+            }
+            return max.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.1f p50=%d p99=%d max=%d", getCount(), getMean(), getPercentile(50), getPercentile(99), getMax());
+        }
+    }
+}
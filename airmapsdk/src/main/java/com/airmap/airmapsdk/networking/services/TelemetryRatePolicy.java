@@ -0,0 +1,21 @@
+package com.airmap.airmapsdk.networking.services;
+
+import androidx.annotation.Nullable;
+
+import com.google.protobuf.MessageLite;
+
+/**
+ * Decides which telemetry samples are sent to AirMap. TelemetryService asks the policy about every
+ * sample it receives, per flight and message type, and drops the ones it rejects.
+ * Implementations must be thread safe.
+ */
+public interface TelemetryRatePolicy {
+
+    /**
+     * @param sample   the new Position, Attitude, Speed or Barometer sample
+     * @param lastSent the last sample of the same type that was sent, or null if none has been
+     * @param elapsed  milliseconds since lastSent was sent
+     * @return whether the sample should be sent
+     */
+    boolean shouldSend(MessageLite sample, @Nullable MessageLite lastSent, long elapsed);
+}
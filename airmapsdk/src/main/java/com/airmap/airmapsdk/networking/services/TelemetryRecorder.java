@@ -0,0 +1,92 @@
+package com.airmap.airmapsdk.networking.services;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import timber.log.Timber;
+
+/**
+ * Records every telemetry sample given to a flight's session, before the rate policy is applied,
+ * so the flight can be replayed through the pipeline later with {@link TelemetryRecording}.
+ *
+ * File layout:
+ *
+ * header:  magic (int) | version (varint)
+ * samples: message type (varint) | length (varint) | protobuf message
+ *
+ * Samples carry their own timestamps, which are used to pace the replay. A recording that is
+ * reopened is appended to. Writes are buffered, so anything recorded since the last 8 KB is lost
+ * if the process dies before {@link #close()}.
+ */
+class TelemetryRecorder {
+
+    static final String EXTENSION = ".telemetry";
+    static final int MAGIC = 0x414D5452;
+    static final int VERSION = 1;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final File file;
+    private final OutputStream output;
+    private final CodedOutputStream stream;
+    private boolean stopped;
+
+    /**
+     * Open the recording for a flight
+     *
+     * @param directory the directory recordings are kept in
+     * @param flightId  the flight the samples belong to
+     */
+    TelemetryRecorder(File directory, String flightId) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create recording directory " + directory);
+        }
+        file = getFile(directory, flightId);
+        boolean append = file.length() > 0;
+        output = new FileOutputStream(file, append);
+        stream = CodedOutputStream.newInstance(output, BUFFER_SIZE);
+        if (!append) {
+            stream.writeFixed32NoTag(MAGIC);
+            stream.writeUInt32NoTag(VERSION);
+        }
+    }
+
+    /**
+     * @return where the recording for a flight is kept
+     */
+    static File getFile(File directory, String flightId) {
+        return new File(directory, flightId.replaceAll("[^A-Za-z0-9._-]", "_") + EXTENSION);
+    }
+
+    synchronized void record(MessageLite sample) {
+        TelemetryEncoder.MessageType type = TelemetryEncoder.MessageType.from(sample);
+        if (stopped || type == null) {
+            return;
+        }
+
+        try {
+            stream.writeUInt32NoTag(type.value);
+            stream.writeUInt32NoTag(sample.getSerializedSize());
+            sample.writeTo(stream);
+        } catch (IOException e) {
+            // stop recording rather than logging an error for every sample
+            Timber.e(e, "Unable to record telemetry to %s", file);
+            stopped = true;
+        }
+    }
+
+    synchronized void close() {
+        stopped = true;
+        try {
+            stream.flush();
+            output.close();
+        } catch (IOException e) {
+            Timber.e(e, "Unable to close telemetry recording %s", file);
+        }
+    }
+}
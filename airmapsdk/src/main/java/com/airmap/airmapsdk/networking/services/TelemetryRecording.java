@@ -0,0 +1,104 @@
+package com.airmap.airmapsdk.networking.services;
+
+import androidx.annotation.Nullable;
+
+import com.airmap.airmapsdk.models.Telemetry;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import timber.log.Timber;
+
+/**
+ * Reads back the samples written by a {@link TelemetryRecorder}, in the order they were recorded.
+ * A recording cut short by the process dying is read up to its last complete sample. Instances
+ * are not thread safe.
+ */
+class TelemetryRecording {
+
+    // guards against reading a corrupt length as a huge allocation
+    private static final int MAX_SAMPLE_SIZE = 1024;
+
+    private final InputStream input;
+    private final CodedInputStream stream;
+
+    TelemetryRecording(File file) throws IOException {
+        input = new FileInputStream(file);
+        stream = CodedInputStream.newInstance(input);
+        try {
+            if (stream.readFixed32() != TelemetryRecorder.MAGIC) {
+                throw new IOException(file + " is not a telemetry recording");
+            }
+            int version = stream.readUInt32();
+            if (version != TelemetryRecorder.VERSION) {
+                throw new IOException("Unsupported telemetry recording version " + version);
+            }
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the next sample, or null at the end of the recording
+     */
+    @Nullable
+    MessageLite next() throws IOException {
+        try {
+            if (stream.isAtEnd()) {
+                return null;
+            }
+            int type = stream.readUInt32();
+            int size = stream.readUInt32();
+            if (size < 0 || size > MAX_SAMPLE_SIZE) {
+                throw new InvalidProtocolBufferException("Invalid sample size " + size);
+            }
+            byte[] sample = stream.readRawBytes(size);
+            // recordings can outgrow the stream's 64 MB size limit
+            stream.resetSizeCounter();
+            return parse(type, sample);
+        } catch (InvalidProtocolBufferException e) {
+            // most likely the last sample was only partly written
+            Timber.w(e, "Telemetry recording ends with an incomplete sample");
+            return null;
+        }
+    }
+
+    void close() throws IOException {
+        input.close();
+    }
+
+    /**
+     * @return when a sample was taken, in milliseconds since the epoch, or 0 if it has no timestamp
+     */
+    static long getTimestamp(MessageLite sample) {
+        if (sample instanceof Telemetry.Position) {
+            return ((Telemetry.Position) sample).getTimestamp();
+        } else if (sample instanceof Telemetry.Speed) {
+            return ((Telemetry.Speed) sample).getTimestamp();
+        } else if (sample instanceof Telemetry.Attitude) {
+            return ((Telemetry.Attitude) sample).getTimestamp();
+        } else if (sample instanceof Telemetry.Barometer) {
+            return ((Telemetry.Barometer) sample).getTimestamp();
+        }
+        return 0;
+    }
+
+    private static MessageLite parse(int type, byte[] sample) throws InvalidProtocolBufferException {
+        if (type == TelemetryEncoder.MessageType.POSITION.value) {
+            return Telemetry.Position.parseFrom(sample);
+        } else if (type == TelemetryEncoder.MessageType.SPEED.value) {
+            return Telemetry.Speed.parseFrom(sample);
+        } else if (type == TelemetryEncoder.MessageType.ATTITUDE.value) {
+            return Telemetry.Attitude.parseFrom(sample);
+        } else if (type == TelemetryEncoder.MessageType.BAROMETER.value) {
+            return Telemetry.Barometer.parseFrom(sample);
+        }
+        throw new InvalidProtocolBufferException("Unknown sample type " + type);
+    }
+}
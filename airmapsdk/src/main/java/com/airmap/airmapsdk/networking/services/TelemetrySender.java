@@ -0,0 +1,172 @@
+package com.airmap.airmapsdk.networking.services;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * Single threaded executor that telemetry is encoded and sent on, so that encryption and socket
+ * I/O never run on the main thread. The number of queued sends is bounded; when it is full the
+ * oldest pending send is dropped, since fresh telemetry is always more useful than stale
+ * telemetry. Control tasks, which release a session's socket and journal, are never dropped.
+ */
+class TelemetrySender {
+
+    static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    private final ThreadPoolExecutor executor;
+    private final int capacity;
+
+    // sends in the queue, as opposed to control tasks
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong totalQueueNanos = new AtomicLong();
+    private final AtomicLong maxQueueNanos = new AtomicLong();
+
+    TelemetrySender() {
+        this(DEFAULT_QUEUE_CAPACITY);
+    }
+
+    TelemetrySender(int queueCapacity) {
+        capacity = queueCapacity;
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new SenderThreadFactory(), new ShutdownPolicy());
+    }
+
+    /**
+     * Queue a send. If too many sends are queued the oldest queued send is discarded.
+     */
+    void submit(Runnable send) {
+        synchronized (executor) {
+            while (pending.get() >= capacity && dropOldest()) {
+                dropped.incrementAndGet();
+            }
+            pending.incrementAndGet();
+            executor.execute(new Send(send));
+        }
+    }
+
+    /**
+     * Queue a task that must run even when sends are being dropped, e.g. to release a session's
+     * socket and journal
+     */
+    void submitControl(final Runnable task) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    Timber.e(e, "Telemetry task failed");
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop the sender thread once everything already queued has run. Anything submitted
+     * afterwards is discarded.
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * @return the number of sends waiting in the queue
+     */
+    int getQueueDepth() {
+        return pending.get();
+    }
+
+    /**
+     * @return the number of sends dropped because the queue was full
+     */
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the average time a send spent waiting in the queue, in milliseconds
+     */
+    double getAverageQueueTime() {
+        long count = sent.get();
+        return count == 0 ? 0 : totalQueueNanos.get() / (double) count / 1000000d;
+    }
+
+    /**
+     * @return the longest time a send spent waiting in the queue, in milliseconds
+     */
+    double getMaxQueueTime() {
+        return maxQueueNanos.get() / 1000000d;
+    }
+
+    private void recordQueueTime(long nanos) {
+        sent.incrementAndGet();
+        totalQueueNanos.addAndGet(nanos);
+        long max = maxQueueNanos.get();
+        while (nanos > max && !maxQueueNanos.compareAndSet(max, nanos)) {
+            max = maxQueueNanos.get();
+        }
+    }
+
+    //Removes the oldest send from the queue, leaving control tasks where they are
+    private boolean dropOldest() {
+        for (Runnable task : executor.getQueue()) {
+            if (task instanceof Send && executor.remove(task)) {
+                pending.decrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private class Send implements Runnable {
+
+        private final Runnable send;
+        private final long enqueuedAt;
+
+        Send(Runnable send) {
+            this.send = send;
+            this.enqueuedAt = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            pending.decrementAndGet();
+            recordQueueTime(System.nanoTime() - enqueuedAt);
+            try {
+                send.run();
+            } catch (RuntimeException e) {
+                Timber.e(e, "Telemetry send failed");
+            }
+        }
+    }
+
+    private class ShutdownPolicy implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            // the queue is unbounded, so this only happens once shut down
+            if (r instanceof Send) {
+                pending.decrementAndGet();
+            }
+            Timber.w("Telemetry sender is shut down, discarding task");
+        }
+    }
+
+    private static class SenderThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "AirMap-Telemetry");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
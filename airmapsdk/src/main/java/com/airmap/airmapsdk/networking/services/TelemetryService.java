@@ -1,421 +1,518 @@
 package com.airmap.airmapsdk.networking.services;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.core.util.Pair;
 
+import com.airmap.airmapsdk.Analytics;
 import com.airmap.airmapsdk.models.Coordinate;
-import com.airmap.airmapsdk.models.Telemetry;
-import com.airmap.airmapsdk.models.comm.AirMapComm;
 import com.google.protobuf.MessageLite;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.SocketException;
-import java.net.UnknownHostException;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
-import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
-import javax.crypto.SecretKey;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
-
-import rx.Observable;
+import rx.Scheduler;
 import rx.Subscription;
-import rx.android.schedulers.AndroidSchedulers;
+import rx.functions.Action0;
 import rx.functions.Action1;
-import rx.functions.Actions;
-import rx.functions.Func1;
-import rx.functions.Func2;
 import rx.schedulers.Schedulers;
-import rx.subjects.PublishSubject;
 import timber.log.Timber;
 
 public class TelemetryService extends BaseService {
 
-    // frequencies in milliseconds
-    private static final long POSITION_FREQUENCY = 200;
-    private static final long ATTITUDE_FREQUENCY = 200;
-    private static final long SPEED_FREQUENCY = 200;
-    private static final long BAROMETER_FREQUENCY = 5000;
+    // how long to wait before asking for a comm key again after a failure
+    private static final long COMM_KEY_RETRY_DELAY = 10000;
 
-    private PublishSubject<Pair<String, MessageLite>> telemetry;
+    // copied on write so samples can be fanned out without locking or allocating
+    private volatile Listener[] listeners;
+    private volatile PositionListener[] positionListeners;
 
-    private List<Listener> listeners;
+    private ConcurrentHashMap<String, TelemetrySession> sessions;
+    private CommKeyCache commKeys;
+    private TelemetrySettings settings;
+    private TelemetrySender sender;
+    private Scheduler.Worker scheduler;
+    private Subscription metricsReport;
 
+    /**
+     * Keep packets that couldn't be sent in the app's files directory, which is looked up when the
+     * first flight starts sending, so the service can be created before the SDK is initialized
+     */
     public TelemetryService() {
-        telemetry = PublishSubject.create();
-        listeners = new ArrayList<>();
-        setupBindings();
+        this(new TelemetrySettings());
     }
 
-    public void addListener(Listener listener) {
-        listeners.add(listener);
+    /**
+     * @param journalDirectory where packets that couldn't be sent are kept until the connection
+     *                         recovers, or null to drop them
+     */
+    public TelemetryService(@Nullable File journalDirectory) {
+        this(new TelemetrySettings(journalDirectory));
     }
 
-    public void sendPositionMessage(String flightId, double latitude, double longitude, @Nullable float altitudeAGL, @Nullable float altitudeMSL, @Nullable float horizontalAccuracy) {
-        long timestamp = System.currentTimeMillis();
+    private TelemetryService(TelemetrySettings settings) {
+        listeners = new Listener[0];
+        positionListeners = new PositionListener[0];
+        sessions = new ConcurrentHashMap<>();
+        commKeys = new CommKeyCache();
+        this.settings = settings;
+        sender = new TelemetrySender();
+        scheduler = Schedulers.computation().createWorker();
+    }
 
-        Telemetry.Position positionMessage = Telemetry.Position.newBuilder()
-                .setTimestamp(timestamp)
-                .setLatitude(latitude)
-                .setLongitude(longitude)
-                .setAltitudeAgl(altitudeAGL)
-                .setAltitudeMsl(altitudeMSL)
-                .setHorizontalAccuracy(horizontalAccuracy)
-                .build();
+    public synchronized void addListener(Listener listener) {
+        listeners = add(listeners, listener);
+    }
 
-        sendTelemetry(flightId, positionMessage);
+    public synchronized void removeListener(Listener listener) {
+        listeners = remove(listeners, listener);
+    }
 
-        for (Listener listener : listeners) {
-            listener.onPositionChanged(new Coordinate(latitude, longitude), altitudeMSL, altitudeAGL);
-        }
+    /**
+     * Listen to positions and speeds as they are sent. Unlike {@link Listener}, nothing is
+     * allocated per position, so this is the better choice for high rate updates.
+     */
+    public synchronized void addPositionListener(PositionListener listener) {
+        positionListeners = add(positionListeners, listener);
     }
 
-    public void sendAttitudeMessage(String flightId, float yaw, float pitch, float roll) {
-        long timestamp = System.currentTimeMillis();
+    public synchronized void removePositionListener(PositionListener listener) {
+        positionListeners = remove(positionListeners, listener);
+    }
 
-        Telemetry.Attitude attitudeMessage = Telemetry.Attitude.newBuilder()
-                .setTimestamp(timestamp)
-                .setYaw(yaw)
-                .setPitch(pitch)
-                .setRoll(roll)
-                .build();
+    public void sendPositionMessage(String flightId, double latitude, double longitude, @Nullable float altitudeAGL, @Nullable float altitudeMSL, @Nullable float horizontalAccuracy) {
+        getSession(flightId).write(TelemetryEncoder.MessageType.POSITION, System.currentTimeMillis(),
+                latitude, longitude, altitudeAGL, altitudeMSL, horizontalAccuracy);
+
+        PositionListener[] positionListeners = this.positionListeners;
+        for (int i = 0; i < positionListeners.length; i++) {
+            positionListeners[i].onPositionChanged(latitude, longitude, altitudeMSL, altitudeAGL);
+        }
 
-        sendTelemetry(flightId, attitudeMessage);
+        Listener[] listeners = this.listeners;
+        if (listeners.length > 0) {
+            Coordinate position = new Coordinate(latitude, longitude);
+            for (int i = 0; i < listeners.length; i++) {
+                listeners[i].onPositionChanged(position, altitudeMSL, altitudeAGL);
+            }
+        }
     }
 
-    public void sendSpeedMessage(String flightId, float velocityX, float velocityY, float velocityZ) {
-        long timestamp = System.currentTimeMillis();
+    public void sendAttitudeMessage(String flightId, float yaw, float pitch, float roll) {
+        getSession(flightId).write(TelemetryEncoder.MessageType.ATTITUDE, System.currentTimeMillis(), yaw, pitch, roll, 0, 0);
+    }
 
-        Telemetry.Speed speedMessage = Telemetry.Speed.newBuilder()
-                .setTimestamp(timestamp)
-                .setVelocityX(velocityX)
-                .setVelocityY(velocityY)
-                .setVelocityZ(velocityZ)
-                .build();
+    public void sendSpeedMessage(String flightId, float velocityX, float velocityY, float velocityZ) {
+        getSession(flightId).write(TelemetryEncoder.MessageType.SPEED, System.currentTimeMillis(), velocityX, velocityY, velocityZ, 0, 0);
 
-        sendTelemetry(flightId, speedMessage);
+        PositionListener[] positionListeners = this.positionListeners;
+        for (int i = 0; i < positionListeners.length; i++) {
+            positionListeners[i].onSpeedChanged(velocityX, velocityY, velocityZ);
+        }
 
-        for (Listener listener : listeners) {
-            listener.onSpeedChanged(velocityX, velocityY, velocityZ);
+        Listener[] listeners = this.listeners;
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].onSpeedChanged(velocityX, velocityY, velocityZ);
         }
     }
 
     public void setBarometerMessage(String flightId, float pressure) {
-        long timestamp = System.currentTimeMillis();
-
-        Telemetry.Barometer barometerMessage = Telemetry.Barometer.newBuilder()
-                .setTimestamp(timestamp)
-                .setPressure(pressure)
-                .build();
+        getSession(flightId).write(TelemetryEncoder.MessageType.BAROMETER, System.currentTimeMillis(), pressure, 0, 0, 0, 0);
+    }
 
-        sendTelemetry(flightId, barometerMessage);
+    /**
+     * Stop sending telemetry for a flight, sending anything still batched first. Sending more
+     * telemetry for the flight afterwards starts a new session.
+     *
+     * @param flightId the flight to stop sending telemetry for
+     */
+    public void endSession(String flightId) {
+        TelemetrySession session = sessions.remove(flightId);
+        if (session != null) {
+            session.close();
+        }
     }
 
-    private void sendTelemetry(String flightId, MessageLite message) {
-        telemetry.onNext(new Pair<>(flightId, message));
+    /**
+     * End every session, sending anything still batched, and then stop the telemetry threads. The
+     * service can't be used afterwards. Called when the user logs out.
+     */
+    public synchronized void shutdown() {
+        if (metricsReport != null) {
+            metricsReport.unsubscribe();
+            metricsReport = null;
+        }
+        for (String flightId : sessions.keySet()) {
+            endSession(flightId);
+        }
+        // after the sessions have handed their last packets and their release to the sender
+        scheduler.schedule(new Action0() {
+            @Override
+            public void call() {
+                sender.shutdown();
+                scheduler.unsubscribe();
+            }
+        });
     }
 
-    private void setupBindings() {
-        Observable<Session> session = telemetry
-                .map(new Func1<Pair<String, MessageLite>, String>() {
-                    @Override
-                    public String call(Pair<String, MessageLite> pair) {
-                        return pair.first;
-                    }
-                })
-                .distinctUntilChanged()
-                .flatMap(new Func1<String, Observable<Session>>() {
-                    @Override
-                    public Observable<Session> call(final String flightId) {
-                        return FlightService.getCommKey(flightId)
-                                .doOnError(new Action1<Throwable>() {
-                                    @Override
-                                    public void call(Throwable throwable) {
-                                        Timber.e(throwable, "getCommKey failed");
-                                    }
-                                })
-                                .onErrorResumeNext(Observable.<AirMapComm>empty())
-                                .map(new Func1<AirMapComm, Session>() {
-                                    @Override
-                                    public Session call(AirMapComm airMapComm) {
-                                        return new Session(flightId, airMapComm, null);
-                                    }
-                                })
-                                .subscribeOn(Schedulers.io());
+    /**
+     * Fetch a flight's comm key and open its telemetry session ahead of time, so that the first
+     * telemetry sent for the flight goes out immediately. Called automatically for flights
+     * created through {@link AirMap#createFlight} and {@link AirMap#submitFlightPlan}.
+     *
+     * @param flightId  the flight that will send telemetry
+     * @param expiresAt when the flight ends, after which the cached key is discarded, or null if
+     *                  not known
+     */
+    public void prefetchCommKey(final String flightId, @Nullable final Date expiresAt) {
+        if (sessions.containsKey(flightId)) {
+            return;
+        }
+        // opening the session's recorder and journal touches the disk, so keep it off the caller's thread
+        final Scheduler.Worker worker = Schedulers.io().createWorker();
+        worker.schedule(new Action0() {
+            @Override
+            public void call() {
+                try {
+                    if (!sessions.containsKey(flightId)) {
+                        startSession(flightId, expiresAt);
                     }
-                });
+                } finally {
+                    worker.unsubscribe();
+                }
+            }
+        });
+    }
 
-        Observable<Pair<Session, MessageLite>> flightMessages = Observable
-                .combineLatest(session, telemetry, new Func2<Session, Pair<String, MessageLite>, Pair<Session, Pair<String, MessageLite>>>() {
-                    @Override
-                    public Pair<Session, Pair<String, MessageLite>> call(Session s, Pair<String, MessageLite> p) {
-                        return new Pair<>(s, p);
-                    }
-                })
-                .filter(new Func1<Pair<Session, Pair<String, MessageLite>>, Boolean>() {
-                    @Override
-                    public Boolean call(Pair<Session, Pair<String, MessageLite>> p) {
-                        String sessionFlight = p.first.flightId;
-                        String telemetryFlight = p.second.first;
-                        return sessionFlight.equals(telemetryFlight);
-                    }
-                })
-                .map(new Func1<Pair<Session, Pair<String, MessageLite>>, Pair<Session, MessageLite>>() {
-                    @Override
-                    public Pair<Session, MessageLite> call(Pair<Session, Pair<String, MessageLite>> pair) {
-                        return new Pair<>(pair.first, pair.second.second);
-                    }
-                });
+    /**
+     * Record every sample given to the service, before the rate policy is applied, so flights can
+     * be replayed later with {@link #replay}. Each flight is recorded to its own file in the
+     * directory, named after the flight ID. Applies to flights whose telemetry starts afterwards.
+     *
+     * @param directory where to keep recordings, or null to stop recording
+     */
+    public void setRecordingDirectory(@Nullable File directory) {
+        settings.recordingDirectory = directory;
+    }
 
-        Observable<Pair<Session, MessageLite>> position = flightMessages
-                .filter(new Func1<Pair<Session, MessageLite>, Boolean>() {
-                    @Override
-                    public Boolean call(Pair<Session, MessageLite> p) {
-                        return p.second instanceof Telemetry.Position;
-                    }
-                })
-                .sample(Observable.interval(POSITION_FREQUENCY, TimeUnit.MILLISECONDS));
+    /**
+     * @return the file a flight is recorded to, or null if recording is off
+     */
+    @Nullable
+    public File getRecording(String flightId) {
+        File directory = settings.recordingDirectory;
+        return directory != null ? TelemetryRecorder.getFile(directory, flightId) : null;
+    }
 
-        Observable<Pair<Session, MessageLite>> attitude = flightMessages
-                .filter(new Func1<Pair<Session, MessageLite>, Boolean>() {
-                    @Override
-                    public Boolean call(Pair<Session, MessageLite> p) {
-                        return p.second instanceof Telemetry.Attitude;
-                    }
-                })
-                .sample(Observable.interval(ATTITUDE_FREQUENCY, TimeUnit.MILLISECONDS));
+    /**
+     * Replay a recorded flight through the service as if its samples were being sent live, paced
+     * by their timestamps. The samples keep their original timestamps. As with live telemetry,
+     * samples that arrive faster than they can be taken are replaced by newer ones.
+     *
+     * @param flightId  the flight to send the samples as
+     * @param recording a recording made while {@link #setRecordingDirectory} was set
+     * @param speed     how many times faster than real time to replay, or 0 to replay as fast as
+     *                  possible
+     * @return unsubscribe to stop the replay
+     */
+    public Subscription replay(String flightId, File recording, float speed) {
+        if (recording.equals(getRecording(flightId))) {
+            throw new IllegalArgumentException("Can't replay a recording into the flight it is recording");
+        }
 
-        Observable<Pair<Session, MessageLite>> speed = flightMessages
-                .filter(new Func1<Pair<Session, MessageLite>, Boolean>() {
-                    @Override
-                    public Boolean call(Pair<Session, MessageLite> p) {
-                        return p.second instanceof Telemetry.Speed;
-                    }
-                })
-                .sample(Observable.interval(SPEED_FREQUENCY, TimeUnit.MILLISECONDS));
+        Replay replay = new Replay(flightId, recording, speed, Schedulers.io().createWorker());
+        replay.worker.schedule(replay);
+        return replay;
+    }
 
-        Observable<Pair<Session, MessageLite>> barometer = flightMessages
-                .filter(new Func1<Pair<Session, MessageLite>, Boolean>() {
-                    @Override
-                    public Boolean call(Pair<Session, MessageLite> p) {
-                        return p.second instanceof Telemetry.Barometer;
-                    }
-                })
-                .sample(Observable.interval(BAROMETER_FREQUENCY, TimeUnit.MILLISECONDS));
+    private TelemetrySession getSession(String flightId) {
+        TelemetrySession session = sessions.get(flightId);
+        if (session == null) {
+            session = startSession(flightId, null);
+        }
+        return session;
+    }
+
+    //Creates the session for a flight and gets its comm key. Telemetry is held until the key arrives
+    private TelemetrySession startSession(final String flightId, @Nullable Date expiresAt) {
+        final TelemetrySession session = new TelemetrySession(flightId, telemetryBaseUrl, telemetryPort, settings, sender, scheduler);
+        TelemetrySession existing = sessions.putIfAbsent(flightId, session);
+        if (existing != null) {
+            return existing;
+        }
 
-        Subscription latestMessages = Observable.merge(position, attitude, speed, barometer)
-                .buffer(1, TimeUnit.SECONDS, 20)
-                .doOnNext(new Action1<List<Pair<Session, MessageLite>>>() {
+        final long requestedAt = System.currentTimeMillis();
+        commKeys.get(flightId, expiresAt)
+                .subscribeOn(Schedulers.io())
+                .subscribe(new Action1<byte[]>() {
                     @Override
-                    public void call(List<Pair<Session, MessageLite>> sessionMessages) {
-                        sendMessages(sessionMessages);
+                    public void call(byte[] key) {
+                        settings.metrics.commKeyLatency.record(System.currentTimeMillis() - requestedAt);
+                        session.start(key);
                     }
-                })
-                .subscribeOn(Schedulers.io())
-                .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(Actions.empty(), new Action1<Throwable>() {
+                }, new Action1<Throwable>() {
                     @Override
                     public void call(Throwable throwable) {
-                        Timber.e(throwable, "latestMessages Error");
+                        Timber.e(throwable, "getCommKey failed");
+                        // keep dropping telemetry for a while rather than asking for a key on every sample
+                        scheduler.schedule(new Action0() {
+                            @Override
+                            public void call() {
+                                sessions.remove(flightId, session);
+                            }
+                        }, COMM_KEY_RETRY_DELAY, TimeUnit.MILLISECONDS);
                     }
                 });
+        return session;
+    }
 
+    /**
+     * Set the policy that decides which samples are sent. Defaults to an
+     * {@link AdaptiveTelemetryRatePolicy}.
+     *
+     * @param ratePolicy the policy to apply to every sample
+     */
+    public void setRatePolicy(@NonNull TelemetryRatePolicy ratePolicy) {
+        settings.ratePolicy = ratePolicy;
     }
 
-    private void sendMessages(List<Pair<Session, MessageLite>> sessionMessages) {
-        if (sessionMessages == null || sessionMessages.isEmpty()) return;
+    /**
+     * @return the number of samples the rate policy let through
+     */
+    public long getSentSampleCount() {
+        return settings.metrics.getSentSamples();
+    }
 
-        Pair<Session, MessageLite> pair = sessionMessages.get(0);
-        Session session = pair.first;
+    /**
+     * @return the number of samples the rate policy suppressed
+     */
+    public long getSuppressedSampleCount() {
+        return settings.metrics.getSuppressedSamples();
+    }
 
-        List<MessageLite> messages = new ArrayList<>();
-        for (Pair<Session, MessageLite> p : sessionMessages) {
-            messages.add(p.second);
-        }
-        session.send(messages);
+    /**
+     * @return counters and timings for telemetry sent by this service
+     */
+    public TelemetryMetrics getMetrics() {
+        return settings.metrics;
     }
 
-    private void onException(Exception e) {
-        Timber.e(e);
-        e.printStackTrace();
+    /**
+     * @return the sequence number of the next packet sent for a flight, or -1 if the flight isn't
+     * sending telemetry
+     */
+    public int getPacketNumber(String flightId) {
+        TelemetrySession session = sessions.get(flightId);
+        return session != null ? session.getPacketNumber() : -1;
     }
 
-    public interface Listener {
-        void onPositionChanged(Coordinate position, double altitudeMSL, double altitudeAGL);
-        void onSpeedChanged(double velocityX, double velocityY, double velocityZ);
+    /**
+     * Periodically report telemetry metrics through {@link Analytics#logDebug}
+     *
+     * @param milliseconds how often to report, or 0 to stop reporting
+     */
+    public synchronized void setMetricsReportInterval(long milliseconds) {
+        if (metricsReport != null) {
+            metricsReport.unsubscribe();
+            metricsReport = null;
+        }
+        if (milliseconds > 0) {
+            metricsReport = scheduler.schedulePeriodically(new Action0() {
+                @Override
+                public void call() {
+                    reportMetrics();
+                }
+            }, milliseconds, milliseconds, TimeUnit.MILLISECONDS);
+        }
     }
 
-    private enum Encryption {
-        NONE,
-        AES256CBC
+    private void reportMetrics() {
+        for (Map.Entry<String, String> metric : settings.metrics.toMap().entrySet()) {
+            Analytics.logDebug(metric.getKey(), metric.getValue());
+        }
+        Analytics.logDebug("telemetry_queue_depth", String.valueOf(sender.getQueueDepth()));
+        Analytics.logDebug("telemetry_dropped_packets", String.valueOf(sender.getDroppedCount()));
+        for (TelemetrySession session : sessions.values()) {
+            Analytics.logDebug("telemetry_packet_number_" + session.getFlightId(), String.valueOf(session.getPacketNumber()));
+        }
     }
 
-    private enum MessageType {
-        POSITION(1),
-        SPEED(2),
-        ATTITUDE(3),
-        BAROMETER(4);
+    /**
+     * Set the largest datagram telemetry is batched into. Keep this below the path MTU so packets
+     * are never fragmented.
+     *
+     * @param bytes the maximum packet size, including the header, IV and encryption padding
+     */
+    public void setMaxPacketSize(int bytes) {
+        settings.maxPacketSize = Math.min(bytes, TelemetryJournal.MAX_PACKET_SIZE);
+    }
 
-        public final int value;
+    /**
+     * Set how long a message may wait for a batch to fill up before it is sent anyway
+     *
+     * @param milliseconds the maximum time between a message being accepted and sent
+     */
+    public void setMaxBatchLatency(long milliseconds) {
+        settings.maxBatchLatency = milliseconds;
+    }
 
-        MessageType(int value) {
-            this.value = value;
-        }
+    /**
+     * Set how quickly packets journaled during a connection outage are resent once the connection
+     * recovers. Catch-up traffic is sent alongside live telemetry, so keep this modest on
+     * constrained links.
+     *
+     * @param packetsPerSecond the maximum number of journaled packets to resend per second
+     */
+    public void setCatchUpRate(int packetsPerSecond) {
+        settings.catchUpRate = Math.max(1, packetsPerSecond);
+    }
+
+    /**
+     * @return the number of telemetry packets waiting to be sent
+     */
+    public int getSendQueueDepth() {
+        return sender.getQueueDepth();
     }
 
-    private class Session {
-        private AirMapComm comm;
-        private DatagramSocket socket;
-        private String flightId;
+    /**
+     * @return the number of telemetry packets dropped because the send queue was full
+     */
+    public long getDroppedPacketCount() {
+        return sender.getDroppedCount();
+    }
 
-        private int packetNumber;
+    /**
+     * @return the average time a telemetry packet waited to be sent, in milliseconds
+     */
+    public double getAverageTimeInQueue() {
+        return sender.getAverageQueueTime();
+    }
 
-        Session(String flightId, AirMapComm comm, DatagramSocket socket) {
-            this.flightId = flightId;
-            this.comm = comm;
+    /**
+     * @return the longest time a telemetry packet waited to be sent, in milliseconds
+     */
+    public double getMaxTimeInQueue() {
+        return sender.getMaxQueueTime();
+    }
 
-            this.packetNumber = 1;
+    private static <T> T[] add(T[] listeners, T listener) {
+        T[] added = Arrays.copyOf(listeners, listeners.length + 1);
+        added[listeners.length] = listener;
+        return added;
+    }
 
-            this.socket = socket;
-            if (this.socket == null || !this.socket.isConnected()) {
-                try {
-                    connect();
-                } catch (UnknownHostException | SocketException e) {
-                    Timber.e(e, "Unable to connect to telemetry socket");
-                }
+    private static <T> T[] remove(T[] listeners, T listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i].equals(listener)) {
+                T[] removed = Arrays.copyOf(listeners, listeners.length - 1);
+                System.arraycopy(listeners, i + 1, removed, i, listeners.length - i - 1);
+                return removed;
             }
         }
+        return listeners;
+    }
 
-        private void connect() throws UnknownHostException, SocketException {
-            InetAddress address = InetAddress.getByName(telemetryBaseUrl);
-            socket = new DatagramSocket();
-            socket.connect(address, telemetryPort);
+    /**
+     * Sends the samples of a recording as their time comes, rescheduling itself on the worker for
+     * the next one rather than sleeping on the thread
+     */
+    private class Replay implements Action0, Subscription {
+
+        private final String flightId;
+        private final File recording;
+        private final float speed;
+        private final Scheduler.Worker worker;
+        private TelemetryRecording samples;
+        private MessageLite next;
+        private long startedAt;
+        private long firstTimestamp;
+        private boolean closed;
+
+        Replay(String flightId, File recording, float speed, Scheduler.Worker worker) {
+            this.flightId = flightId;
+            this.recording = recording;
+            this.speed = speed;
+            this.worker = worker;
         }
 
-        //Sends the encrypted, encoded message
-        private void send(List<MessageLite> messageList) {
+        @Override
+        public synchronized void call() {
+            if (closed) {
+                return;
+            }
             try {
-                byte[] message = buildPacketData(comm.getKey(), flightId, Encryption.AES256CBC, messageList);
-                DatagramPacket packet = new DatagramPacket(message, message.length);
-                socket.send(packet);
-                packetNumber++;
-            } catch (IOException | NoSuchAlgorithmException | InvalidKeyException | InvalidAlgorithmParameterException | NoSuchPaddingException | IllegalBlockSizeException | BadPaddingException e) {
-                Timber.e(e, "Unable to build or send packet");
+                if (samples == null) {
+                    samples = new TelemetryRecording(recording);
+                    startedAt = System.currentTimeMillis();
+                    next = samples.next();
+                }
+                while (next != null && !worker.isUnsubscribed()) {
+                    long delay = getDelay(next);
+                    if (delay > 0) {
+                        worker.schedule(this, delay, TimeUnit.MILLISECONDS);
+                        return;
+                    }
+                    getSession(flightId).accept(next);
+                    next = samples.next();
+                }
+            } catch (IOException e) {
+                Timber.e(e, "Unable to replay telemetry from %s", recording);
             }
+            close();
+            worker.unsubscribe();
         }
 
-        private byte[] buildPacketData(byte[] key, String flightId, Encryption encryption, List<MessageLite> messageList) throws IOException, NoSuchPaddingException,
-                InvalidKeyException, NoSuchAlgorithmException, IllegalBlockSizeException, BadPaddingException, InvalidAlgorithmParameterException {
-
-            int serialNumber = packetNumber;
-
-            byte flightIdLength = (byte) flightId.length();
-
-            IvParameterSpec iv = generateIv();
-
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            DataOutputStream daos = new DataOutputStream(baos);
-
-            daos.writeInt(serialNumber);
-            daos.writeByte(flightIdLength);
-            daos.writeBytes(flightId);
-
-            switch (encryption) {
-                case AES256CBC:
-                    daos.writeByte(1);
-                    daos.write(iv.getIV());
-                    break;
-                case NONE:
-                default:
-                    daos.writeByte(0);
-                    break;
+        /**
+         * @return how long until a sample is due, in milliseconds
+         */
+        private long getDelay(MessageLite sample) {
+            long timestamp = TelemetryRecording.getTimestamp(sample);
+            if (speed <= 0 || timestamp <= 0) {
+                return 0;
             }
-
-            ByteArrayOutputStream payloadBaos = new ByteArrayOutputStream();
-            for (MessageLite message : messageList) {
-                MessageType messageType;
-                if (message instanceof Telemetry.Position) {
-                    messageType = MessageType.POSITION;
-                } else if (message instanceof Telemetry.Speed) {
-                    messageType = MessageType.SPEED;
-                } else if (message instanceof Telemetry.Attitude) {
-                    messageType = MessageType.ATTITUDE;
-                } else if (message instanceof Telemetry.Barometer) {
-                    messageType = MessageType.BAROMETER;
-                } else {
-                    messageType = null;
-                }
-
-                payloadBaos.write(buildMessage(messageType, message));
+            if (firstTimestamp == 0) {
+                firstTimestamp = timestamp;
             }
-
-            byte[] encryptedPayload = encryption == Encryption.AES256CBC ? encrypt(key, iv, payloadBaos.toByteArray()) : payloadBaos.toByteArray();
-            payloadBaos.close();
-
-            daos.write(encryptedPayload);
-            daos.close();
-
-            byte[] result = baos.toByteArray();
-            baos.close();
-
-            return result;
+            return startedAt + (long) ((timestamp - firstTimestamp) / speed) - System.currentTimeMillis();
         }
 
-        private byte[] buildMessage(MessageType messageType, MessageLite message) throws IOException {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            DataOutputStream daos = new DataOutputStream(baos);
-            daos.writeShort(messageType.value);
-            daos.writeShort(message.getSerializedSize());
-            daos.write(message.toByteArray());
-
-            daos.close();
-
-            byte[] result = baos.toByteArray();
-            baos.close();
-
-            return result;
+        @Override
+        public void unsubscribe() {
+            worker.unsubscribe();
+            close();
         }
 
-        //Encrypts a SecretMessage with the given key and iv
-        private byte[] encrypt(byte[] key, IvParameterSpec iv, byte[] payload) throws InvalidAlgorithmParameterException, InvalidKeyException,
-                IOException, NoSuchPaddingException, NoSuchAlgorithmException, BadPaddingException, IllegalBlockSizeException {
-
-            SecretKey secretKey = new SecretKeySpec(key, "AES");
-            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey, iv);
-            return cipher.doFinal(payload);
-        }
-
-        //Generates a random IV to be used for the AES encryption
-        private IvParameterSpec generateIv() {
-            int blockSize = 16;
-            byte[] iv = new byte[blockSize];
-            new SecureRandom().nextBytes(iv);
-            return new IvParameterSpec(iv);
+        @Override
+        public boolean isUnsubscribed() {
+            return worker.isUnsubscribed();
         }
 
-        //Converts an array of 8 bit integers to a byte array
-        private byte[] integersToBytes(int[] values) throws IOException {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            DataOutputStream dos = new DataOutputStream(baos);
-            for (int value : values) {
-                dos.writeByte(value); //Only writes the least significant byte of the int
+        private synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (samples != null) {
+                try {
+                    samples.close();
+                } catch (IOException e) {
+                    Timber.w(e, "Unable to close telemetry recording");
+                }
             }
-            return baos.toByteArray();
         }
     }
-}
\ No newline at end of file
+
+    public interface Listener {
+        void onPositionChanged(Coordinate position, double altitudeMSL, double altitudeAGL);
+        void onSpeedChanged(double velocityX, double velocityY, double velocityZ);
+    }
+
+    public interface PositionListener {
+        void onPositionChanged(double latitude, double longitude, double altitudeMSL, double altitudeAGL);
+        void onSpeedChanged(double velocityX, double velocityY, double velocityZ);
+    }
+}
@@ -0,0 +1,578 @@
+package com.airmap.airmapsdk.networking.services;
+
+import com.airmap.airmapsdk.models.Telemetry;
+import com.google.protobuf.MessageLite;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import rx.Scheduler;
+import rx.Subscription;
+import rx.functions.Action0;
+import timber.log.Timber;
+
+/**
+ * Telemetry connection for a single flight. Each session has its own comm key, socket, packet
+ * sequence, rate limiting state and batch, so any number of flights can report concurrently.
+ *
+ * Samples are accepted from any thread and written into a {@link TelemetrySlot} per message type,
+ * which the session's tick on the scheduler takes them from. A producer that outpaces the tick
+ * just overwrites samples that haven't been taken yet, so memory stays constant whatever the
+ * sample rate. The default rate policy is applied to the sample's fields, so protobuf messages
+ * are only built for samples that are sent. Encoding and sending happen on the shared
+ * {@link TelemetrySender} thread.
+ */
+class TelemetrySession {
+
+    // how long to wait before connecting the socket again, in milliseconds
+    private static final long RECONNECT_INITIAL = 1000;
+    private static final long RECONNECT_MAX = 60000;
+
+    private final String flightId;
+    private final String host;
+    private final int port;
+    private final TelemetrySettings settings;
+    private final TelemetrySender sender;
+    private final Scheduler.Worker scheduler;
+
+    private volatile boolean started;
+    private volatile boolean closing;
+    private volatile boolean closed;
+
+    private DatagramSocket socket;
+    private final Backoff reconnectBackoff;
+    private long reconnectAt;
+    private volatile int packetNumber;
+
+    private TelemetryEncoder encoder;
+    private DatagramPacket packet;
+
+    private List<MessageLite> batch;
+    private int batchSize;
+    private int batchNumber;
+
+    // the latest sample of each type, and the tick that takes them
+    private final TelemetrySlot[] slots;
+    private final double[] fields;
+    private Subscription tick;
+
+    private MessageLite[] lastSent;
+    private double[][] lastSentFields;
+    private long[] lastSentAt;
+
+    private final TelemetryRecorder recorder;
+
+    private TelemetryJournal journal;
+    private DatagramPacket journalPacket;
+    private double catchUpTokens;
+    private long lastCatchUp;
+    private boolean catchUpScheduled; //only used on the sender thread
+
+    TelemetrySession(String flightId, String host, int port, TelemetrySettings settings, TelemetrySender sender, Scheduler.Worker scheduler) {
+        this.flightId = flightId;
+        this.host = host;
+        this.port = port;
+        this.settings = settings;
+        this.sender = sender;
+        this.scheduler = scheduler;
+
+        this.reconnectBackoff = new Backoff(RECONNECT_INITIAL, RECONNECT_MAX, new Random());
+        this.packetNumber = 1;
+        this.batch = new ArrayList<>();
+        this.slots = new TelemetrySlot[TelemetryEncoder.MessageType.values().length];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new TelemetrySlot();
+        }
+        this.fields = new double[TelemetrySlot.FIELDS];
+        this.lastSent = new MessageLite[TelemetryEncoder.MessageType.values().length];
+        this.lastSentFields = new double[TelemetryEncoder.MessageType.values().length][TelemetrySlot.FIELDS];
+        this.lastSentAt = new long[TelemetryEncoder.MessageType.values().length];
+        this.recorder = openRecorder(settings.recordingDirectory, flightId);
+    }
+
+    String getFlightId() {
+        return flightId;
+    }
+
+    boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * @return the sequence number the next packet will be sent with
+     */
+    int getPacketNumber() {
+        return packetNumber;
+    }
+
+    /**
+     * Set up encryption, the journal and the socket. Blocks on DNS, so don't call this on the
+     * main thread.
+     *
+     * @param key the flight's comm key
+     */
+    synchronized void start(byte[] key) {
+        if (started || closing) {
+            return;
+        }
+
+        try {
+            encoder = new TelemetryEncoder(flightId, key, TelemetryEncoder.Encryption.AES256CBC);
+            packet = new DatagramPacket(encoder.getBuffer(), 0);
+        } catch (GeneralSecurityException e) {
+            Timber.e(e, "Unable to initialize telemetry encryption");
+            return;
+        }
+
+        File journalDirectory = settings.getJournalDirectory();
+        if (journalDirectory != null) {
+            try {
+                journal = TelemetryJournal.open(journalDirectory, flightId, TelemetryJournal.DEFAULT_CAPACITY);
+                journalPacket = new DatagramPacket(new byte[TelemetryJournal.MAX_PACKET_SIZE], 0);
+                // continue numbering after the last packet of a previous session, as the receiver
+                // tracks gaps and duplicates by sequence number, and resent packets keep theirs
+                packetNumber = journal.getLastSequence() + 1;
+            } catch (IOException e) {
+                Timber.e(e, "Unable to open telemetry journal");
+            }
+        }
+
+        try {
+            connect();
+        } catch (IOException e) {
+            // packets are journaled until a send manages to connect
+            Timber.e(e, "Unable to connect to telemetry socket");
+            reconnectAt = System.currentTimeMillis() + reconnectBackoff.next();
+        }
+
+        if (journal != null && !journal.isEmpty()) {
+            // left by a previous session, and resent whether or not this one sends anything
+            sender.submitControl(new Runnable() {
+                @Override
+                public void run() {
+                    scheduleCatchUp();
+                }
+            });
+        }
+
+        started = true;
+
+        // the first tick sends whatever was held while waiting for the comm key straight away
+        long interval = settings.tickInterval;
+        tick = scheduler.schedulePeriodically(new Action0() {
+            @Override
+            public void call() {
+                takeAll();
+            }
+        }, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Accept a sample of any type. Until the session has started only the latest sample of each
+     * type is kept, and it is sent as soon as it starts.
+     */
+    void accept(MessageLite sample) {
+        if (closing) {
+            return;
+        }
+        if (recorder != null) {
+            recorder.record(sample);
+        }
+
+        if (sample instanceof Telemetry.Position) {
+            Telemetry.Position position = (Telemetry.Position) sample;
+            store(TelemetryEncoder.MessageType.POSITION, position.getTimestamp(), position.getLatitude(), position.getLongitude(),
+                    position.getAltitudeAgl(), position.getAltitudeMsl(), position.getHorizontalAccuracy());
+        } else if (sample instanceof Telemetry.Speed) {
+            Telemetry.Speed speed = (Telemetry.Speed) sample;
+            store(TelemetryEncoder.MessageType.SPEED, speed.getTimestamp(), speed.getVelocityX(), speed.getVelocityY(), speed.getVelocityZ(), 0, 0);
+        } else if (sample instanceof Telemetry.Attitude) {
+            Telemetry.Attitude attitude = (Telemetry.Attitude) sample;
+            store(TelemetryEncoder.MessageType.ATTITUDE, attitude.getTimestamp(), attitude.getYaw(), attitude.getPitch(), attitude.getRoll(), 0, 0);
+        } else if (sample instanceof Telemetry.Barometer) {
+            Telemetry.Barometer barometer = (Telemetry.Barometer) sample;
+            store(TelemetryEncoder.MessageType.BAROMETER, barometer.getTimestamp(), barometer.getPressure(), 0, 0, 0, 0);
+        }
+    }
+
+    /**
+     * Accept a sample without building a message for it. The fields for each type are:
+     *
+     * position:  latitude, longitude, altitude AGL, altitude MSL, horizontal accuracy
+     * speed:     velocity x, velocity y, velocity z
+     * attitude:  yaw, pitch, roll
+     * barometer: pressure
+     */
+    void write(TelemetryEncoder.MessageType type, long timestamp, double a, double b, double c, double d, double e) {
+        if (closing) {
+            return;
+        }
+        if (recorder != null) {
+            recorder.record(toMessage(type, timestamp, a, b, c, d, e));
+        }
+        store(type, timestamp, a, b, c, d, e);
+    }
+
+    /**
+     * Send whatever is waiting to be sent and release the session's resources
+     */
+    void close() {
+        synchronized (this) {
+            if (closing) {
+                return;
+            }
+            closing = true;
+            if (tick != null) {
+                tick.unsubscribe();
+            }
+        }
+
+        if (recorder != null) {
+            recorder.close();
+        }
+
+        // after any samples still in the slots have been taken
+        scheduler.schedule(new Action0() {
+            @Override
+            public void call() {
+                takeAll();
+                release();
+            }
+        });
+    }
+
+    private void release() {
+        synchronized (this) {
+            flush();
+            closed = true;
+        }
+
+        sender.submitControl(new Runnable() {
+            @Override
+            public void run() {
+                if (journal != null) {
+                    journal.close();
+                    journal = null;
+                }
+                if (encoder != null) {
+                    encoder.release();
+                }
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+        });
+    }
+
+    private static TelemetryRecorder openRecorder(File directory, String flightId) {
+        if (directory == null) {
+            return null;
+        }
+        try {
+            return new TelemetryRecorder(directory, flightId);
+        } catch (IOException e) {
+            Timber.e(e, "Unable to open telemetry recording");
+            return null;
+        }
+    }
+
+    private void connect() throws IOException {
+        InetAddress address = InetAddress.getByName(host);
+        DatagramSocket socket = new DatagramSocket();
+        socket.connect(address, port);
+        this.socket = socket;
+    }
+
+    //Connects again if the socket couldn't be set up or was dropped, once the backoff has passed
+    private boolean reconnect() {
+        if (socket != null) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        if (now < reconnectAt) {
+            return false;
+        }
+        try {
+            connect();
+        } catch (IOException e) {
+            Timber.e(e, "Unable to reconnect to telemetry socket");
+            reconnectAt = now + reconnectBackoff.next();
+            return false;
+        }
+        Timber.i("Reconnected to telemetry socket after %d attempts", reconnectBackoff.getAttempts());
+        reconnectBackoff.reset();
+        return true;
+    }
+
+    //Drops a socket that failed to send, so the next send connects a new one
+    private void disconnect() {
+        if (socket != null) {
+            socket.close();
+            socket = null;
+        }
+        reconnectAt = System.currentTimeMillis() + reconnectBackoff.next();
+    }
+
+    //Puts a sample in its slot for the next tick to take
+    private void store(TelemetryEncoder.MessageType type, long timestamp, double a, double b, double c, double d, double e) {
+        int index = type.ordinal();
+        settings.metrics.receivedSamples.incrementAndGet(index);
+        if (!slots[index].write(timestamp, a, b, c, d, e)) {
+            // replaced a sample that hadn't been taken yet
+            settings.metrics.replacedSamples.incrementAndGet(index);
+        }
+    }
+
+    private void takeAll() {
+        for (TelemetryEncoder.MessageType type : TelemetryEncoder.MessageType.values()) {
+            take(type);
+        }
+    }
+
+    //Takes the latest sample of a type from its slot, and batches it if the rate policy lets it through
+    private void take(TelemetryEncoder.MessageType type) {
+        if (closed || !started) {
+            return;
+        }
+        long timestamp = slots[type.ordinal()].take(fields);
+        if (timestamp < 0) {
+            return;
+        }
+        MessageLite sample = sample(type, timestamp);
+        if (sample != null) {
+            batch(sample);
+        }
+    }
+
+    private static MessageLite toMessage(TelemetryEncoder.MessageType type, long timestamp, double a, double b, double c, double d, double e) {
+        switch (type) {
+            case POSITION:
+                return Telemetry.Position.newBuilder()
+                        .setTimestamp(timestamp)
+                        .setLatitude(a)
+                        .setLongitude(b)
+                        .setAltitudeAgl((float) c)
+                        .setAltitudeMsl((float) d)
+                        .setHorizontalAccuracy((float) e)
+                        .build();
+            case SPEED:
+                return Telemetry.Speed.newBuilder()
+                        .setTimestamp(timestamp)
+                        .setVelocityX((float) a)
+                        .setVelocityY((float) b)
+                        .setVelocityZ((float) c)
+                        .build();
+            case ATTITUDE:
+                return Telemetry.Attitude.newBuilder()
+                        .setTimestamp(timestamp)
+                        .setYaw((float) a)
+                        .setPitch((float) b)
+                        .setRoll((float) c)
+                        .build();
+            case BAROMETER:
+            default:
+                return Telemetry.Barometer.newBuilder()
+                        .setTimestamp(timestamp)
+                        .setPressure((float) a)
+                        .build();
+        }
+    }
+
+    /**
+     * Applies the rate policy to the sample just taken into fields, remembering it if it's going to
+     * be sent. The default policy decides on the fields; other policies are given messages.
+     *
+     * @return the message to send, or null if the policy suppressed the sample
+     */
+    private synchronized MessageLite sample(TelemetryEncoder.MessageType type, long timestamp) {
+        int index = type.ordinal();
+        long now = System.currentTimeMillis();
+        long elapsed = now - lastSentAt[index];
+        TelemetryRatePolicy policy = settings.ratePolicy;
+        MessageLite sample = null;
+        boolean send;
+        if (policy instanceof AdaptiveTelemetryRatePolicy) {
+            send = ((AdaptiveTelemetryRatePolicy) policy).shouldSend(type, fields, lastSent[index] != null ? lastSentFields[index] : null, elapsed);
+        } else {
+            sample = toMessage(type, timestamp, fields[0], fields[1], fields[2], fields[3], fields[4]);
+            send = policy.shouldSend(sample, lastSent[index], elapsed);
+        }
+        if (!send) {
+            settings.metrics.suppressedSamples.incrementAndGet(index);
+            return null;
+        }
+
+        if (sample == null) {
+            sample = toMessage(type, timestamp, fields[0], fields[1], fields[2], fields[3], fields[4]);
+        }
+        lastSent[index] = sample;
+        System.arraycopy(fields, 0, lastSentFields[index], 0, fields.length);
+        lastSentAt[index] = now;
+        settings.metrics.sentSamples.incrementAndGet(index);
+        return sample;
+    }
+
+    //Adds a message to the current batch, sending the batch first if the message won't fit
+    private synchronized void batch(MessageLite message) {
+        int size = TelemetryEncoder.messageSize(message);
+        if (!batch.isEmpty() && encoder.packetSize(batchSize + size) > settings.maxPacketSize) {
+            flush();
+        }
+
+        batch.add(message);
+        batchSize += size;
+
+        if (batch.size() == 1) {
+            final int deadline = batchNumber;
+            scheduler.schedule(new Action0() {
+                @Override
+                public void call() {
+                    flush(deadline);
+                }
+            }, settings.maxBatchLatency, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    //Sends the batch if it is still the one the deadline was set for
+    private synchronized void flush(int deadline) {
+        if (deadline == batchNumber) {
+            flush();
+        }
+    }
+
+    private synchronized void flush() {
+        if (batch.isEmpty() || closed) {
+            return;
+        }
+
+        final List<MessageLite> messages = batch;
+        batch = new ArrayList<>();
+        batchSize = 0;
+        batchNumber++;
+
+        sender.submit(new Runnable() {
+            @Override
+            public void run() {
+                send(messages);
+            }
+        });
+    }
+
+    //Sends the encrypted, encoded message
+    private void send(List<MessageLite> messageList) {
+        TelemetryMetrics metrics = settings.metrics;
+        if (journal != null) {
+            // a previous session of the flight may still have been sending when this one started
+            packetNumber = Math.max(packetNumber, journal.getLastSequence() + 1);
+        }
+        int length;
+        try {
+            long start = System.nanoTime();
+            length = encoder.encode(packetNumber, messageList);
+            metrics.encodeTime.record((System.nanoTime() - start) / 1000);
+        } catch (IOException | GeneralSecurityException e) {
+            Timber.e(e, "Unable to build packet");
+            metrics.failure(e);
+            return;
+        }
+
+        int serialNumber = packetNumber++;
+        if (journal != null) {
+            journal.setLastSequence(serialNumber);
+        }
+        try {
+            if (!reconnect()) {
+                throw new SocketException("Telemetry socket is not connected");
+            }
+            packet.setData(encoder.getBuffer(), 0, length);
+            long start = System.nanoTime();
+            socket.send(packet);
+            metrics.socketSendTime.record((System.nanoTime() - start) / 1000);
+        } catch (IOException e) {
+            Timber.e(e, "Unable to send packet");
+            metrics.failure(e);
+            if (socket != null) {
+                disconnect();
+            }
+            if (journal != null) {
+                journal.append(serialNumber, encoder.getBuffer(), length);
+                scheduleCatchUp();
+            }
+            return;
+        }
+        metrics.packetsSent.incrementAndGet();
+        metrics.bytesSent.addAndGet(length);
+
+        catchUp();
+    }
+
+    //Resends journaled packets, limited to the catch-up rate
+    private void catchUp() {
+        if (journal == null || journal.isEmpty()) {
+            lastCatchUp = 0;
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        int rate = settings.catchUpRate;
+        catchUpTokens = lastCatchUp == 0 ? 1 : Math.min(rate, catchUpTokens + (now - lastCatchUp) * rate / 1000d);
+        lastCatchUp = now;
+
+        while (catchUpTokens >= 1 && !journal.isEmpty()) {
+            int length = journal.peek(journalPacket.getData());
+            try {
+                journalPacket.setLength(length);
+                socket.send(journalPacket);
+            } catch (IOException e) {
+                Timber.e(e, "Unable to resend journaled packet");
+                settings.metrics.failure(e);
+                disconnect();
+                break;
+            }
+            settings.metrics.packetsSent.incrementAndGet();
+            settings.metrics.bytesSent.addAndGet(length);
+            journal.remove();
+            catchUpTokens--;
+        }
+        scheduleCatchUp();
+    }
+
+    /**
+     * Carry on resending journaled packets, and reconnecting to do so, without waiting for the
+     * next live send, which never comes once the flight stops producing samples. Only called on
+     * the sender thread.
+     */
+    private void scheduleCatchUp() {
+        if (catchUpScheduled || journal == null || journal.isEmpty()) {
+            return;
+        }
+        catchUpScheduled = true;
+        // once the backoff has passed if disconnected, or once there is a token to resend with
+        long delay = socket == null ? Math.max(0, reconnectAt - System.currentTimeMillis()) : 1000 / Math.max(1, settings.catchUpRate);
+        scheduler.schedule(new Action0() {
+            @Override
+            public void call() {
+                sender.submitControl(new Runnable() {
+                    @Override
+                    public void run() {
+                        catchUpScheduled = false;
+                        if (journal != null && reconnect()) {
+                            catchUp();
+                        } else {
+                            scheduleCatchUp();
+                        }
+                    }
+                });
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,58 @@
+package com.airmap.airmapsdk.networking.services;
+
+import java.io.File;
+
+/**
+ * Settings and metrics shared by every {@link TelemetrySession} of a TelemetryService
+ */
+class TelemetrySettings {
+
+    // journaled packets resent per second once the connection recovers
+    static final int DEFAULT_CATCH_UP_RATE = 20;
+
+    // batches are sent when the next message wouldn't fit in a datagram of this many bytes, or
+    // when the oldest message in the batch has waited this long
+    static final int DEFAULT_MAX_PACKET_SIZE = 1200;
+    static final long DEFAULT_MAX_BATCH_LATENCY = 250;
+
+    // how often each session takes the latest samples from its slots, in milliseconds
+    static final long DEFAULT_TICK_INTERVAL = 50;
+
+    // where packets that couldn't be sent are journaled, or null to drop them. The default is only
+    // resolved when the first session starts, as the SDK may not be initialized before then
+    private File journalDirectory;
+    private boolean defaultJournalDirectory;
+
+    volatile int catchUpRate = DEFAULT_CATCH_UP_RATE;
+    volatile int maxPacketSize = DEFAULT_MAX_PACKET_SIZE;
+    volatile long maxBatchLatency = DEFAULT_MAX_BATCH_LATENCY;
+    volatile long tickInterval = DEFAULT_TICK_INTERVAL;
+    volatile TelemetryRatePolicy ratePolicy = new AdaptiveTelemetryRatePolicy();
+
+    // where sessions record their samples, or null to not record
+    volatile File recordingDirectory;
+
+    final TelemetryMetrics metrics = new TelemetryMetrics();
+
+    /**
+     * Journal packets in the app's files directory
+     */
+    TelemetrySettings() {
+        defaultJournalDirectory = true;
+    }
+
+    TelemetrySettings(File journalDirectory) {
+        this.journalDirectory = journalDirectory;
+    }
+
+    synchronized File getJournalDirectory() {
+        if (defaultJournalDirectory) {
+            if (!AirMap.hasBeenInitialized()) {
+                return null;
+            }
+            journalDirectory = new File(AirMap.getInstance().getContext().getFilesDir(), "telemetry");
+            defaultJournalDirectory = false;
+        }
+        return journalDirectory;
+    }
+}
@@ -0,0 +1,80 @@
+package com.airmap.airmapsdk.networking.services;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Holds the latest sample of one message type as primitive fields, so producers can report at
+ * any rate without allocating or queueing: a new sample simply replaces one that hasn't been
+ * taken yet.
+ *
+ * Writers are serialized with a lock; the reader never blocks. It uses a sequence number that is
+ * odd while a write is in progress (a seqlock), and retries if the sequence changed while it was
+ * reading. Every field lives in an AtomicLongArray, so the reads and writes are ordered without
+ * the memory fences a seqlock over plain fields would need. Each sample is taken at most once.
+ */
+class TelemetrySlot {
+
+    static final int FIELDS = 5;
+
+    private static final int SEQUENCE = 0;
+    private static final int TIMESTAMP = 1;
+
+    private final AtomicLongArray values = new AtomicLongArray(2 + FIELDS);
+    private final AtomicBoolean unread = new AtomicBoolean();
+
+    /**
+     * Replace the slot's sample. Unused fields should be 0.
+     *
+     * @return true if the slot held no unread sample, meaning the caller should arrange for it to
+     * be read
+     */
+    synchronized boolean write(long timestamp, double a, double b, double c, double d, double e) {
+        long sequence = values.get(SEQUENCE);
+        values.set(SEQUENCE, sequence + 1);
+        // flagged while the sequence is odd, so a reader that takes the flag waits for this sample
+        boolean wasUnread = unread.getAndSet(true);
+        values.set(TIMESTAMP, timestamp);
+        values.set(2, Double.doubleToRawLongBits(a));
+        values.set(3, Double.doubleToRawLongBits(b));
+        values.set(4, Double.doubleToRawLongBits(c));
+        values.set(5, Double.doubleToRawLongBits(d));
+        values.set(6, Double.doubleToRawLongBits(e));
+        values.set(SEQUENCE, sequence + 2);
+        return !wasUnread;
+    }
+
+    /**
+     * Take the slot's sample, if it hasn't already been taken. Only one thread may take samples.
+     *
+     * @param fields receives the sample's fields
+     * @return the sample's timestamp, or -1 if there was no unread sample
+     */
+    long take(double[] fields) {
+        if (!unread.compareAndSet(true, false)) {
+            return -1;
+        }
+
+        while (true) {
+            long before = values.get(SEQUENCE);
+            if ((before & 1) != 0) {
+                // a write is in progress
+                Thread.yield();
+                continue;
+            }
+            long timestamp = values.get(TIMESTAMP);
+            for (int i = 0; i < FIELDS; i++) {
+                fields[i] = Double.longBitsToDouble(values.get(2 + i));
+            }
+            if (values.get(SEQUENCE) == before) {
+                // writes that finished since the flag was taken flagged the sample just read, so
+                // clear it again, unless a newer write has started that this didn't read
+                unread.set(false);
+                if (values.get(SEQUENCE) != before) {
+                    unread.set(true);
+                }
+                return timestamp;
+            }
+        }
+    }
+}
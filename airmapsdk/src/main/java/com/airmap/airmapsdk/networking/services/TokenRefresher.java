@@ -0,0 +1,148 @@
+package com.airmap.airmapsdk.networking.services;
+
+import com.auth0.android.jwt.DecodeException;
+import com.auth0.android.jwt.JWT;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import rx.Scheduler;
+import rx.functions.Action0;
+import rx.functions.Func0;
+import rx.functions.Func1;
+import timber.log.Timber;
+
+/**
+ * Keeps the access token fresh for the AirMapClient. The expiry is decoded once per token rather
+ * than on every request, a refresh is scheduled shortly before the token expires, and requests
+ * that find the token expired all wait for a single refresh instead of each starting their own.
+ */
+class TokenRefresher {
+
+    static final long REFRESH_AHEAD = TimeUnit.MINUTES.toMillis(1);
+
+    private final Func0<String> tokens;
+    private final Action0 refresh;
+    private final Func1<String, Long> decoder;
+    private final Scheduler scheduler;
+
+    // the last token seen and when it expires, decoded once
+    private String token;
+    private long expiry;
+    private Scheduler.Worker worker;
+
+    private CountDownLatch inFlight;
+
+    /**
+     * @param tokens    the current access token, or null when not logged in
+     * @param refresh   refreshes the access token, blocking
+     * @param decoder   when a token expires, in milliseconds, or 0 if it can't be decoded
+     * @param scheduler where to refresh ahead of expiry
+     */
+    TokenRefresher(Func0<String> tokens, Action0 refresh, Func1<String, Long> decoder, Scheduler scheduler) {
+        this.tokens = tokens;
+        this.refresh = refresh;
+        this.decoder = decoder;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @return whether the token has expired, or has no expiry. Decodes the token only when it
+     * differs from the last one, and schedules a refresh before a new token expires
+     */
+    boolean isExpired(String token) {
+        if (token == null || token.isEmpty()) {
+            return true;
+        }
+        return expiryOf(token) <= System.currentTimeMillis();
+    }
+
+    private synchronized long expiryOf(String token) {
+        if (!token.equals(this.token)) {
+            this.token = token;
+            expiry = decoder.call(token);
+            scheduleRefresh(token, expiry);
+        }
+        return expiry;
+    }
+
+    /**
+     * Refresh the token if it is still the given stale one, blocking until it has been refreshed.
+     * Only one refresh runs at a time, and requests that ask while it runs wait for it
+     *
+     * @return the current token
+     */
+    String refresh(String stale) throws IOException {
+        CountDownLatch latch;
+        boolean refreshing = false;
+        synchronized (this) {
+            String current = tokens.call();
+            if (current == null || current.isEmpty()) {
+                return current; //logged out
+            }
+            if (!current.equals(stale) && !isExpired(current)) {
+                return current; //already refreshed
+            }
+            if (inFlight == null) {
+                inFlight = new CountDownLatch(1);
+                refreshing = true;
+            }
+            latch = inFlight;
+        }
+        if (refreshing) {
+            try {
+                refresh.call();
+            } finally {
+                synchronized (this) {
+                    inFlight = null;
+                }
+                latch.countDown();
+            }
+        } else {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted waiting for the access token to refresh");
+            }
+        }
+        return tokens.call();
+    }
+
+    private void scheduleRefresh(final String token, long expiry) {
+        if (worker != null) {
+            worker.unsubscribe();
+            worker = null;
+        }
+        if (expiry <= 0) {
+            return;
+        }
+        long delay = Math.max(0, expiry - REFRESH_AHEAD - System.currentTimeMillis());
+        worker = scheduler.createWorker();
+        worker.schedule(new Action0() {
+            @Override
+            public void call() {
+                try {
+                    refresh(token);
+                } catch (IOException e) {
+                    Timber.e(e, "Failed to refresh access token ahead of expiry");
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return when a JWT expires, in milliseconds, or 0 if it can't be decoded or doesn't expire
+     */
+    static long decodeExpiry(String token) {
+        try {
+            Date expiresAt = new JWT(token).getExpiresAt();
+            return expiresAt != null ? expiresAt.getTime() : 0;
+        } catch (DecodeException e) {
+            Timber.e(e, "Unable to decode access token");
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.airmap.airmapsdk.networking.services;
+
+import com.airmap.airmapsdk.models.Coordinate;
+import com.airmap.airmapsdk.models.traffic.AirMapTraffic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges the traffic added, updated and removed between two deliveries to the listeners into a
+ * single diff: traffic added and removed in between is never delivered, an add followed by
+ * updates is delivered as one add, and so on. Updates that move traffic less than a threshold
+ * since it was last delivered, and change nothing else the listeners draw, are dropped.
+ */
+class TrafficCoalescer {
+
+    private static final double METERS_PER_DEGREE = TrafficIndex.METERS_PER_DEGREE;
+    private static final double METERS_PER_FOOT = 0.3048;
+
+    private final Map<String, AirMapTraffic> added = new LinkedHashMap<>();
+    private final Map<String, AirMapTraffic> updated = new LinkedHashMap<>();
+    private final Map<String, AirMapTraffic> removed = new LinkedHashMap<>();
+    // updates that are delivered whatever the threshold, because the listeners have a different instance
+    private final Map<String, AirMapTraffic> replaced = new HashMap<>();
+
+    // where each traffic was when it was last delivered
+    private final Map<String, Delivered> delivered = new HashMap<>();
+
+    private double threshold = 10; //meters
+    private boolean pending;
+
+    /**
+     * @param threshold how far traffic has to move to deliver an update, in meters
+     */
+    synchronized void setThreshold(double threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return true if this is the first change since the last {@link #drain()}, so a delivery
+     * needs to be scheduled
+     */
+    synchronized boolean add(List<AirMapTraffic> traffic) {
+        for (AirMapTraffic target : traffic) {
+            String id = target.getId();
+            if (removed.remove(id) != null || (delivered.containsKey(id) && !added.containsKey(id))) {
+                replaced.put(id, target);
+                updated.put(id, target);
+            } else {
+                added.put(id, target);
+            }
+        }
+        return changed(traffic);
+    }
+
+    synchronized boolean update(List<AirMapTraffic> traffic) {
+        for (AirMapTraffic target : traffic) {
+            String id = target.getId();
+            if (added.containsKey(id)) {
+                added.put(id, target);
+            } else if (!removed.containsKey(id)) {
+                updated.put(id, target);
+            }
+        }
+        return changed(traffic);
+    }
+
+    synchronized boolean remove(List<AirMapTraffic> traffic) {
+        for (AirMapTraffic target : traffic) {
+            String id = target.getId();
+            updated.remove(id);
+            replaced.remove(id);
+            if (added.remove(id) == null && delivered.containsKey(id)) {
+                removed.put(id, target);
+            }
+        }
+        return changed(traffic);
+    }
+
+    /**
+     * Take the changes since the last drain, dropping updates below the threshold
+     *
+     * @return the changes, or null if there is nothing to deliver
+     */
+    synchronized Diff drain() {
+        pending = false;
+        Diff diff = new Diff();
+        for (AirMapTraffic target : removed.values()) {
+            delivered.remove(target.getId());
+            diff.removed.add(target);
+        }
+        for (AirMapTraffic target : added.values()) {
+            delivered.put(target.getId(), new Delivered(target));
+            diff.added.add(target);
+        }
+        for (AirMapTraffic target : updated.values()) {
+            Delivered last = delivered.get(target.getId());
+            if (last == null) {
+                // never delivered, so the listeners need to hear about it as new
+                delivered.put(target.getId(), new Delivered(target));
+                diff.added.add(target);
+            } else if (replaced.containsKey(target.getId()) || last.changed(target, threshold)) {
+                last.set(target);
+                diff.updated.add(target);
+            }
+        }
+        added.clear();
+        updated.clear();
+        removed.clear();
+        replaced.clear();
+        return diff.isEmpty() ? null : diff;
+    }
+
+    /**
+     * Forget the pending changes and what has been delivered, for when the traffic is dropped
+     * without telling the listeners, so that traffic received afterwards is delivered as new.
+     * A delivery already scheduled still runs, and finds nothing to deliver.
+     */
+    synchronized void clear() {
+        added.clear();
+        updated.clear();
+        removed.clear();
+        replaced.clear();
+        delivered.clear();
+    }
+
+    synchronized int getDeliveredCount() {
+        return delivered.size();
+    }
+
+    private boolean changed(List<AirMapTraffic> traffic) {
+        if (traffic.isEmpty() || pending) {
+            return false;
+        }
+        pending = true;
+        return true;
+    }
+
+    static class Diff {
+        final List<AirMapTraffic> added = new ArrayList<>();
+        final List<AirMapTraffic> updated = new ArrayList<>();
+        final List<AirMapTraffic> removed = new ArrayList<>();
+
+        boolean isEmpty() {
+            return added.isEmpty() && updated.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    // copied out of the traffic, which is moved in place when it is projected
+    private static class Delivered {
+        double latitude;
+        double longitude;
+        double altitude;
+        AirMapTraffic.TrafficType type;
+        boolean showAlert;
+
+        Delivered(AirMapTraffic traffic) {
+            set(traffic);
+        }
+
+        void set(AirMapTraffic traffic) {
+            Coordinate coordinate = traffic.getCoordinate();
+            latitude = coordinate != null ? coordinate.getLatitude() : 0;
+            longitude = coordinate != null ? coordinate.getLongitude() : 0;
+            altitude = traffic.getAltitudeFt();
+            type = traffic.getTrafficType();
+            showAlert = traffic.shouldShowAlert();
+        }
+
+        boolean changed(AirMapTraffic traffic, double threshold) {
+            if (traffic.getTrafficType() != type || traffic.shouldShowAlert() != showAlert) {
+                return true;
+            }
+            Coordinate coordinate = traffic.getCoordinate();
+            if (coordinate == null) {
+                return false;
+            }
+            double north = (coordinate.getLatitude() - latitude) * METERS_PER_DEGREE;
+            double east = Math.IEEEremainder(coordinate.getLongitude() - longitude, 360) * METERS_PER_DEGREE
+                    * Math.cos(Math.toRadians(latitude));
+            double up = (traffic.getAltitudeFt() - altitude) * METERS_PER_FOOT;
+            if (Double.isNaN(up)) {
+                up = Double.isNaN(traffic.getAltitudeFt()) == Double.isNaN(altitude) ? 0 : Double.POSITIVE_INFINITY;
+            }
+            return north * north + east * east + up * up >= threshold * threshold;
+        }
+    }
+}
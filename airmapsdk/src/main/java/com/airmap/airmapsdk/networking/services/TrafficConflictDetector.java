@@ -0,0 +1,229 @@
+package com.airmap.airmapsdk.networking.services;
+
+import com.airmap.airmapsdk.models.Coordinate;
+import com.airmap.airmapsdk.models.traffic.AirMapTraffic;
+import com.airmap.airmapsdk.models.traffic.AirMapTrafficConflict;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Finds traffic on a collision course with ownship by computing the time and distance of closest
+ * point of approach (TCPA and CPA) for every target, assuming both keep their current velocity.
+ *
+ * Positions are in meters east, north and up on a flat plane tangent to the earth at an anchor
+ * near ownship. Up is the altitude above mean sea level: targets are reported in feet MSL and
+ * ownship sends meters MSL through telemetry, so target altitudes are converted to meters when
+ * they are loaded. The vertical threshold is set in feet and converted to meters to compare, and
+ * the vertical separation of a conflict is converted back to feet.
+ *
+ * Targets are dead reckoned from their last report, so their state only has to be unpacked into
+ * the primitive arrays when a report arrives, and each ownship position is a single pass over the
+ * arrays.
+ */
+class TrafficConflictDetector {
+
+    private static final double METERS_PER_DEGREE = TrafficIndex.METERS_PER_DEGREE;
+    private static final double METERS_PER_SECOND_PER_KNOT = 0.514444;
+    private static final double METERS_PER_FOOT = 0.3048;
+    // re-anchor the plane once ownship is this far from the anchor, to keep the flat earth accurate
+    private static final double MAX_ANCHOR_DISTANCE = 10000;
+
+    private final TrafficStore store;
+
+    private volatile double lookahead = 30; //seconds
+    private volatile double horizontalSeparation = 1000; //meters
+    private volatile double verticalSeparation = 500; //feet
+
+    // ownship velocity, meters per second
+    private volatile double ownshipNorth;
+    private volatile double ownshipEast;
+    private volatile double ownshipUp;
+
+    // the snapshot the arrays were loaded from
+    private AirMapTraffic[] loaded;
+    private double anchorLatitude;
+    private double anchorLongitude;
+    private double longitudeScale;
+
+    // per target: position when reported with the altitude in meters MSL, velocity, report time
+    // in seconds since the epoch
+    private int count;
+    private AirMapTraffic[] targets = new AirMapTraffic[0];
+    private double[] east = new double[0];
+    private double[] north = new double[0];
+    private double[] altitude = new double[0];
+    private double[] velocityEast = new double[0];
+    private double[] velocityNorth = new double[0];
+    private double[] reported = new double[0];
+
+    // per target results of the last assessment
+    private double[] time = new double[0];
+    private double[] missDistance = new double[0];
+
+    TrafficConflictDetector(TrafficStore store) {
+        this.store = store;
+    }
+
+    /**
+     * @param lookahead            how far ahead to look for conflicts, in seconds
+     * @param horizontalSeparation conflicts are closer than this horizontally, in meters
+     * @param verticalSeparation   and closer than this vertically, in feet
+     */
+    void setThresholds(double lookahead, double horizontalSeparation, double verticalSeparation) {
+        this.lookahead = lookahead;
+        this.horizontalSeparation = horizontalSeparation;
+        this.verticalSeparation = verticalSeparation;
+    }
+
+    /**
+     * @param north meters per second
+     * @param east  meters per second
+     * @param down  meters per second
+     */
+    void setOwnshipVelocity(double north, double east, double down) {
+        ownshipNorth = north;
+        ownshipEast = east;
+        ownshipUp = -down;
+    }
+
+    /**
+     * Find the traffic that will come within the separation thresholds of ownship within the
+     * lookahead time
+     *
+     * @param latitude    ownship latitude
+     * @param longitude   ownship longitude
+     * @param altitudeMSL ownship altitude above mean sea level, in meters
+     * @param now         the current time, in milliseconds
+     * @return the conflicts, soonest first
+     */
+    synchronized List<AirMapTrafficConflict> assess(double latitude, double longitude, double altitudeMSL, long now) {
+        AirMapTraffic[] snapshot = store.snapshot();
+        if (snapshot != loaded || Math.abs(latitude - anchorLatitude) * METERS_PER_DEGREE > MAX_ANCHOR_DISTANCE
+                || Math.abs(longitude - anchorLongitude) * METERS_PER_DEGREE * longitudeScale > MAX_ANCHOR_DISTANCE) {
+            load(snapshot, latitude, longitude);
+        }
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+
+        double seconds = now / 1000d;
+        double lookahead = this.lookahead;
+        double ownNorth = (latitude - anchorLatitude) * METERS_PER_DEGREE;
+        double ownEast = Math.IEEEremainder(longitude - anchorLongitude, 360) * METERS_PER_DEGREE * longitudeScale;
+        double ownVelocityNorth = ownshipNorth;
+        double ownVelocityEast = ownshipEast;
+
+        // horizontal closest approach, clamped to the lookahead window
+        double[] east = this.east;
+        double[] north = this.north;
+        double[] velocityEast = this.velocityEast;
+        double[] velocityNorth = this.velocityNorth;
+        double[] reported = this.reported;
+        double[] time = this.time;
+        double[] missDistance = this.missDistance;
+        for (int i = 0; i < count; i++) {
+            double elapsed = seconds - reported[i];
+            double relativeVelocityEast = velocityEast[i] - ownVelocityEast;
+            double relativeVelocityNorth = velocityNorth[i] - ownVelocityNorth;
+            double relativeEast = east[i] + velocityEast[i] * elapsed - ownEast;
+            double relativeNorth = north[i] + velocityNorth[i] * elapsed - ownNorth;
+            double speedSquared = relativeVelocityEast * relativeVelocityEast + relativeVelocityNorth * relativeVelocityNorth;
+            double t = speedSquared > 1e-9 ? -(relativeEast * relativeVelocityEast + relativeNorth * relativeVelocityNorth) / speedSquared : 0;
+            t = Math.min(Math.max(t, 0), lookahead);
+            double missEast = relativeEast + relativeVelocityEast * t;
+            double missNorth = relativeNorth + relativeVelocityNorth * t;
+            time[i] = t;
+            missDistance[i] = missEast * missEast + missNorth * missNorth;
+        }
+
+        double horizontal = horizontalSeparation * horizontalSeparation;
+        double vertical = feetToMeters(verticalSeparation);
+        List<AirMapTrafficConflict> conflicts = null;
+        for (int i = 0; i < count; i++) {
+            if (missDistance[i] >= horizontal) {
+                continue;
+            }
+            double separation = altitude[i] - (altitudeMSL + ownshipUp * time[i]);
+            if (Math.abs(separation) >= vertical) {
+                continue;
+            }
+            if (conflicts == null) {
+                conflicts = new ArrayList<>();
+            }
+            double elapsed = seconds - reported[i];
+            double distance = Math.hypot(east[i] + velocityEast[i] * elapsed - ownEast, north[i] + velocityNorth[i] * elapsed - ownNorth);
+            conflicts.add(new AirMapTrafficConflict(targets[i], time[i], Math.sqrt(missDistance[i]), metersToFeet(separation), distance));
+        }
+        if (conflicts == null) {
+            return Collections.emptyList();
+        }
+        Collections.sort(conflicts, new Comparator<AirMapTrafficConflict>() {
+            @Override
+            public int compare(AirMapTrafficConflict a, AirMapTrafficConflict b) {
+                int result = Double.compare(a.getTimeToClosestApproach(), b.getTimeToClosestApproach());
+                return result != 0 ? result : Double.compare(a.getClosestApproachDistance(), b.getClosestApproachDistance());
+            }
+        });
+        return conflicts;
+    }
+
+    /**
+     * Unpack the traffic into the arrays, on a plane anchored at ownship
+     */
+    private void load(AirMapTraffic[] snapshot, double latitude, double longitude) {
+        loaded = snapshot;
+        anchorLatitude = latitude;
+        anchorLongitude = longitude;
+        longitudeScale = Math.max(0.01, Math.cos(Math.toRadians(latitude)));
+        if (targets.length < snapshot.length) {
+            int capacity = Math.max(snapshot.length, targets.length * 2);
+            targets = new AirMapTraffic[capacity];
+            east = new double[capacity];
+            north = new double[capacity];
+            altitude = new double[capacity];
+            velocityEast = new double[capacity];
+            velocityNorth = new double[capacity];
+            reported = new double[capacity];
+            time = new double[capacity];
+            missDistance = new double[capacity];
+        } else {
+            Arrays.fill(targets, snapshot.length, targets.length, null);
+        }
+
+        count = 0;
+        for (AirMapTraffic traffic : snapshot) {
+            Coordinate coordinate = traffic.getInitialCoordinate() != null ? traffic.getInitialCoordinate() : traffic.getCoordinate();
+            if (coordinate == null) {
+                continue;
+            }
+            int i = count++;
+            targets[i] = traffic;
+            east[i] = Math.IEEEremainder(coordinate.getLongitude() - longitude, 360) * METERS_PER_DEGREE * longitudeScale;
+            north[i] = (coordinate.getLatitude() - latitude) * METERS_PER_DEGREE;
+            altitude[i] = feetToMeters(traffic.getAltitudeFt());
+            if (traffic.getGroundSpeedKt() > -1 && traffic.getTrueHeading() > -1 && traffic.getRecordedTime() != null) {
+                double speed = traffic.getGroundSpeedKt() * METERS_PER_SECOND_PER_KNOT;
+                double heading = Math.toRadians(traffic.getTrueHeading());
+                velocityEast[i] = speed * Math.sin(heading);
+                velocityNorth[i] = speed * Math.cos(heading);
+                reported[i] = traffic.getRecordedTime().getTime() / 1000d;
+            } else {
+                velocityEast[i] = 0;
+                velocityNorth[i] = 0;
+                reported[i] = 0;
+            }
+        }
+    }
+
+    private static double feetToMeters(double feet) {
+        return feet * METERS_PER_FOOT;
+    }
+
+    private static double metersToFeet(double meters) {
+        return meters / METERS_PER_FOOT;
+    }
+}
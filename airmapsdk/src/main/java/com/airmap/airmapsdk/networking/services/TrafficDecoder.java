@@ -0,0 +1,529 @@
+package com.airmap.airmapsdk.networking.services;
+
+import com.airmap.airmapsdk.models.Coordinate;
+import com.airmap.airmapsdk.models.traffic.AirMapTraffic;
+import com.airmap.airmapsdk.models.traffic.AirMapTrafficProperties;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Decodes traffic messages straight from the MQTT payload bytes, without building the payload
+ * string or a JSONObject tree. Keys are matched against their bytes and unknown values are skipped
+ * without being decoded. Values are read the same way {@link AirMapTraffic#constructFromJson}
+ * reads them, including its defaults for missing and null values.
+ *
+ * Each target is decoded into a reusable {@link Report} rather than into the traffic being
+ * tracked, so a message that turns out to be malformed part way through changes nothing. The
+ * reports are applied to the tracked traffic by {@link TrafficStore#apply}.
+ *
+ * Not thread safe; messages are decoded one at a time on the MQTT callback thread.
+ */
+class TrafficDecoder {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] TRAFFIC = ascii("traffic");
+    private static final byte[] ID = ascii("id");
+    private static final byte[] DIRECTION = ascii("direction");
+    private static final byte[] ALTITUDE = ascii("altitude");
+    private static final byte[] GROUND_SPEED = ascii("ground_speed_kts");
+    private static final byte[] TRUE_HEADING = ascii("true_heading");
+    private static final byte[] TIMESTAMP = ascii("timestamp");
+    private static final byte[] RECORDED_TIME = ascii("recorded_time");
+    private static final byte[] LATITUDE = ascii("latitude");
+    private static final byte[] LONGITUDE = ascii("longitude");
+    private static final byte[] PROPERTIES = ascii("properties");
+    private static final byte[] AIRCRAFT_ID = ascii("aircraft_id");
+    private static final byte[] AIRCRAFT_TYPE = ascii("aircraft_type");
+
+    private final StringBuilder builder = new StringBuilder();
+
+    // reused from message to message; only the first count hold the current message
+    private final List<Report> reports = new ArrayList<>();
+    private int count;
+
+    private byte[] in;
+    private int pos;
+    private int end;
+
+    // the last key read, as a range of the input
+    private int keyStart;
+    private int keyEnd;
+
+    /**
+     * @param payload a JSON object whose "traffic" array holds the traffic
+     * @return a report per target in the message, which are only valid until the next message is decoded
+     */
+    List<Report> decode(byte[] payload) throws IOException {
+        count = 0;
+        in = payload;
+        pos = 0;
+        end = payload.length;
+        try {
+            expect('{');
+            if (!endOf('}')) {
+                do {
+                    readKey();
+                    if (key(TRAFFIC) && peek() == '[') {
+                        pos++;
+                        if (!endOf(']')) {
+                            do {
+                                if (peek() == '{') {
+                                    readTraffic(nextReport());
+                                } else {
+                                    skipValue();
+                                }
+                            } while (next(']'));
+                        }
+                    } else {
+                        skipValue();
+                    }
+                } while (next('}'));
+            }
+        } catch (IOException e) {
+            count = 0;
+            throw e;
+        } finally {
+            in = null;
+        }
+        return reports.subList(0, count);
+    }
+
+    private Report nextReport() {
+        if (count == reports.size()) {
+            reports.add(new Report());
+        }
+        return reports.get(count++);
+    }
+
+    private void readTraffic(Report report) throws IOException {
+        report.reset();
+        expect('{');
+        if (!endOf('}')) {
+            do {
+                readKey();
+                if (key(ID)) {
+                    report.id = readString(report.id);
+                } else if (key(DIRECTION)) {
+                    report.direction = readDouble(report.direction);
+                } else if (key(ALTITUDE)) {
+                    report.altitude = readDouble(report.altitude);
+                } else if (key(GROUND_SPEED)) {
+                    report.groundSpeed = (int) readDouble(report.groundSpeed);
+                } else if (key(TRUE_HEADING)) {
+                    report.trueHeading = (int) readDouble(report.trueHeading);
+                } else if (key(TIMESTAMP)) {
+                    report.timestamp = readLong(report.timestamp);
+                } else if (key(RECORDED_TIME)) {
+                    report.recordedTime = readLong(report.recordedTime);
+                } else if (key(LATITUDE)) {
+                    report.latitude = readDouble(report.latitude);
+                } else if (key(LONGITUDE)) {
+                    report.longitude = readDouble(report.longitude);
+                } else if (key(PROPERTIES) && peek() == '{') {
+                    report.aircraftId = "";
+                    report.aircraftType = "";
+                    pos++;
+                    if (!endOf('}')) {
+                        do {
+                            readKey();
+                            if (key(AIRCRAFT_ID)) {
+                                report.aircraftId = readString(report.aircraftId);
+                            } else if (key(AIRCRAFT_TYPE)) {
+                                report.aircraftType = readString(report.aircraftType);
+                            } else {
+                                skipValue();
+                            }
+                        } while (next('}'));
+                    }
+                } else {
+                    skipValue();
+                }
+            } while (next('}'));
+        }
+    }
+
+    /**
+     * Read a string, number or boolean as a string
+     */
+    private String readString(String fallback) throws IOException {
+        byte b = peek();
+        if (b == '"') {
+            return readStringToken();
+        }
+        if (b == 't' || b == 'f' || b == '-' || (b >= '0' && b <= '9')) {
+            int start = pos;
+            skipValue();
+            return new String(in, start, pos - start, UTF_8);
+        }
+        skipValue();
+        return fallback;
+    }
+
+    /**
+     * Read a number, or a string holding a number
+     */
+    private double readDouble(double fallback) throws IOException {
+        byte b = peek();
+        if (b == '"') {
+            try {
+                return Double.parseDouble(readStringToken().trim());
+            } catch (NumberFormatException e) {
+                return fallback;
+            }
+        }
+        if (b == '-' || (b >= '0' && b <= '9')) {
+            int start = pos;
+            skipNumber();
+            return parseDouble(start, pos);
+        }
+        skipValue();
+        return fallback;
+    }
+
+    /**
+     * Read a number, or a string holding a number, truncated to a long
+     */
+    private long readLong(long fallback) throws IOException {
+        byte b = peek();
+        if (b == '"') {
+            String value = readStringToken().trim();
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                try {
+                    return (long) Double.parseDouble(value);
+                } catch (NumberFormatException notANumber) {
+                    return fallback;
+                }
+            }
+        }
+        if (b == '-' || (b >= '0' && b <= '9')) {
+            int start = pos;
+            skipNumber();
+            // plain digits, too few to overflow
+            boolean negative = in[start] == '-';
+            int i = negative ? start + 1 : start;
+            if (pos - i > 0 && pos - i < 19) {
+                long value = 0;
+                for (; i < pos; i++) {
+                    byte digit = in[i];
+                    if (digit < '0' || digit > '9') {
+                        return (long) parseDouble(start, pos);
+                    }
+                    value = value * 10 + (digit - '0');
+                }
+                return negative ? -value : value;
+            }
+            return (long) parseDouble(start, pos);
+        }
+        skipValue();
+        return fallback;
+    }
+
+    private double parseDouble(int start, int end) throws IOException {
+        try {
+            return Double.parseDouble(new String(in, start, end - start, UTF_8));
+        } catch (NumberFormatException e) {
+            throw error("Malformed number");
+        }
+    }
+
+    /**
+     * Read an object key and the colon after it, leaving the key's range in keyStart and keyEnd
+     */
+    private void readKey() throws IOException {
+        expect('"');
+        keyStart = pos;
+        while (true) {
+            if (pos >= end) {
+                throw error("Unterminated key");
+            }
+            byte b = in[pos];
+            if (b == '"') {
+                break;
+            }
+            pos += b == '\\' ? 2 : 1; //keys with escapes are skipped over, and never match
+        }
+        keyEnd = pos++;
+        expect(':');
+    }
+
+    private boolean key(byte[] name) {
+        if (keyEnd - keyStart != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (in[keyStart + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readStringToken() throws IOException {
+        expect('"');
+        int start = pos;
+        while (pos < end) {
+            byte b = in[pos];
+            if (b == '"') {
+                return new String(in, start, pos++ - start, UTF_8);
+            }
+            if (b == '\\') {
+                return readEscapedString(start);
+            }
+            pos++;
+        }
+        throw error("Unterminated string");
+    }
+
+    private String readEscapedString(int start) throws IOException {
+        builder.setLength(0);
+        int run = start;
+        while (pos < end) {
+            byte b = in[pos];
+            if (b == '"') {
+                builder.append(new String(in, run, pos++ - run, UTF_8));
+                return builder.toString();
+            }
+            if (b != '\\') {
+                pos++;
+                continue;
+            }
+            builder.append(new String(in, run, pos - run, UTF_8));
+            if (pos + 1 >= end) {
+                break;
+            }
+            byte escaped = in[pos + 1];
+            pos += 2;
+            switch (escaped) {
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    if (pos + 4 > end) {
+                        throw error("Malformed escape");
+                    }
+                    try {
+                        builder.append((char) Integer.parseInt(new String(in, pos, 4, UTF_8), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("Malformed escape");
+                    }
+                    pos += 4;
+                    break;
+                default:
+                    builder.append((char) escaped);
+                    break;
+            }
+            run = pos;
+        }
+        throw error("Unterminated string");
+    }
+
+    private void skipValue() throws IOException {
+        byte b = peek();
+        switch (b) {
+            case '{':
+                pos++;
+                if (!endOf('}')) {
+                    do {
+                        readKey();
+                        skipValue();
+                    } while (next('}'));
+                }
+                break;
+            case '[':
+                pos++;
+                if (!endOf(']')) {
+                    do {
+                        skipValue();
+                    } while (next(']'));
+                }
+                break;
+            case '"':
+                pos++;
+                while (true) {
+                    if (pos >= end) {
+                        throw error("Unterminated string");
+                    }
+                    byte c = in[pos];
+                    if (c == '"') {
+                        pos++;
+                        break;
+                    }
+                    pos += c == '\\' ? 2 : 1;
+                }
+                break;
+            case 't':
+                literal("true");
+                break;
+            case 'f':
+                literal("false");
+                break;
+            case 'n':
+                literal("null");
+                break;
+            default:
+                if (b == '-' || (b >= '0' && b <= '9')) {
+                    skipNumber();
+                } else {
+                    throw error("Unexpected character");
+                }
+        }
+    }
+
+    private void skipNumber() {
+        while (pos < end) {
+            byte b = in[pos];
+            if ((b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E') {
+                pos++;
+            } else {
+                break;
+            }
+        }
+    }
+
+    private void literal(String literal) throws IOException {
+        if (pos + literal.length() > end) {
+            throw error("Unexpected end");
+        }
+        for (int i = 0; i < literal.length(); i++) {
+            if (in[pos + i] != literal.charAt(i)) {
+                throw error("Unexpected character");
+            }
+        }
+        pos += literal.length();
+    }
+
+    /**
+     * @return the next character that isn't whitespace, without consuming it
+     */
+    private byte peek() throws IOException {
+        while (pos < end) {
+            byte b = in[pos];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                return b;
+            }
+            pos++;
+        }
+        throw error("Unexpected end");
+    }
+
+    private void expect(char c) throws IOException {
+        if (peek() != c) {
+            throw error("Expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    /**
+     * Consume the closing bracket of an empty object or array
+     *
+     * @return whether it was empty
+     */
+    private boolean endOf(char close) throws IOException {
+        if (peek() == close) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Consume the comma before the next member, or the closing bracket
+     *
+     * @return whether there is another member
+     */
+    private boolean next(char close) throws IOException {
+        byte b = peek();
+        pos++;
+        if (b == ',') {
+            return true;
+        }
+        if (b == close) {
+            return false;
+        }
+        throw error("Expected ',' or '" + close + "'");
+    }
+
+    private IOException error(String message) {
+        return new IOException(message + " at " + pos + " in traffic message");
+    }
+
+    private static byte[] ascii(String key) {
+        return key.getBytes(UTF_8);
+    }
+
+    /**
+     * The values of one target in a message
+     */
+    static class Report {
+
+        String id;
+        double direction;
+        double altitude;
+        int groundSpeed;
+        int trueHeading;
+        long timestamp;
+        long recordedTime;
+        double latitude;
+        double longitude;
+        String aircraftId;
+        String aircraftType;
+
+        //The defaults AirMapTraffic#constructFromJson uses for missing values
+        void reset() {
+            id = "";
+            direction = -1;
+            altitude = Double.NaN;
+            groundSpeed = -1;
+            trueHeading = -1;
+            timestamp = 0;
+            recordedTime = 0;
+            latitude = 0;
+            longitude = 0;
+            aircraftId = null;
+            aircraftType = null;
+        }
+
+        /**
+         * Build traffic from the values
+         *
+         * @param now when the message arrived, in milliseconds
+         */
+        AirMapTraffic toTraffic(long now) {
+            AirMapTrafficProperties properties = new AirMapTrafficProperties();
+            properties.setAircraftId(aircraftId);
+            properties.setAircraftType(aircraftType);
+            Coordinate coordinate = new Coordinate(latitude, longitude);
+            return new AirMapTraffic()
+                    .setId(id)
+                    .setProperties(properties)
+                    .setDirection(direction)
+                    .setAltitudeFt(altitude)
+                    .setGroundSpeedKt(groundSpeed)
+                    .setTrueHeading(trueHeading)
+                    .setTimestamp(new Date(timestamp))
+                    .setRecordedTime(new Date(recordedTime * 1000)) //recorded time comes back in seconds not millis
+                    .setCoordinate(coordinate)
+                    .setInitialCoordinate(coordinate)
+                    .setIncomingTime(new Date(now));
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package com.airmap.airmapsdk.networking.services;
+
+import com.airmap.airmapsdk.models.Coordinate;
+import com.airmap.airmapsdk.models.traffic.AirMapTraffic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Spatial index over traffic: a uniform grid of {@link #CELL} degree cells, so that a query only
+ * looks at the targets in the cells around it rather than at every target. Positions and
+ * altitudes are copied in when traffic is indexed, so a target has to be indexed again whenever
+ * it moves.
+ *
+ * Distances are measured on a flat earth around the query point, which is accurate to well under
+ * a percent over the few tens of kilometers traffic is tracked for.
+ *
+ * Cells are kept in an open addressing table keyed on the primitive cell number, with each cell's
+ * targets linked through their entries, so indexing a target allocates nothing once it is known.
+ */
+class TrafficIndex {
+
+    static final double CELL = 0.01; //about 1.1 km north to south
+    static final double METERS_PER_DEGREE = 111320;
+
+    private static final int ROWS = (int) Math.round(180 / CELL);
+    private static final int COLUMNS = (int) Math.round(360 / CELL);
+
+    // how far out nearest() searches ring by ring, about 70 km, before it scans every target
+    // instead; past this the empty cells cost more to look up than the targets do to measure
+    static final int MAX_RINGS = 64;
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final CellTable cells = new CellTable();
+
+    /**
+     * Add traffic, or move it to its current coordinate and altitude
+     */
+    synchronized void update(AirMapTraffic traffic) {
+        Coordinate coordinate = traffic.getCoordinate();
+        if (coordinate == null) {
+            return;
+        }
+        double latitude = coordinate.getLatitude();
+        double longitude = coordinate.getLongitude();
+        long cell = cell(row(latitude), column(longitude));
+
+        Entry entry = entries.get(traffic.getId());
+        boolean moved = entry == null || entry.cell != cell;
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(traffic.getId(), entry);
+        } else if (moved) {
+            cells.remove(entry);
+        }
+        entry.traffic = traffic;
+        entry.latitude = latitude;
+        entry.longitude = longitude;
+        entry.altitude = traffic.getAltitudeFt();
+        if (!moved) {
+            return;
+        }
+        entry.cell = cell;
+        cells.add(entry);
+    }
+
+    /**
+     * Remove traffic, unless it has since been replaced by newer traffic with the same ID
+     */
+    synchronized void remove(AirMapTraffic traffic) {
+        Entry entry = entries.get(traffic.getId());
+        if (entry != null && entry.traffic == traffic) {
+            entries.remove(traffic.getId());
+            cells.remove(entry);
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        cells.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * All traffic within a distance of a coordinate and inside an altitude band
+     *
+     * @param coordinate   the center of the search
+     * @param radius       in meters
+     * @param minAltitude  the lowest altitude, in feet
+     * @param maxAltitude  the highest altitude, in feet
+     * @return the traffic found, in no particular order
+     */
+    synchronized List<AirMapTraffic> within(Coordinate coordinate, double radius, double minAltitude, double maxAltitude) {
+        List<AirMapTraffic> found = new ArrayList<>();
+        if (entries.isEmpty()) {
+            return found;
+        }
+        double latitude = coordinate.getLatitude();
+        double longitude = coordinate.getLongitude();
+        double scale = longitudeScale(latitude);
+        double radiusSquared = radius * radius;
+
+        int rowSpan = (int) Math.ceil(radius / METERS_PER_DEGREE / CELL);
+        int columnSpan = (int) Math.min((COLUMNS - 1) / 2, Math.ceil(radius / (METERS_PER_DEGREE * scale) / CELL));
+        int centerRow = row(latitude);
+        int centerColumn = column(longitude);
+        for (int row = Math.max(0, centerRow - rowSpan); row <= Math.min(ROWS - 1, centerRow + rowSpan); row++) {
+            for (int c = centerColumn - columnSpan; c <= centerColumn + columnSpan; c++) {
+                for (Entry entry = cells.get(cell(row, wrap(c))); entry != null; entry = entry.next) {
+                    if (entry.altitude >= minAltitude && entry.altitude <= maxAltitude
+                            && distanceSquared(entry, latitude, longitude, scale) <= radiusSquared) {
+                        found.add(entry.traffic);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * The traffic closest to a coordinate, searching outwards one ring of cells at a time until
+     * no unsearched cell can hold anything closer. Traffic that is sparse or far away is found
+     * by measuring every target once {@link #MAX_RINGS} rings have been searched.
+     *
+     * @param coordinate the center of the search
+     * @param count      the most traffic to return
+     * @return the traffic found, closest first
+     */
+    synchronized List<AirMapTraffic> nearest(Coordinate coordinate, int count) {
+        int limit = Math.min(count, entries.size());
+        List<AirMapTraffic> found = new ArrayList<>(Math.max(0, limit));
+        if (limit <= 0) {
+            return found;
+        }
+        double latitude = coordinate.getLatitude();
+        double longitude = coordinate.getLongitude();
+        double scale = longitudeScale(latitude);
+        int centerRow = row(latitude);
+        int centerColumn = column(longitude);
+
+        // the closest so far, kept sorted by distance
+        Entry[] best = new Entry[limit];
+        double[] distances = new double[limit];
+        int size = 0;
+        int seen = 0;
+        boolean complete = false;
+        for (int ring = 0; ; ring++) {
+            // anything in this ring or beyond is at least this far away, as the search point may
+            // be anywhere within its own cell
+            double bound = Math.max(0, ring - 1) * CELL * METERS_PER_DEGREE * scale;
+            if (seen == entries.size() || (size == limit && bound * bound > distances[size - 1])) {
+                complete = true;
+                break;
+            }
+            if (ring > MAX_RINGS) {
+                break;
+            }
+            for (int row = centerRow - ring; row <= centerRow + ring; row++) {
+                if (row < 0 || row >= ROWS) {
+                    continue;
+                }
+                boolean edge = row == centerRow - ring || row == centerRow + ring;
+                int step = edge || ring == 0 ? 1 : 2 * ring;
+                for (int c = centerColumn - ring; c <= centerColumn + ring; c += step) {
+                    for (Entry entry = cells.get(cell(row, wrap(c))); entry != null; entry = entry.next) {
+                        seen++;
+                        size = insert(best, distances, size, entry, distanceSquared(entry, latitude, longitude, scale));
+                    }
+                }
+            }
+        }
+        if (!complete) {
+            size = 0;
+            for (Entry entry : entries.values()) {
+                size = insert(best, distances, size, entry, distanceSquared(entry, latitude, longitude, scale));
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            found.add(best[i].traffic);
+        }
+        return found;
+    }
+
+    //adds an entry to the closest so far if it is closer than the farthest of them, returning the new size
+    private static int insert(Entry[] best, double[] distances, int size, Entry entry, double distance) {
+        int limit = best.length;
+        if (size == limit && distance >= distances[size - 1]) {
+            return size;
+        }
+        int j = size < limit ? size++ : size - 1;
+        while (j > 0 && distances[j - 1] > distance) {
+            best[j] = best[j - 1];
+            distances[j] = distances[j - 1];
+            j--;
+        }
+        best[j] = entry;
+        distances[j] = distance;
+        return size;
+    }
+
+    private static double distanceSquared(Entry entry, double latitude, double longitude, double scale) {
+        double north = (entry.latitude - latitude) * METERS_PER_DEGREE;
+        double east = Math.IEEEremainder(entry.longitude - longitude, 360) * METERS_PER_DEGREE * scale;
+        return north * north + east * east;
+    }
+
+    //meters per degree of longitude, relative to a degree of latitude; kept away from zero at the poles
+    private static double longitudeScale(double latitude) {
+        return Math.max(0.01, Math.cos(Math.toRadians(latitude)));
+    }
+
+    private static int row(double latitude) {
+        return Math.max(0, Math.min(ROWS - 1, (int) Math.floor((latitude + 90) / CELL)));
+    }
+
+    private static int column(double longitude) {
+        return wrap((int) Math.floor((longitude + 180) / CELL));
+    }
+
+    private static int wrap(int column) {
+        return ((column % COLUMNS) + COLUMNS) % COLUMNS;
+    }
+
+    private static long cell(int row, int column) {
+        return (long) row * COLUMNS + column;
+    }
+
+    private static class Entry {
+        AirMapTraffic traffic;
+        double latitude;
+        double longitude;
+        double altitude;
+        long cell;
+        Entry previous;
+        Entry next;
+    }
+
+    /**
+     * Map from a cell number to the first entry in it, with linear probing over parallel arrays.
+     * Cell numbers are never negative, so a negative key marks an empty slot.
+     */
+    private static class CellTable {
+
+        private static final long EMPTY = -1;
+        private static final int INITIAL_CAPACITY = 64;
+
+        private long[] keys = newKeys(INITIAL_CAPACITY);
+        private Entry[] heads = new Entry[INITIAL_CAPACITY];
+        private int size;
+
+        Entry get(long cell) {
+            int mask = keys.length - 1;
+            for (int i = slot(cell, mask); keys[i] != EMPTY; i = (i + 1) & mask) {
+                if (keys[i] == cell) {
+                    return heads[i];
+                }
+            }
+            return null;
+        }
+
+        //links an entry in at the head of its cell
+        void add(Entry entry) {
+            if (2 * (size + 1) > keys.length) {
+                resize(2 * keys.length);
+            }
+            int mask = keys.length - 1;
+            int i = slot(entry.cell, mask);
+            while (keys[i] != EMPTY && keys[i] != entry.cell) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == EMPTY) {
+                keys[i] = entry.cell;
+                size++;
+            }
+            entry.previous = null;
+            entry.next = heads[i];
+            if (entry.next != null) {
+                entry.next.previous = entry;
+            }
+            heads[i] = entry;
+        }
+
+        //unlinks an entry from its cell, dropping the cell once it is empty
+        void remove(Entry entry) {
+            if (entry.previous != null) {
+                entry.previous.next = entry.next;
+            }
+            if (entry.next != null) {
+                entry.next.previous = entry.previous;
+            }
+            Entry previous = entry.previous;
+            Entry next = entry.next;
+            entry.previous = null;
+            entry.next = null;
+            if (previous != null) {
+                return;
+            }
+            int mask = keys.length - 1;
+            int i = slot(entry.cell, mask);
+            while (keys[i] != entry.cell) {
+                if (keys[i] == EMPTY) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            if (next != null) {
+                heads[i] = next;
+                return;
+            }
+            // shift later keys in the same probe run back, so that no lookup stops short at the gap
+            size--;
+            int gap = i;
+            for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+                int home = slot(keys[j], mask);
+                if (((j - home) & mask) >= ((j - gap) & mask)) {
+                    keys[gap] = keys[j];
+                    heads[gap] = heads[j];
+                    gap = j;
+                }
+            }
+            keys[gap] = EMPTY;
+            heads[gap] = null;
+        }
+
+        void clear() {
+            keys = newKeys(INITIAL_CAPACITY);
+            heads = new Entry[INITIAL_CAPACITY];
+            size = 0;
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            Entry[] oldHeads = heads;
+            keys = newKeys(capacity);
+            heads = new Entry[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    int j = slot(oldKeys[i], mask);
+                    while (keys[j] != EMPTY) {
+                        j = (j + 1) & mask;
+                    }
+                    keys[j] = oldKeys[i];
+                    heads[j] = oldHeads[i];
+                }
+            }
+        }
+
+        private static int slot(long cell, int mask) {
+            long hash = cell * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+
+        private static long[] newKeys(int capacity) {
+            long[] keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            return keys;
+        }
+    }
+}
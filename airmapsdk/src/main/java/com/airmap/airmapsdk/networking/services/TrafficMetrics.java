@@ -0,0 +1,80 @@
+package com.airmap.airmapsdk.networking.services;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and timings for the connection of a TrafficService. Everything is updated atomically,
+ * so it can be read from any thread while traffic is received.
+ */
+public class TrafficMetrics {
+
+    final AtomicLong connectionsLost = new AtomicLong();
+    final AtomicLong reconnectAttempts = new AtomicLong();
+    final AtomicLong reconnects = new AtomicLong();
+    final AtomicLong messages = new AtomicLong();
+
+    final TelemetryMetrics.Histogram timeToFirstMessage = new TelemetryMetrics.Histogram();
+    final TelemetryMetrics.Histogram outage = new TelemetryMetrics.Histogram();
+
+    TrafficMetrics() {
+    }
+
+    /**
+     * @return the number of times the connection to the server dropped without being disconnected
+     */
+    public long getConnectionsLost() {
+        return connectionsLost.get();
+    }
+
+    /**
+     * @return the number of times the service tried to reconnect, including failed attempts
+     */
+    public long getReconnectAttempts() {
+        return reconnectAttempts.get();
+    }
+
+    /**
+     * @return the number of times the service reconnected after losing the connection
+     */
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    /**
+     * @return the number of traffic messages received
+     */
+    public long getMessages() {
+        return messages.get();
+    }
+
+    /**
+     * @return how long after reconnecting the first traffic message arrived, in milliseconds
+     */
+    public TelemetryMetrics.Histogram getTimeToFirstMessage() {
+        return timeToFirstMessage;
+    }
+
+    /**
+     * @return how long from losing the connection until the first traffic message after
+     * reconnecting, in milliseconds
+     */
+    public TelemetryMetrics.Histogram getOutage() {
+        return outage;
+    }
+
+    /**
+     * @return every metric by name, e.g. for reporting
+     */
+    public Map<String, String> toMap() {
+        Map<String, String> values = new LinkedHashMap<>();
+        values.put("traffic_connections_lost", String.valueOf(getConnectionsLost()));
+        values.put("traffic_reconnect_attempts", String.valueOf(getReconnectAttempts()));
+        values.put("traffic_reconnects", String.valueOf(getReconnects()));
+        values.put("traffic_messages", String.valueOf(getMessages()));
+        values.put("traffic_time_to_first_message", timeToFirstMessage.toString());
+        values.put("traffic_outage", outage.toString());
+        return values;
+    }
+}
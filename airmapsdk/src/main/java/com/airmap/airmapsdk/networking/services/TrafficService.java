@@ -3,34 +3,42 @@ package com.airmap.airmapsdk.networking.services;
 import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
+import android.view.Choreographer;
 
 import com.airmap.airmapsdk.AirMapException;
 import com.airmap.airmapsdk.models.Coordinate;
 import com.airmap.airmapsdk.models.flight.AirMapFlight;
 import com.airmap.airmapsdk.models.traffic.AirMapTraffic;
+import com.airmap.airmapsdk.models.traffic.AirMapTrafficConflict;
 import com.airmap.airmapsdk.networking.callbacks.AirMapCallback;
+import com.airmap.airmapsdk.networking.callbacks.AirMapTrafficConflictListener;
 import com.airmap.airmapsdk.networking.callbacks.AirMapTrafficListener;
 
 import org.eclipse.paho.android.service.MqttAndroidClient;
 import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
 import org.eclipse.paho.client.mqttv3.IMqttToken;
-import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
+import rx.Scheduler;
+import rx.functions.Action0;
+import rx.schedulers.Schedulers;
 import timber.log.Timber;
 
 @SuppressWarnings("unused")
@@ -40,16 +48,38 @@ public class TrafficService extends BaseService {
         Connecting, Connected, Disconnected
     }
 
-    private MqttAndroidClient client;
+    private static final long RECONNECT_DELAY = 1000; //The backoff window for the first reconnect
+    private static final long MAX_RECONNECT_DELAY = 2 * 60 * 1000;
+    private static final int RECONNECTS_WITH_CACHED_FLIGHT = 3; //Before asking for the current flight again
+
+    private IMqttAsyncClient client;
     private MqttConnectOptions options;
     private List<AirMapTrafficListener> listeners;
-    private List<AirMapTraffic> allTraffic;
-    private ConnectionState connectionState;
+    private TrafficStore allTraffic;
+    private TrafficDecoder decoder;
+    private volatile boolean logMessages;
+    private TrafficConflictDetector conflictDetector;
+    private List<AirMapTrafficConflictListener> conflictListeners;
+    private OwnshipListener ownshipListener;
+    private Set<String> conflicting; //IDs of the traffic last notified as conflicts
+    private volatile ConnectionState connectionState;
     private CurrentFlightAirMapCallback currentFlightCallback;
     private IMqttActionListener actionListener;
     private String flightId;
     private boolean checkForUpdatedFlight;
     private Handler handler;
+    private TrafficCoalescer coalescer;
+    private volatile long dispatchInterval;
+    private Runnable dispatch;
+    private Choreographer.FrameCallback frameCallback;
+    private Scheduler.Worker housekeeping;
+    private Scheduler.Worker reconnect;
+    private Backoff backoff;
+    private volatile boolean stayConnected; //Between connect() and disconnect()
+    private volatile boolean reconnecting;
+    private TrafficMetrics metrics;
+    private volatile long lostAt;
+    private volatile long reconnectedAt; //Until the first message after reconnecting
 
 
     /**
@@ -58,49 +88,49 @@ public class TrafficService extends BaseService {
      * @param context An Android Context
      */
     public TrafficService(Context context) {
-        String clientId = UUID.randomUUID().toString();
-        client = new MqttAndroidClient(context, mqttBaseUrl, clientId);
+        this(new MqttAndroidClient(context, mqttBaseUrl, UUID.randomUUID().toString()), AirMap.getInstance().getAuthToken());
+    }
+
+    /**
+     * Initialize a TrafficService with any MQTT client, e.g. one connected to a local broker
+     *
+     * @param client    The client to receive traffic with
+     * @param authToken The auth token to connect with
+     */
+    TrafficService(IMqttAsyncClient client, String authToken) {
+        this.client = client;
         client.setCallback(new MqttEventCallback());
         options = new MqttConnectOptions();
         options.setCleanSession(true);
         options.setKeepAliveInterval(15);
-        options.setPassword(AirMap.getInstance().getAuthToken().toCharArray());
+        options.setPassword(authToken.toCharArray());
         connectionState = ConnectionState.Disconnected;
-        allTraffic = new CopyOnWriteArrayList<>(); //Thread safe list
+        allTraffic = new TrafficStore();
+        decoder = new TrafficDecoder();
         listeners = new ArrayList<>();
+        conflictDetector = new TrafficConflictDetector(allTraffic);
+        conflictListeners = new CopyOnWriteArrayList<>();
+        ownshipListener = new OwnshipListener();
+        conflicting = new HashSet<>();
         checkForUpdatedFlight = false;
         currentFlightCallback = new CurrentFlightAirMapCallback();
         actionListener = new MqttActionCallback();
-        new Timer().scheduleAtFixedRate(new TimerTask() {
+        handler = new Handler(Looper.getMainLooper());
+        backoff = new Backoff(RECONNECT_DELAY, MAX_RECONNECT_DELAY, new Random());
+        metrics = new TrafficMetrics();
+        coalescer = new TrafficCoalescer();
+        dispatch = new Runnable() {
             @Override
             public void run() {
-                clearOldTraffic();
-                updateTrafficProjections();
+                dispatch();
             }
-        }, 0, 1000); //Clear old traffic every second
-
-        new Timer().scheduleAtFixedRate(new TimerTask() {
+        };
+        frameCallback = new Choreographer.FrameCallback() {
             @Override
-            public void run() {
-                if (checkForUpdatedFlight) {
-                    AirMap.getCurrentFlight(new AirMapCallback<AirMapFlight>() {
-                        @Override
-                        public void onSuccess(AirMapFlight response) {
-                            if (response != null && !response.getFlightId().equals(flightId)) {
-                                connect();
-                            }
-                        }
-
-                        @Override
-                        public void onError(AirMapException e) {
-                            e.printStackTrace();
-                        }
-                    });
-                }
+            public void doFrame(long frameTimeNanos) {
+                dispatch();
             }
-        }, 0, 1000 * 60); //Update current flight every minute
-
-        handler = new Handler(Looper.getMainLooper());
+        };
     }
 
     /**
@@ -116,14 +146,21 @@ public class TrafficService extends BaseService {
             return;
         }
         connectionState = ConnectionState.Connecting;
+        stayConnected = true;
+        cancelReconnect();
         allTraffic.clear();
-        AirMap.getCurrentFlight(currentFlightCallback);
+        coalescer.clear();
+        requestCurrentFlight();
     }
 
     /**
      * Disconnect from the server and stop receiving updates
      */
     public void disconnect() {
+        stayConnected = false;
+        if (cancelReconnect()) {
+            removeAllTraffic();
+        }
         if (connectionState == ConnectionState.Disconnected || connectionState == ConnectionState.Connecting || !client.isConnected()) {
             return;
         }
@@ -147,12 +184,23 @@ public class TrafficService extends BaseService {
     public void addListener(AirMapTrafficListener listener) {
         if (listeners.isEmpty()) {
             listeners.add(listener);
-            connect();
+            if (connectionState == ConnectionState.Disconnected) {
+                connect();
+            }
         } else if (!listeners.contains(listener)) {
             listeners.add(listener);
         }
     }
 
+    /**
+     * Stop notifying a listener of traffic events
+     *
+     * @param listener A AirMapTrafficListener that was added
+     */
+    public void removeListener(AirMapTrafficListener listener) {
+        listeners.remove(listener);
+    }
+
     /**
      * Clear all the listeners
      */
@@ -169,14 +217,163 @@ public class TrafficService extends BaseService {
         return client != null && client.isConnected();
     }
 
+    /**
+     * Log every traffic message received. Messages arrive many times a second when there is a lot
+     * of traffic, so this is off by default even when logging is enabled
+     *
+     * @param logMessages whether to log messages
+     */
+    public void setLogMessages(boolean logMessages) {
+        this.logMessages = logMessages;
+    }
+
+    /**
+     * @return the connection metrics, e.g. how often the connection to the server was lost and how
+     * long it took to get traffic again
+     */
+    public TrafficMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Set how often the listeners are notified. Everything that changes in between is delivered
+     * at once, so traffic added and removed in between is never seen and traffic updated several
+     * times is only updated once. By default the listeners are notified at most once per frame
+     *
+     * @param interval The time between notifications in milliseconds, or 0 to notify once per frame
+     */
+    public void setDispatchInterval(long interval) {
+        this.dispatchInterval = interval;
+    }
+
+    /**
+     * Set how far traffic has to move before the listeners are notified that it was updated.
+     * Smaller moves are only delivered once they add up to the threshold, or when the traffic
+     * changes in some other way, e.g. becomes an alert. The default is 10 meters
+     *
+     * @param threshold The distance in meters, or 0 to deliver every update
+     */
+    public void setUpdateThreshold(double threshold) {
+        coalescer.setThreshold(threshold);
+    }
+
+    /**
+     * Add a listener to be notified of traffic on a collision course with ownship. Conflicts are
+     * found on the device each time a position is sent through the {@link TelemetryService},
+     * without waiting for the traffic alert channel, and the listeners are notified whenever the
+     * traffic in conflict changes
+     *
+     * @param listener A AirMapTrafficConflictListener which will be notified on the main thread
+     */
+    public synchronized void addConflictListener(AirMapTrafficConflictListener listener) {
+        if (conflictListeners.contains(listener)) {
+            return;
+        }
+        conflictListeners.add(listener);
+        if (conflictListeners.size() == 1) {
+            ownshipListener.start();
+            AirMap.getTelemetryService().addPositionListener(ownshipListener);
+        }
+    }
+
+    public synchronized void removeConflictListener(AirMapTrafficConflictListener listener) {
+        if (conflictListeners.remove(listener) && conflictListeners.isEmpty()) {
+            AirMap.getTelemetryService().removePositionListener(ownshipListener);
+            ownshipListener.stop();
+            conflicting.clear();
+        }
+    }
+
+    /**
+     * Set what counts as a conflict. By default that is coming within 1000 meters in the next 30
+     * seconds, like the traffic alert channel, and within 500 feet vertically
+     *
+     * @param lookahead            How far ahead to look, in seconds
+     * @param horizontalSeparation The closest traffic may come horizontally, in meters
+     * @param verticalSeparation   The closest traffic may come vertically, in feet
+     */
+    public void setConflictThresholds(double lookahead, double horizontalSeparation, double verticalSeparation) {
+        conflictDetector.setThresholds(lookahead, horizontalSeparation, verticalSeparation);
+    }
+
+    /**
+     * Find the traffic near a coordinate, e.g. the traffic close enough to ownship to alert on
+     *
+     * @param coordinate  The center of the search
+     * @param radius      The distance from the coordinate to search, in meters
+     * @param minAltitude The lowest altitude to include, in feet
+     * @param maxAltitude The highest altitude to include, in feet
+     * @return the traffic within the radius and altitude band, in no particular order
+     */
+    public List<AirMapTraffic> getTrafficWithin(Coordinate coordinate, double radius, double minAltitude, double maxAltitude) {
+        return allTraffic.within(coordinate, radius, minAltitude, maxAltitude);
+    }
+
+    /**
+     * Get all the traffic being tracked, e.g. to draw it. The list can't be modified, and doesn't
+     * change as traffic is added or removed
+     *
+     * @return the traffic, in no particular order
+     */
+    public List<AirMapTraffic> getAllTraffic() {
+        return Collections.unmodifiableList(Arrays.asList(allTraffic.snapshot()));
+    }
+
+    /**
+     * Find the traffic closest to a coordinate
+     *
+     * @param coordinate The center of the search
+     * @param count      The most traffic to return
+     * @return up to count traffic, closest first
+     */
+    public List<AirMapTraffic> getNearestTraffic(Coordinate coordinate, int count) {
+        return allTraffic.nearest(coordinate, count);
+    }
+
+    /**
+     * Get the recent reported positions of traffic, e.g. to draw its trail or estimate its climb
+     * rate. The track keeps updating until the traffic is removed
+     *
+     * @param trafficId The ID of the traffic
+     * @return the track, or null if the traffic isn't tracked
+     */
+    public TrafficTrack getTrack(String trafficId) {
+        return allTraffic.track(trafficId);
+    }
+
+    /**
+     * Set how many reported positions to keep per traffic. Traffic already tracked keeps its
+     * capacity. The default is 60, about a minute of reports
+     *
+     * @param capacity The number of positions, or 0 to not keep tracks
+     */
+    public void setTrackCapacity(int capacity) {
+        allTraffic.setTrackCapacity(capacity);
+    }
+
     /**
      * When connected, subscribe to the necessary channels to get properly notified
      */
     private void onConnect() {
+        if (!stayConnected) { //Disconnected while reconnecting
+            try {
+                client.disconnect();
+            } catch (MqttException e) {
+                Timber.e(e, "Error disconnecting");
+            }
+            onDisconnect(false);
+            return;
+        }
         connectionState = ConnectionState.Connected;
         checkForUpdatedFlight = true;
-        subscribe(String.format(trafficAlertChannel, flightId));
-        subscribe(String.format(situationalAwarenessChannel, flightId));
+        if (reconnecting) {
+            reconnecting = false;
+            metrics.reconnects.incrementAndGet();
+            reconnectedAt = System.currentTimeMillis();
+        }
+        backoff.reset();
+        startHousekeeping();
+        subscribe(String.format(trafficAlertChannel, flightId), String.format(situationalAwarenessChannel, flightId));
     }
 
     /**
@@ -189,95 +386,190 @@ public class TrafficService extends BaseService {
     private void onDisconnect(boolean retry) {
         connectionState = ConnectionState.Disconnected;
         checkForUpdatedFlight = false;
-        if (retry) {
-            connect(); //Reconnect
+        stopHousekeepingIfIdle();
+        if (retry && stayConnected) {
+            scheduleReconnect();
+        } else {
+            reconnecting = false;
         }
     }
 
     /**
-     * Update all the traffic projections based on their heading and ground speed
+     * Try to connect again after a backoff delay, keeping the traffic already received until it
+     * expires or is updated
      */
-    private void updateTrafficProjections() {
-        List<AirMapTraffic> updated = new ArrayList<>();
-        for (AirMapTraffic traffic : allTraffic) {
-            if (traffic.getGroundSpeedKt() > -1 && traffic.getTrueHeading() > -1) {
-                allTraffic.remove(traffic);
-                Coordinate projected = projectedCoordinate(traffic);
-                traffic.setCoordinate(projected);
-                traffic.setShowAlert(false);
-                allTraffic.add(traffic);
-                updated.add(traffic);
+    private synchronized void scheduleReconnect() {
+        reconnecting = true;
+        long delay = backoff.next();
+        Timber.i("Reconnecting to Traffic Service in %d ms", delay);
+        if (reconnect == null) {
+            reconnect = Schedulers.computation().createWorker();
+        }
+        reconnect.schedule(new Action0() {
+            @Override
+            public void call() {
+                reconnect();
             }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return whether a reconnect was pending
+     */
+    private synchronized boolean cancelReconnect() {
+        if (reconnect != null) {
+            reconnect.unsubscribe();
+            reconnect = null;
+        }
+        boolean wasReconnecting = reconnecting;
+        reconnecting = false;
+        return wasReconnecting;
+    }
+
+    /**
+     * Connect with the flight that was connected before, without asking for the current flight
+     * again. That is only done if connecting keeps failing, e.g. because the flight has ended
+     */
+    private void reconnect() {
+        synchronized (this) {
+            if (!stayConnected || !reconnecting || connectionState != ConnectionState.Disconnected) {
+                return;
+            }
+            connectionState = ConnectionState.Connecting;
+        }
+        metrics.reconnectAttempts.incrementAndGet();
+        if (flightId != null && backoff.getAttempts() <= RECONNECTS_WITH_CACHED_FLIGHT) {
+            connectClient();
+        } else {
+            requestCurrentFlight();
         }
-        notifyUpdated(updated);
     }
 
     /**
-     * Get a projected coordinate from an AirMapTraffic's bearing and ground speed
+     * Ask for the current flight, to connect to its traffic channels
+     */
+    void requestCurrentFlight() {
+        AirMap.getCurrentFlight(currentFlightCallback);
+    }
+
+    /**
+     * Connect to the traffic channels of the current flight. Without one, e.g. once the flight has
+     * ended, this is handled like failing to get it, so the service doesn't stay connecting
      *
-     * @param traffic The traffic whose coordinate to update
-     * @return the projected location of the traffic
+     * @param flight The current flight, or null if there is none
      */
-    private Coordinate projectedCoordinate(AirMapTraffic traffic) {
-        long elapsedTime = (new Date().getTime() - traffic.getRecordedTime().getTime()) / 1000; //elapsed time between now and traffic's time
-        double metersPerSecond = traffic.getGroundSpeedKt() * 0.514444;
-        double distanceTraveled = metersPerSecond * elapsedTime;
-        //Use initial coordinate for calculation to avoid improper calculation
-        return getCoordinateFromBearingAndDistance(traffic.getInitialCoordinate(), traffic.getTrueHeading(), distanceTraveled);
+    void onCurrentFlight(AirMapFlight flight) {
+        if (flight != null) {
+            connectToFlight(flight.getFlightId());
+        } else {
+            Timber.i("No current flight to receive traffic for");
+            onDisconnect(reconnecting);
+        }
     }
 
     /**
-     * Get a projected coordinate from a starting Coordinate, a bearing, and a distance traveled
+     * Connect to the traffic channels of a flight, without asking for the current flight
      *
-     * @param c        The starting coordinate
-     * @param bearing  The bearing of the traffic
-     * @param distance The distance the traffic has traveled
-     * @return the projected location of the traffic
+     * @param flightId The ID of the flight
      */
-    private Coordinate getCoordinateFromBearingAndDistance(Coordinate c, double bearing, double distance) {
-        final int earthRadius = 6371000;
-        double angularDistance = distance / earthRadius;
-        double brng = Math.toRadians(bearing);
-        double lat1 = Math.toRadians(c.getLatitude());
-        double lng1 = Math.toRadians(c.getLongitude());
-        double lat2 = Math.asin(Math.sin(lat1) * Math.cos(angularDistance) + Math.cos(lat1) * Math.sin(angularDistance) * Math.cos(brng));
+    void connect(String flightId) {
+        if (connectionState == ConnectionState.Connecting) {
+            return;
+        }
+        connectionState = ConnectionState.Connecting;
+        stayConnected = true;
+        cancelReconnect();
+        connectToFlight(flightId);
+    }
 
-        double lng2 = lng1 + Math.atan2(Math.sin(brng) * Math.sin(angularDistance) * Math.cos(lat1), Math.cos(angularDistance) - Math.sin(lat1) * Math.sin(lat2));
+    private void connectToFlight(String flightId) {
+        this.flightId = flightId;
+        options.setUserName(flightId);
+        connectClient();
+    }
 
-        lng2 = (lng2 + 3 * Math.PI) % (2 * Math.PI) - Math.PI;
-        return new Coordinate(Math.toDegrees(lat2), Math.toDegrees(lng2));
+    private void connectClient() {
+        Timber.i("Connecting to MQTT server");
+        try {
+            client.connect(options, ConnectionState.Connecting, actionListener);
+        } catch (MqttException e) {
+            onDisconnect(reconnecting);
+        }
+    }
+
+    /**
+     * Start expiring and projecting traffic every second, and checking for a new current flight
+     * every minute, on a computation thread shared with the rest of the SDK
+     */
+    private synchronized void startHousekeeping() {
+        if (housekeeping != null) {
+            return;
+        }
+        housekeeping = Schedulers.computation().createWorker();
+        housekeeping.schedulePeriodically(new Action0() {
+            @Override
+            public void call() {
+                clearOldTraffic();
+                updateTrafficProjections();
+                stopHousekeepingIfIdle();
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+        housekeeping.schedulePeriodically(new Action0() {
+            @Override
+            public void call() {
+                if (checkForUpdatedFlight) {
+                    AirMap.getCurrentFlight(new AirMapCallback<AirMapFlight>() {
+                        @Override
+                        public void onSuccess(AirMapFlight response) {
+                            if (response != null && !response.getFlightId().equals(flightId)) {
+                                connect();
+                            }
+                        }
+
+                        @Override
+                        public void onError(AirMapException e) {
+                            e.printStackTrace();
+                        }
+                    });
+                }
+            }
+        }, 1, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Stop once disconnected, but not until the last traffic has expired
+     */
+    private synchronized void stopHousekeepingIfIdle() {
+        if (housekeeping != null && connectionState == ConnectionState.Disconnected && allTraffic.size() == 0) {
+            housekeeping.unsubscribe();
+            housekeeping = null;
+        }
+    }
+
+    /**
+     * Update all the traffic projections based on their heading and ground speed
+     */
+    private void updateTrafficProjections() {
+        notifyUpdated(allTraffic.project(System.currentTimeMillis()));
     }
 
     /**
      * Called when a traffic alert is received
      *
-     * @param json        The JSON representation of an array of AirMapTraffic
+     * @param payload     The JSON representation of an array of AirMapTraffic
      * @param trafficType The type of traffic (Alert or Situational Awareness)
      */
-    private void receivedTraffic(String json, AirMapTraffic.TrafficType trafficType) {
-        List<AirMapTraffic> updated = new ArrayList<>();
-        List<AirMapTraffic> added = new ArrayList<>();
-        JSONArray trafficJsonArray;
+    private void receivedTraffic(byte[] payload, AirMapTraffic.TrafficType trafficType) {
+        List<TrafficDecoder.Report> reports;
         try {
-            trafficJsonArray = new JSONObject(json).getJSONArray("traffic");
-        } catch (JSONException e) {
-            e.printStackTrace();
+            reports = decoder.decode(payload);
+        } catch (IOException e) {
+            Timber.e(e, "Error decoding traffic");
             return;
         }
-        for (int i = 0; i < trafficJsonArray.length(); i++) {
-            AirMapTraffic temp = new AirMapTraffic(trafficJsonArray.optJSONObject(i));
-            temp.setTrafficType(trafficType);
-            Coordinate projected = projectedCoordinate(temp);
-            temp.setCoordinate(projected);
-            int index = allTraffic.indexOf(temp);
-            if (index != -1) {
-                allTraffic.set(index, temp);
-                updated.add(temp);
-            } else {
-                allTraffic.add(temp);
-                added.add(temp);
-            }
-        }
+        List<AirMapTraffic> updated = new ArrayList<>();
+        List<AirMapTraffic> added = new ArrayList<>();
+        allTraffic.apply(reports, trafficType, System.currentTimeMillis(), added, updated);
         notifyUpdated(updated);
         notifyAdded(added);
     }
@@ -286,27 +578,22 @@ public class TrafficService extends BaseService {
      * Get rid of traffic that is no longer valid (the traffic is expired)
      */
     private void clearOldTraffic() {
-        List<AirMapTraffic> oldAllTraffic = new ArrayList<>();
-        for (AirMapTraffic traffic : allTraffic) {
-            if (trafficExpired(traffic)) {
-                oldAllTraffic.add(traffic);
-                allTraffic.remove(traffic);
-            }
-        }
-        notifyRemoved(oldAllTraffic);
+        notifyRemoved(allTraffic.expire(System.currentTimeMillis()));
     }
 
     /**
-     * Subscribe to the specified channel
+     * Subscribe to the specified channels
      *
-     * @param channel The channel to subscribe to
+     * @param channels The channels to subscribe to, in one request
      */
-    private void subscribe(final String channel) {
+    private void subscribe(final String... channels) {
+        int[] qos = new int[channels.length];
+        Arrays.fill(qos, 1);
         try {
-            client.subscribe(channel, 1, null, new IMqttActionListener() {
+            client.subscribe(channels, qos, null, new IMqttActionListener() {
                 @Override
                 public void onSuccess(IMqttToken asyncActionToken) {
-                    Timber.v("Success subscribing to %s", channel);
+                    Timber.v("Success subscribing to %s", Arrays.toString(channels));
                 }
 
                 @Override
@@ -324,24 +611,11 @@ public class TrafficService extends BaseService {
         }
     }
 
-    /**
-     * Checks if the traffic is older than the validity interval
-     *
-     * @param traffic the traffic to check the validity of
-     * @return whether the traffic is expired (no longer valid)
-     */
-    private boolean trafficExpired(AirMapTraffic traffic) {
-        int timeInterval = 30;
-        return new Date(traffic.getIncomingTime().getTime() + timeInterval * 1000).before(new Date());
-    }
-
     /**
      * Removes all traffic from the list and notifies the listener
      */
     private void removeAllTraffic() {
-        List<AirMapTraffic> removed = new ArrayList<>(allTraffic);
-        allTraffic.clear();
-        notifyRemoved(removed);
+        notifyRemoved(allTraffic.clear());
     }
 
     /**
@@ -349,21 +623,10 @@ public class TrafficService extends BaseService {
      *
      * @param removed a list of all traffic that was removed
      */
-    private void notifyRemoved(final List<AirMapTraffic> removed) {
-        if (removed == null || removed.isEmpty()) {
-            return;
+    private void notifyRemoved(List<AirMapTraffic> removed) {
+        if (removed != null && coalescer.remove(removed)) {
+            scheduleDispatch();
         }
-
-        handler.post(new Runnable() {
-            @Override
-            public void run() {
-                for (AirMapTrafficListener listener : listeners) {
-                    if (listener != null) {
-                        listener.onRemoveTraffic(removed);
-                    }
-                }
-            }
-        });
     }
 
     /**
@@ -371,45 +634,165 @@ public class TrafficService extends BaseService {
      *
      * @param added a list of all traffic that was added
      */
-    private void notifyAdded(final List<AirMapTraffic> added) {
-        if (added == null || added.isEmpty()) {
-            return;
+    private void notifyAdded(List<AirMapTraffic> added) {
+        if (added != null && coalescer.add(added)) {
+            scheduleDispatch();
         }
+    }
 
-        handler.post(new Runnable() {
-            @Override
-            public void run() {
-                for (AirMapTrafficListener listener : listeners) {
-                    if (listener != null) {
-                        listener.onAddTraffic(added);
-                    }
+    /**
+     * Notify the listeners that traffic has been updated
+     *
+     * @param updated a list of all traffic that was updated
+     */
+    private void notifyUpdated(List<AirMapTraffic> updated) {
+        if (updated != null && coalescer.update(updated)) {
+            scheduleDispatch();
+        }
+    }
+
+    /**
+     * Deliver everything that changes from now until the next frame, or until the dispatch
+     * interval has passed, to the listeners at once
+     */
+    private void scheduleDispatch() {
+        long interval = dispatchInterval;
+        if (interval > 0) {
+            handler.postDelayed(dispatch, interval);
+        } else {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Choreographer.getInstance().postFrameCallback(frameCallback);
                 }
+            });
+        }
+    }
+
+    /**
+     * Deliver the changes since the last dispatch, on the main thread
+     */
+    private void dispatch() {
+        TrafficCoalescer.Diff diff = coalescer.drain();
+        if (diff == null) {
+            return;
+        }
+        for (AirMapTrafficListener listener : listeners) {
+            if (listener == null) {
+                continue;
             }
-        });
+            if (!diff.removed.isEmpty()) {
+                listener.onRemoveTraffic(diff.removed);
+            }
+            if (!diff.added.isEmpty()) {
+                listener.onAddTraffic(diff.added);
+            }
+            if (!diff.updated.isEmpty()) {
+                listener.onUpdateTraffic(diff.updated);
+            }
+        }
     }
 
     /**
-     * Notify the listeners that traffic has been updated
+     * Notify the listeners of the current conflicts when different traffic is in conflict than
+     * last time, including once more when there are none left
      *
-     * @param updated a list of all traffic that was updated
+     * @param conflicts the conflicts, soonest first
      */
-    private void notifyUpdated(final List<AirMapTraffic> updated) {
-        if (updated == null || updated.isEmpty()) {
+    private synchronized void notifyConflicts(final List<AirMapTrafficConflict> conflicts) {
+        if (conflictListeners.isEmpty() || !conflictsChanged(conflicts)) {
             return;
         }
+        conflicting.clear();
+        for (AirMapTrafficConflict conflict : conflicts) {
+            conflicting.add(conflict.getTraffic().getId());
+        }
 
         handler.post(new Runnable() {
             @Override
             public void run() {
-                for (AirMapTrafficListener listener : listeners) {
-                    if (listener != null) {
-                        listener.onUpdateTraffic(updated);
-                    }
+                for (AirMapTrafficConflictListener listener : conflictListeners) {
+                    listener.onTrafficConflicts(conflicts);
                 }
             }
         });
     }
 
+    private boolean conflictsChanged(List<AirMapTrafficConflict> conflicts) {
+        if (conflicts.size() != conflicting.size()) {
+            return true;
+        }
+        for (AirMapTrafficConflict conflict : conflicts) {
+            if (!conflicting.contains(conflict.getTraffic().getId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Takes ownship positions from the thread sending telemetry, and assesses the latest one on a
+     * computation thread. Positions that arrive while an assessment is pending replace the one
+     * waiting, so a fast telemetry rate never queues up assessments
+     */
+    private class OwnshipListener implements TelemetryService.PositionListener {
+
+        private final Action0 assess = new Action0() {
+            @Override
+            public void call() {
+                assess();
+            }
+        };
+        private Scheduler.Worker worker;
+        private double latitude;
+        private double longitude;
+        private double altitudeMSL;
+        private boolean pending;
+
+        synchronized void start() {
+            if (worker == null) {
+                worker = Schedulers.computation().createWorker();
+            }
+        }
+
+        synchronized void stop() {
+            if (worker != null) {
+                worker.unsubscribe();
+                worker = null;
+            }
+            pending = false;
+        }
+
+        @Override
+        public synchronized void onPositionChanged(double latitude, double longitude, double altitudeMSL, double altitudeAGL) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.altitudeMSL = altitudeMSL;
+            if (worker != null && !pending) {
+                pending = true;
+                worker.schedule(assess);
+            }
+        }
+
+        @Override
+        public void onSpeedChanged(double velocityX, double velocityY, double velocityZ) {
+            conflictDetector.setOwnshipVelocity(velocityX, velocityY, velocityZ);
+        }
+
+        private void assess() {
+            double latitude;
+            double longitude;
+            double altitudeMSL;
+            synchronized (this) {
+                pending = false;
+                latitude = this.latitude;
+                longitude = this.longitude;
+                altitudeMSL = this.altitudeMSL;
+            }
+            notifyConflicts(conflictDetector.assess(latitude, longitude, altitudeMSL, System.currentTimeMillis()));
+        }
+    }
+
     private class CurrentFlightAirMapCallback extends AirMapCallback<AirMapFlight> {
 
         /**
@@ -419,16 +802,7 @@ public class TrafficService extends BaseService {
          */
         @Override
         public void onSuccess(AirMapFlight response) {
-            if (response != null) {
-                flightId = response.getFlightId();
-                options.setUserName(flightId);
-                Timber.i("Connecting to MQTT server");
-                try {
-                    client.connect(options, ConnectionState.Connecting, actionListener);
-                } catch (MqttException e) {
-                    onDisconnect(false);
-                }
-            }
+            onCurrentFlight(response);
         }
 
         /**
@@ -438,7 +812,7 @@ public class TrafficService extends BaseService {
          */
         @Override
         public void onError(AirMapException e) {
-            onDisconnect(false);
+            onDisconnect(reconnecting);
         }
     }
 
@@ -463,11 +837,20 @@ public class TrafficService extends BaseService {
         public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
             exception.printStackTrace();
             Timber.e(exception, "Error connecting: %s", exception.getMessage());
-            onDisconnect(false);
+            onDisconnect(reconnecting);
         }
     }
 
-    private class MqttEventCallback implements MqttCallback { //TODO: Look into MqttCallbackExtended
+    private class MqttEventCallback implements MqttCallbackExtended {
+
+        /**
+         * Called when the client has connected. Paho's own automatic reconnect is off, as it
+         * doesn't add jitter or notice a new flight, so this only logs
+         */
+        @Override
+        public void connectComplete(boolean reconnect, String serverURI) {
+            Timber.i("Connected to %s", serverURI);
+        }
 
         /**
          * Called when a message is received from the server
@@ -477,12 +860,21 @@ public class TrafficService extends BaseService {
          */
         @Override
         public void messageArrived(String topic, MqttMessage message) throws Exception {
-            String messageString = message.toString();
-            Timber.v("Got message %s", messageString);
+            if (logMessages) {
+                Timber.v("Got message %s", message.toString());
+            }
+            metrics.messages.incrementAndGet();
+            long reconnected = reconnectedAt;
+            if (reconnected != 0) {
+                reconnectedAt = 0;
+                long now = System.currentTimeMillis();
+                metrics.timeToFirstMessage.record(now - reconnected);
+                metrics.outage.record(now - lostAt);
+            }
             if (topic.contains("/alert/")) {
-                receivedTraffic(messageString, AirMapTraffic.TrafficType.Alert);
+                receivedTraffic(message.getPayload(), AirMapTraffic.TrafficType.Alert);
             } else if (topic.contains("/sa/")) {
-                receivedTraffic(messageString, AirMapTraffic.TrafficType.SituationalAwareness);
+                receivedTraffic(message.getPayload(), AirMapTraffic.TrafficType.SituationalAwareness);
             }
         }
 
@@ -491,7 +883,10 @@ public class TrafficService extends BaseService {
          */
         @Override
         public void connectionLost(Throwable cause) {
-            onDisconnect(false);
+            Timber.w(cause, "Lost connection to Traffic Service");
+            lostAt = System.currentTimeMillis();
+            metrics.connectionsLost.incrementAndGet();
+            onDisconnect(true);
         }
 
         @Override
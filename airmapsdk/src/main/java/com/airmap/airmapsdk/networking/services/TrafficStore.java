@@ -0,0 +1,311 @@
+package com.airmap.airmapsdk.networking.services;
+
+import com.airmap.airmapsdk.models.Coordinate;
+import com.airmap.airmapsdk.models.traffic.AirMapTraffic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The traffic a TrafficService is tracking, keyed by traffic ID so that updates are O(1). For
+ * iteration it keeps a snapshot array, which is rebuilt at most once per batch of changes rather
+ * than copied on every add and remove, and for searching by location a {@link TrafficIndex}.
+ *
+ * Expiry goes through a min-heap of deadlines holding one entry per ID. An entry whose traffic has
+ * been heard from again is pushed back to the new deadline when it comes up, so each expiry pass
+ * only looks at traffic that is due rather than at every target.
+ *
+ * Each report is also recorded in a {@link TrafficTrack} per ID, which is dropped with the traffic.
+ *
+ * Traffic is only changed while holding the store's lock, by applying messages, projecting and
+ * expiring, so the index, tracks and expiry heap always agree with the traffic.
+ */
+class TrafficStore {
+
+    // traffic is dropped when nothing has been heard from it for this long
+    static final long EXPIRY = 30 * 1000;
+
+    private static final AirMapTraffic[] EMPTY = new AirMapTraffic[0];
+    private static final double METERS_PER_SECOND_PER_KNOT = 0.514444;
+    private static final int EARTH_RADIUS = 6371000;
+
+    private final ConcurrentHashMap<String, AirMapTraffic> traffic = new ConcurrentHashMap<>();
+    private final TrafficIndex index = new TrafficIndex();
+    private final ConcurrentHashMap<String, TrafficTrack> tracks = new ConcurrentHashMap<>();
+    private volatile int trackCapacity = 60;
+    private final PriorityQueue<Expiry> expiries = new PriorityQueue<>(64, new Comparator<Expiry>() {
+        @Override
+        public int compare(Expiry a, Expiry b) {
+            return a.at < b.at ? -1 : (a.at == b.at ? 0 : 1);
+        }
+    });
+
+    private volatile AirMapTraffic[] snapshot = EMPTY;
+    private volatile boolean stale;
+
+    /**
+     * Add traffic, or replace the traffic with the same ID
+     *
+     * @return true if the traffic is new
+     */
+    synchronized boolean put(AirMapTraffic update) {
+        AirMapTraffic previous = traffic.put(update.getId(), update);
+        index.update(update);
+        record(update);
+        stale = true;
+        if (previous == null) {
+            schedule(update);
+        }
+        return previous == null;
+    }
+
+    /**
+     * Apply the reports of a message to the traffic they are about, adding traffic that isn't
+     * tracked yet. Each report becomes a new instance that replaces the tracked one, as listeners
+     * and the conflict detector read the traffic they were given on other threads without a lock.
+     *
+     * @param now     when the message arrived, in milliseconds
+     * @param added   where to add the traffic that is new
+     * @param updated where to add the traffic that was already tracked
+     */
+    synchronized void apply(List<TrafficDecoder.Report> reports, AirMapTraffic.TrafficType type, long now,
+                            List<AirMapTraffic> added, List<AirMapTraffic> updated) {
+        for (int i = 0; i < reports.size(); i++) {
+            AirMapTraffic target = reports.get(i).toTraffic(now);
+            target.setTrafficType(type);
+            target.setCoordinate(projectedCoordinate(target, now));
+            if (traffic.put(target.getId(), target) == null) {
+                schedule(target);
+                added.add(target);
+            } else {
+                updated.add(target);
+            }
+            index.update(target);
+            record(target);
+        }
+        stale = true;
+    }
+
+    AirMapTraffic get(String id) {
+        return traffic.get(id);
+    }
+
+    synchronized AirMapTraffic remove(String id) {
+        AirMapTraffic removed = traffic.remove(id);
+        if (removed != null) {
+            index.remove(removed);
+            tracks.remove(id);
+            stale = true;
+        }
+        return removed;
+    }
+
+    int size() {
+        return traffic.size();
+    }
+
+    /**
+     * @return the reported positions of the traffic with the ID, or null if it isn't tracked
+     */
+    TrafficTrack track(String id) {
+        return tracks.get(id);
+    }
+
+    /**
+     * @param capacity the number of positions to keep per traffic, for traffic added from now on
+     */
+    void setTrackCapacity(int capacity) {
+        trackCapacity = capacity;
+    }
+
+    /**
+     * Remove all traffic
+     *
+     * @return the traffic that was removed
+     */
+    synchronized List<AirMapTraffic> clear() {
+        List<AirMapTraffic> removed = new ArrayList<>(traffic.values());
+        traffic.clear();
+        index.clear();
+        tracks.clear();
+        synchronized (expiries) {
+            expiries.clear();
+        }
+        snapshot = EMPTY;
+        stale = false;
+        return removed;
+    }
+
+    /**
+     * All the traffic, for iterating over. The array must not be modified; it is shared until
+     * the next change.
+     */
+    AirMapTraffic[] snapshot() {
+        if (!stale) {
+            return snapshot;
+        }
+        synchronized (this) {
+            if (stale) {
+                // cleared before copying, so a change made while copying makes the next snapshot stale again
+                stale = false;
+                snapshot = traffic.values().toArray(EMPTY);
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * @see TrafficIndex#within(Coordinate, double, double, double)
+     */
+    List<AirMapTraffic> within(Coordinate coordinate, double radius, double minAltitude, double maxAltitude) {
+        return index.within(coordinate, radius, minAltitude, maxAltitude);
+    }
+
+    /**
+     * @see TrafficIndex#nearest(Coordinate, int)
+     */
+    List<AirMapTraffic> nearest(Coordinate coordinate, int count) {
+        return index.nearest(coordinate, count);
+    }
+
+    /**
+     * Move every traffic with a known ground speed and heading to where it should be now
+     *
+     * @param now the current time, in milliseconds
+     * @return the traffic that was moved
+     */
+    synchronized List<AirMapTraffic> project(long now) {
+        AirMapTraffic[] all = snapshot();
+        List<AirMapTraffic> updated = new ArrayList<>();
+        for (AirMapTraffic target : all) {
+            if (target.getGroundSpeedKt() > -1 && target.getTrueHeading() > -1) {
+                target.setCoordinate(projectedCoordinate(target, now));
+                target.setShowAlert(false);
+                index.update(target);
+                updated.add(target);
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Remove traffic that hasn't been heard from for {@link #EXPIRY}
+     *
+     * @param now the current time, in milliseconds
+     * @return the traffic that was removed
+     */
+    synchronized List<AirMapTraffic> expire(long now) {
+        List<AirMapTraffic> expired = null;
+        synchronized (expiries) {
+            while (!expiries.isEmpty() && expiries.peek().at < now) {
+                String id = expiries.poll().id;
+                AirMapTraffic target = traffic.get(id);
+                if (target == null) {
+                    continue; //already removed
+                }
+                if (deadline(target) < now && traffic.remove(id, target)) {
+                    index.remove(target);
+                    tracks.remove(id);
+                    if (expired == null) {
+                        expired = new ArrayList<>();
+                    }
+                    expired.add(target);
+                } else {
+                    // heard from since this entry was scheduled, or replaced just now
+                    AirMapTraffic current = traffic.get(id);
+                    if (current != null) {
+                        expiries.add(new Expiry(deadline(current), id));
+                    }
+                }
+            }
+        }
+        if (expired == null) {
+            return Collections.emptyList();
+        }
+        stale = true;
+        return expired;
+    }
+
+    private void record(AirMapTraffic target) {
+        Coordinate reported = target.getInitialCoordinate();
+        if (reported == null || trackCapacity <= 0) {
+            return;
+        }
+        TrafficTrack track = tracks.get(target.getId());
+        if (track == null) {
+            TrafficTrack added = new TrafficTrack(trackCapacity);
+            track = tracks.putIfAbsent(target.getId(), added);
+            if (track == null) {
+                track = added;
+            }
+        }
+        track.add(reportedTime(target), reported.getLatitude(), reported.getLongitude(), target.getAltitudeFt());
+    }
+
+    private static long reportedTime(AirMapTraffic target) {
+        if (target.getRecordedTime() != null && target.getRecordedTime().getTime() > 0) {
+            return target.getRecordedTime().getTime();
+        }
+        return target.getIncomingTime() != null ? target.getIncomingTime().getTime() : 0;
+    }
+
+    private void schedule(AirMapTraffic target) {
+        synchronized (expiries) {
+            expiries.add(new Expiry(deadline(target), target.getId()));
+        }
+    }
+
+    private static long deadline(AirMapTraffic target) {
+        return target.getIncomingTime() != null ? target.getIncomingTime().getTime() + EXPIRY : 0;
+    }
+
+    /**
+     * Get a projected coordinate from an AirMapTraffic's bearing and ground speed
+     *
+     * @param traffic The traffic whose coordinate to update
+     * @param now     The current time, in milliseconds
+     * @return the projected location of the traffic
+     */
+    static Coordinate projectedCoordinate(AirMapTraffic traffic, long now) {
+        long elapsedTime = (now - traffic.getRecordedTime().getTime()) / 1000; //elapsed time between now and traffic's time
+        double metersPerSecond = traffic.getGroundSpeedKt() * METERS_PER_SECOND_PER_KNOT;
+        double distanceTraveled = metersPerSecond * elapsedTime;
+        //Use initial coordinate for calculation to avoid improper calculation
+        return getCoordinateFromBearingAndDistance(traffic.getInitialCoordinate(), traffic.getTrueHeading(), distanceTraveled);
+    }
+
+    /**
+     * Get a projected coordinate from a starting Coordinate, a bearing, and a distance traveled
+     *
+     * @param c        The starting coordinate
+     * @param bearing  The bearing of the traffic
+     * @param distance The distance the traffic has traveled
+     * @return the projected location of the traffic
+     */
+    static Coordinate getCoordinateFromBearingAndDistance(Coordinate c, double bearing, double distance) {
+        double angularDistance = distance / EARTH_RADIUS;
+        double brng = Math.toRadians(bearing);
+        double lat1 = Math.toRadians(c.getLatitude());
+        double lng1 = Math.toRadians(c.getLongitude());
+        double lat2 = Math.asin(Math.sin(lat1) * Math.cos(angularDistance) + Math.cos(lat1) * Math.sin(angularDistance) * Math.cos(brng));
+
+        double lng2 = lng1 + Math.atan2(Math.sin(brng) * Math.sin(angularDistance) * Math.cos(lat1), Math.cos(angularDistance) - Math.sin(lat1) * Math.sin(lat2));
+
+        lng2 = (lng2 + 3 * Math.PI) % (2 * Math.PI) - Math.PI;
+        return new Coordinate(Math.toDegrees(lat2), Math.toDegrees(lng2));
+    }
+
+    private static class Expiry {
+        final long at;
+        final String id;
+
+        Expiry(long at, String id) {
+            this.at = at;
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.airmap.airmapsdk.networking.services;
+
+/**
+ * The most recent reported positions of one traffic, oldest first, e.g. for drawing a trail.
+ * Positions are kept in a ring of primitive arrays with a fixed capacity, so a track never grows
+ * and recording a position doesn't allocate. Projected positions aren't recorded, only reports.
+ *
+ * The track keeps updating while the traffic is tracked. Reading is thread safe, but use
+ * {@link #copy} to read several positions consistently while reports arrive.
+ */
+public class TrafficTrack {
+
+    private final long[] times;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double[] altitudes;
+    private int next; // where the next position goes
+    private int size;
+
+    TrafficTrack(int capacity) {
+        times = new long[capacity];
+        latitudes = new double[capacity];
+        longitudes = new double[capacity];
+        altitudes = new double[capacity];
+    }
+
+    /**
+     * Record a position, replacing the oldest once the track is full. A position reported at the
+     * same time as the newest replaces it, and older positions are ignored
+     */
+    synchronized void add(long time, double latitude, double longitude, double altitude) {
+        int at = next;
+        if (size > 0) {
+            int newest = index(size - 1);
+            if (time < times[newest]) {
+                return;
+            } else if (time == times[newest]) {
+                at = newest;
+            }
+        }
+        times[at] = time;
+        latitudes[at] = latitude;
+        longitudes[at] = longitude;
+        altitudes[at] = altitude;
+        if (at == next) {
+            next = (next + 1) % times.length;
+            size = Math.min(size + 1, times.length);
+        }
+    }
+
+    public int getCapacity() {
+        return times.length;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @param i from 0 for the oldest position to size() - 1 for the newest
+     * @return when the position was reported, in milliseconds
+     */
+    public synchronized long getTime(int i) {
+        return times[checked(i)];
+    }
+
+    public synchronized double getLatitude(int i) {
+        return latitudes[checked(i)];
+    }
+
+    public synchronized double getLongitude(int i) {
+        return longitudes[checked(i)];
+    }
+
+    /**
+     * @return the altitude in feet, or NaN if it wasn't reported
+     */
+    public synchronized double getAltitude(int i) {
+        return altitudes[checked(i)];
+    }
+
+    /**
+     * Copy the newest positions, oldest first, into the given arrays. Any of the arrays may be
+     * null to skip that value; the rest must all be the same length, at most the capacity to copy
+     * every position
+     *
+     * @return the number of positions copied
+     */
+    public synchronized int copy(long[] times, double[] latitudes, double[] longitudes, double[] altitudes) {
+        int count = size;
+        count = Math.min(count, times != null ? times.length : count);
+        count = Math.min(count, latitudes != null ? latitudes.length : count);
+        count = Math.min(count, longitudes != null ? longitudes.length : count);
+        count = Math.min(count, altitudes != null ? altitudes.length : count);
+        for (int i = 0; i < count; i++) {
+            int from = index(size - count + i);
+            if (times != null) {
+                times[i] = this.times[from];
+            }
+            if (latitudes != null) {
+                latitudes[i] = this.latitudes[from];
+            }
+            if (longitudes != null) {
+                longitudes[i] = this.longitudes[from];
+            }
+            if (altitudes != null) {
+                altitudes[i] = this.altitudes[from];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Estimate the climb rate from the slope of a least squares fit to the altitudes reported in
+     * a window before the newest position, which smooths out the coarse altitude reports
+     *
+     * @param window how far back to look, in milliseconds
+     * @return the climb rate in feet per minute, negative when descending, or NaN if there aren't
+     * two positions with altitudes at different times in the window
+     */
+    public synchronized double getClimbRate(long window) {
+        if (size < 2) {
+            return Double.NaN;
+        }
+        long newest = times[index(size - 1)];
+        int n = 0;
+        double sumT = 0, sumA = 0, sumTT = 0, sumTA = 0;
+        for (int i = size - 1; i >= 0; i--) {
+            int at = index(i);
+            if (newest - times[at] > window) {
+                break;
+            }
+            if (Double.isNaN(altitudes[at])) {
+                continue;
+            }
+            // minutes before the newest, so the sums stay small
+            double t = (times[at] - newest) / 60000d;
+            n++;
+            sumT += t;
+            sumA += altitudes[at];
+            sumTT += t * t;
+            sumTA += t * altitudes[at];
+        }
+        double denominator = n * sumTT - sumT * sumT;
+        if (n < 2 || denominator <= 0) {
+            return Double.NaN;
+        }
+        return (n * sumTA - sumT * sumA) / denominator;
+    }
+
+    private int checked(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + ", size " + size);
+        }
+        return index(i);
+    }
+
+    // the array index of the i-th oldest position
+    private int index(int i) {
+        return (next - size + i + times.length) % times.length;
+    }
+}
@@ -352,6 +352,15 @@ public class AirMapConfig {
         }
     }
 
+    public static JSONObject getCacheSettings() {
+        try {
+            return AirMap.getConfig().getJSONObject("airmap").getJSONObject("cache");
+        } catch (JSONException e) {
+            Timber.v("No cache settings in airmap.config.json. Using defaults");
+            return null;
+        }
+    }
+
     public static void setIsCustomEnvironment(boolean bool) {
         isCustomEnvironment = bool;
     }
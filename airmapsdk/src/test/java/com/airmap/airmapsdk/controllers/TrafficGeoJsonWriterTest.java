@@ -0,0 +1,69 @@
+package com.airmap.airmapsdk.controllers;
+
+import com.airmap.airmapsdk.models.Coordinate;
+import com.airmap.airmapsdk.models.traffic.AirMapTraffic;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class TrafficGeoJsonWriterTest {
+
+    @Test
+    public void writesFeatureCollection() throws Exception {
+        AirMapTraffic alert = new AirMapTraffic()
+                .setId("flight|\"N1\"\\\n")
+                .setCoordinate(new Coordinate(34.0125, -118.5))
+                .setTrueHeading(270)
+                .setAltitudeFt(1500)
+                .setShowAlert(true)
+                .setTrafficType(AirMapTraffic.TrafficType.Alert);
+        AirMapTraffic unknown = new AirMapTraffic()
+                .setId("b")
+                .setCoordinate(new Coordinate(-33.9, 151.2))
+                .setTrueHeading(-1)
+                .setDirection(12.5)
+                .setAltitudeFt(Double.NaN);
+        AirMapTraffic nowhere = new AirMapTraffic().setId("c");
+
+        TrafficGeoJsonWriter writer = new TrafficGeoJsonWriter();
+        JSONObject collection = new JSONObject(writer.write(Arrays.asList(alert, nowhere, unknown)));
+        assertEquals("FeatureCollection", collection.getString("type"));
+        JSONArray features = collection.getJSONArray("features");
+        assertEquals(2, features.length());
+
+        JSONObject feature = features.getJSONObject(0);
+        assertEquals("Point", feature.getJSONObject("geometry").getString("type"));
+        JSONArray coordinates = feature.getJSONObject("geometry").getJSONArray("coordinates");
+        assertEquals(-118.5, coordinates.getDouble(0));
+        assertEquals(34.0125, coordinates.getDouble(1));
+        JSONObject properties = feature.getJSONObject("properties");
+        assertEquals(alert.getId(), properties.getString(TrafficGeoJsonWriter.ID));
+        assertEquals(270.0, properties.getDouble(TrafficGeoJsonWriter.HEADING));
+        assertEquals("Alert", properties.getString(TrafficGeoJsonWriter.TYPE));
+        assertEquals(1500.0, properties.getDouble(TrafficGeoJsonWriter.ALTITUDE));
+        assertTrue(properties.getBoolean(TrafficGeoJsonWriter.ALERT));
+
+        properties = features.getJSONObject(1).getJSONObject("properties");
+        assertEquals(12.5, properties.getDouble(TrafficGeoJsonWriter.HEADING));
+        assertTrue(properties.isNull(TrafficGeoJsonWriter.TYPE));
+        assertTrue(properties.isNull(TrafficGeoJsonWriter.ALTITUDE));
+        assertFalse(properties.getBoolean(TrafficGeoJsonWriter.ALERT));
+
+        // the buffer is reused
+        collection = new JSONObject(writer.write(Collections.<AirMapTraffic>emptyList()));
+        assertEquals(0, collection.getJSONArray("features").length());
+    }
+}
@@ -0,0 +1,164 @@
+package com.airmap.airmapsdk.networking.services;
+
+import com.airmap.airmapsdk.models.Telemetry;
+import com.google.protobuf.MessageLite;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class AdaptiveTelemetryRatePolicyTest {
+
+    private static final double METERS_PER_DEGREE = 111320;
+
+    private final AdaptiveTelemetryRatePolicy policy = new AdaptiveTelemetryRatePolicy();
+
+    @Test
+    public void idleSendsHeartbeats() {
+        Feed feed = new Feed();
+        for (long time = 0; time <= 3000; time += 50) {
+            feed.offer(time, position(0, 100));
+        }
+        assertEquals(Arrays.asList(0L, 1000L, 2000L, 3000L), feed.sentAt);
+    }
+
+    @Test
+    public void manoeuvringIsCappedAtTheMinimumInterval() {
+        Feed feed = new Feed();
+        // 100 m/s, sampled at 20 Hz
+        for (long time = 0; time <= 1000; time += 50) {
+            feed.offer(time, position(time / 10d, 100));
+        }
+        assertEquals(Arrays.asList(0L, 100L, 200L, 300L, 400L, 500L, 600L, 700L, 800L, 900L, 1000L), feed.sentAt);
+    }
+
+    @Test
+    public void smallMovesAddUpFromTheLastSentPosition() {
+        Feed feed = new Feed();
+        // 0.3 m every 100 ms passes the 1 m dead-band on the fourth move
+        for (long time = 0; time <= 500; time += 100) {
+            feed.offer(time, position(time * 0.003, 100));
+        }
+        assertEquals(Arrays.asList(0L, 400L), feed.sentAt);
+
+        // and so does climbing past the vertical dead-band
+        assertFalse(feed.offer(500, position(1.2, 100.4)));
+        assertTrue(feed.offer(600, position(1.2, 100.6)));
+    }
+
+    @Test
+    public void attitudeWrapsAround() {
+        Feed feed = new Feed();
+        feed.offer(0, attitude(359, 0, 0));
+        assertFalse(feed.offer(100, attitude(1, 0, 0)));
+        assertTrue(feed.offer(200, attitude(2, 0, 0)));
+        assertFalse(feed.offer(300, attitude(2, 1, -1)));
+        assertTrue(feed.offer(400, attitude(2, 1, -3)));
+    }
+
+    @Test
+    public void speedDeadband() {
+        Feed feed = new Feed();
+        feed.offer(0, speed(10, 0, 0));
+        assertFalse(feed.offer(100, speed(10.3, 0.3, 0)));
+        assertTrue(feed.offer(200, speed(10.3, 0.3, 0.3)));
+        // never before the minimum interval, however much it changed
+        assertFalse(feed.offer(250, speed(0, 0, 0)));
+        assertTrue(feed.offer(300, speed(0, 0, 0)));
+    }
+
+    @Test
+    public void barometerIsSentAtAFixedInterval() {
+        Feed feed = new Feed();
+        for (long time = 0; time <= 12000; time += 1000) {
+            feed.offer(time, Telemetry.Barometer.newBuilder().setTimestamp(time).setPressure(1013 + time).build());
+        }
+        assertEquals(Arrays.asList(0L, 5000L, 10000L), feed.sentAt);
+    }
+
+    @Test
+    public void intervalsAndDeadbandsCanBeChanged() {
+        policy.setPositionInterval(200, 500).setPositionDeadband(10, 5);
+        Feed feed = new Feed();
+        for (long time = 0; time <= 1000; time += 100) {
+            // 4 m every 100 ms
+            feed.offer(time, position(time / 25d, 100));
+        }
+        assertEquals(Arrays.asList(0L, 300L, 600L, 900L), feed.sentAt);
+    }
+
+    @Test
+    public void fieldsMatchMessages() {
+        Random random = new Random(3);
+        double[] last = new double[TelemetrySlot.FIELDS];
+        double[] fields = new double[TelemetrySlot.FIELDS];
+        for (int i = 0; i < 1000; i++) {
+            long elapsed = random.nextInt(1500);
+            Telemetry.Position lastPosition = position(random.nextDouble() * 20, 100 + random.nextDouble() * 2);
+            Telemetry.Position position = position(random.nextDouble() * 20, 100 + random.nextDouble() * 2);
+            fields(lastPosition, last);
+            fields(position, fields);
+            assertEquals(policy.shouldSend(position, lastPosition, elapsed),
+                    policy.shouldSend(TelemetryEncoder.MessageType.POSITION, fields, last, elapsed));
+        }
+        assertTrue(policy.shouldSend(TelemetryEncoder.MessageType.POSITION, fields, null, 0));
+    }
+
+    //A position that many meters north of 34N 118W, at an altitude in meters
+    private static Telemetry.Position position(double north, double altitude) {
+        return Telemetry.Position.newBuilder()
+                .setLatitude(34 + north / METERS_PER_DEGREE)
+                .setLongitude(-118)
+                .setAltitudeMsl((float) altitude)
+                .build();
+    }
+
+    private static Telemetry.Attitude attitude(double yaw, double pitch, double roll) {
+        return Telemetry.Attitude.newBuilder()
+                .setYaw((float) yaw)
+                .setPitch((float) pitch)
+                .setRoll((float) roll)
+                .build();
+    }
+
+    private static Telemetry.Speed speed(double x, double y, double z) {
+        return Telemetry.Speed.newBuilder()
+                .setVelocityX((float) x)
+                .setVelocityY((float) y)
+                .setVelocityZ((float) z)
+                .build();
+    }
+
+    //Lays out a position's fields as TelemetrySession#write does
+    private static void fields(Telemetry.Position position, double[] fields) {
+        fields[0] = position.getLatitude();
+        fields[1] = position.getLongitude();
+        fields[2] = position.getAltitudeAgl();
+        fields[3] = position.getAltitudeMsl();
+        fields[4] = position.getHorizontalAccuracy();
+    }
+
+    //Offers samples at explicit times, as a session's tick would, remembering when they were sent
+    private class Feed {
+
+        final List<Long> sentAt = new ArrayList<>();
+        private MessageLite lastSent;
+
+        boolean offer(long time, MessageLite sample) {
+            long elapsed = lastSent == null ? 0 : time - sentAt.get(sentAt.size() - 1);
+            if (!policy.shouldSend(sample, lastSent, elapsed)) {
+                return false;
+            }
+            lastSent = sample;
+            sentAt.add(time);
+            return true;
+        }
+    }
+}
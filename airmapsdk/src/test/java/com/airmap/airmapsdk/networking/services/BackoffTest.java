@@ -0,0 +1,41 @@
+package com.airmap.airmapsdk.networking.services;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class BackoffTest {
+
+    @Test
+    public void doublesWithJitterUpToMax() {
+        Backoff backoff = new Backoff(1000, 60000, new Random(1));
+        long window = 1000;
+        for (int i = 0; i < 100; i++) {
+            long delay = backoff.next();
+            assertTrue(delay >= window / 2);
+            assertTrue(delay <= window);
+            window = Math.min(60000, window * 2);
+        }
+        assertEquals(100, backoff.getAttempts());
+
+        backoff.reset();
+        assertEquals(0, backoff.getAttempts());
+        assertTrue(backoff.next() <= 1000);
+    }
+
+    @Test
+    public void spreadsClientsOut() {
+        Random seeds = new Random(1);
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int i = 0; i < 100; i++) {
+            long delay = new Backoff(1000, 60000, new Random(seeds.nextLong())).next();
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue(max - min > 250);
+    }
+}
@@ -0,0 +1,33 @@
+package com.airmap.airmapsdk.networking.services;
+
+import org.junit.Assume;
+
+import java.util.Locale;
+
+/**
+ * Gates and reports the benchmarks. They measure wall-clock throughput and latency, which varies
+ * too much between machines to run with the unit tests, so they are skipped unless asked for, e.g.
+ *
+ * ./gradlew :airmapsdk:testDebugUnitTest --tests '*Benchmark' -Dbenchmark=true
+ */
+class Benchmarks {
+
+    static final String PROPERTY = "benchmark";
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Skip the calling test unless benchmarks were asked for
+     */
+    static void assumeEnabled() {
+        Assume.assumeTrue("Benchmarks run with -D" + PROPERTY + "=true", Boolean.getBoolean(PROPERTY));
+    }
+
+    /**
+     * Report a benchmark result
+     */
+    static void report(String format, Object... args) {
+        System.out.println(String.format(Locale.US, format, args));
+    }
+}
@@ -0,0 +1,307 @@
+package com.airmap.airmapsdk.networking.services;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A minimal MQTT 3.1.1 broker on localhost, so a TrafficService can be run against synthetic
+ * traffic without the AirMap servers. It accepts any client, routes QoS 0 and 1 publishes to
+ * matching subscriptions (with + and # wildcards) and answers pings; there are no retained
+ * messages, sessions or wills, and subscriptions are granted at most QoS 1.
+ */
+class MqttTestBroker {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int CONNECT = 1;
+    private static final int PUBLISH = 3;
+    private static final int PUBACK = 4;
+    private static final int SUBSCRIBE = 8;
+    private static final int UNSUBSCRIBE = 10;
+    private static final int PINGREQ = 12;
+    private static final int DISCONNECT = 14;
+
+    private final ServerSocket server;
+    private final CopyOnWriteArrayList<Connection> connections = new CopyOnWriteArrayList<>();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private volatile boolean closed;
+
+    MqttTestBroker() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "mqtt-test-broker");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return the URI to connect a Paho client to
+     */
+    String getUri() {
+        return "tcp://127.0.0.1:" + server.getLocalPort();
+    }
+
+    /**
+     * @return the number of messages published to the broker
+     */
+    long getPublishedCount() {
+        return published.get();
+    }
+
+    /**
+     * @return the number of messages sent on to subscribers
+     */
+    long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    /**
+     * @return the number of subscriptions, over all clients
+     */
+    int getSubscriptionCount() {
+        int count = 0;
+        for (Connection connection : connections) {
+            count += connection.subscriptions.size();
+        }
+        return count;
+    }
+
+    void close() throws IOException {
+        closed = true;
+        server.close();
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                final Connection connection = new Connection(socket);
+                connections.add(connection);
+                Thread reader = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        connection.read();
+                    }
+                }, "mqtt-test-broker-connection");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void route(String topic, byte[] payload, int qos) {
+        published.incrementAndGet();
+        for (Connection connection : connections) {
+            for (Map.Entry<String, Integer> subscription : connection.subscriptions.entrySet()) {
+                if (matches(subscription.getKey(), topic)) {
+                    try {
+                        connection.publish(topic, payload, Math.min(qos, subscription.getValue()));
+                        delivered.incrementAndGet();
+                    } catch (IOException e) {
+                        connection.close(); //the subscriber went away, not the publisher
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    static boolean matches(String filter, String topic) {
+        String[] filterLevels = filter.split("/", -1);
+        String[] topicLevels = topic.split("/", -1);
+        for (int i = 0; i < filterLevels.length; i++) {
+            if (filterLevels[i].equals("#")) {
+                return true;
+            }
+            if (i >= topicLevels.length || (!filterLevels[i].equals("+") && !filterLevels[i].equals(topicLevels[i]))) {
+                return false;
+            }
+        }
+        return filterLevels.length == topicLevels.length;
+    }
+
+    private class Connection {
+
+        private final Socket socket;
+        private final DataInputStream in;
+        private final OutputStream out;
+        private final Map<String, Integer> subscriptions = new ConcurrentHashMap<>();
+        private int nextPacketId = 1;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        void read() {
+            try {
+                while (true) {
+                    int header = in.readUnsignedByte();
+                    byte[] body = new byte[readRemainingLength()];
+                    in.readFully(body);
+                    if (!handle(header >> 4, header & 0x0f, body)) {
+                        break;
+                    }
+                }
+            } catch (EOFException e) {
+                //client went away
+            } catch (IOException e) {
+                if (!closed && !socket.isClosed()) {
+                    e.printStackTrace();
+                }
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * @return false to close the connection
+         */
+        private boolean handle(int type, int flags, byte[] body) throws IOException {
+            switch (type) {
+                case CONNECT:
+                    send(0x20, new byte[]{0, 0}); //accepted
+                    return true;
+                case PUBLISH: {
+                    int qos = (flags >> 1) & 3;
+                    if (qos > 1) {
+                        throw new IOException("QoS 2 is not supported");
+                    }
+                    int topicLength = readShort(body, 0);
+                    String topic = new String(body, 2, topicLength, UTF_8);
+                    int offset = 2 + topicLength;
+                    if (qos > 0) {
+                        send(0x40, new byte[]{body[offset], body[offset + 1]});
+                        offset += 2;
+                    }
+                    byte[] payload = new byte[body.length - offset];
+                    System.arraycopy(body, offset, payload, 0, payload.length);
+                    route(topic, payload, qos);
+                    return true;
+                }
+                case SUBSCRIBE: {
+                    int offset = 2;
+                    byte[] granted = new byte[2 + body.length];
+                    granted[0] = body[0];
+                    granted[1] = body[1];
+                    int count = 0;
+                    while (offset < body.length) {
+                        int length = readShort(body, offset);
+                        String filter = new String(body, offset + 2, length, UTF_8);
+                        int qos = Math.min(1, body[offset + 2 + length]);
+                        subscriptions.put(filter, qos);
+                        granted[2 + count++] = (byte) qos;
+                        offset += 3 + length;
+                    }
+                    byte[] suback = new byte[2 + count];
+                    System.arraycopy(granted, 0, suback, 0, suback.length);
+                    send(0x90, suback);
+                    return true;
+                }
+                case UNSUBSCRIBE: {
+                    int offset = 2;
+                    while (offset < body.length) {
+                        int length = readShort(body, offset);
+                        subscriptions.remove(new String(body, offset + 2, length, UTF_8));
+                        offset += 2 + length;
+                    }
+                    send(0xb0, new byte[]{body[0], body[1]});
+                    return true;
+                }
+                case PINGREQ:
+                    send(0xd0, new byte[0]);
+                    return true;
+                case PUBACK:
+                    return true; //nothing is redelivered
+                case DISCONNECT:
+                    return false;
+                default:
+                    throw new IOException("Unsupported packet type " + type);
+            }
+        }
+
+        synchronized void publish(String topic, byte[] payload, int qos) throws IOException {
+            byte[] name = topic.getBytes(UTF_8);
+            int length = 2 + name.length + (qos > 0 ? 2 : 0) + payload.length;
+            out.write(0x30 | (qos << 1));
+            writeRemainingLength(length);
+            out.write(name.length >> 8);
+            out.write(name.length);
+            out.write(name);
+            if (qos > 0) {
+                int id = nextPacketId;
+                nextPacketId = nextPacketId == 0xffff ? 1 : nextPacketId + 1;
+                out.write(id >> 8);
+                out.write(id);
+            }
+            out.write(payload);
+            out.flush();
+        }
+
+        private synchronized void send(int header, byte[] body) throws IOException {
+            out.write(header);
+            writeRemainingLength(body.length);
+            out.write(body);
+            out.flush();
+        }
+
+        private int readRemainingLength() throws IOException {
+            int length = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = in.readUnsignedByte();
+                length |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0 && shift < 28);
+            return length;
+        }
+
+        private void writeRemainingLength(int length) throws IOException {
+            do {
+                int b = length & 0x7f;
+                length >>>= 7;
+                out.write(length > 0 ? b | 0x80 : b);
+            } while (length > 0);
+        }
+
+        void close() {
+            connections.remove(this);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //already closed
+            }
+        }
+    }
+
+    private static int readShort(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 8) | (bytes[offset + 1] & 0xff);
+    }
+}
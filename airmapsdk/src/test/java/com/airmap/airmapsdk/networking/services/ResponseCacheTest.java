@@ -0,0 +1,175 @@
+package com.airmap.airmapsdk.networking.services;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Cache;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class ResponseCacheTest {
+
+    private static final String RULESETS = "https://api.airmap.com/rules/v1";
+    private static final String FLIGHTS = "https://api.airmap.com/flight/v2";
+    private static final String PILOT = "https://api.airmap.com/pilot/v2";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private ResponseCache cache;
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() {
+        cache = new ResponseCache(Arrays.asList(
+                new CachePolicy(CachePolicy.RULESETS, RULESETS, 200, 10000),
+                new CachePolicy(CachePolicy.PILOT, PILOT, 1, 10000, 0)), null, ResponseCache.DEFAULT_MEMORY_SIZE);
+        // stands in for the server, numbering its responses
+        Interceptor server = new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) {
+                return new Response.Builder()
+                        .request(chain.request())
+                        .protocol(Protocol.HTTP_1_1)
+                        .code(200)
+                        .message("OK")
+                        .body(ResponseBody.create(MediaType.parse("application/json"), String.valueOf(requests.incrementAndGet())))
+                        .build();
+            }
+        };
+        client = new OkHttpClient.Builder().addInterceptor(cache.interceptor()).addInterceptor(server).build();
+        cache.setClient(client);
+    }
+
+    @Test
+    public void servesStaleWhileRevalidating() throws Exception {
+        assertEquals("1", get(RULESETS + "/us"));
+        assertEquals("1", get(RULESETS + "/us"));
+        assertEquals(1, requests.get());
+        assertEquals(1, cache.getMetrics().getMemoryHits());
+        assertEquals(1, cache.getMetrics().getMisses());
+
+        Thread.sleep(300);
+        assertEquals("1", get(RULESETS + "/us"));
+        assertEquals(1, cache.getMetrics().getStaleHits());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (requests.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertEquals(1, cache.getMetrics().getRevalidations());
+        assertEquals("2", get(RULESETS + "/us"));
+        assertEquals(2, cache.getMetrics().getMemoryHits());
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void ignoresAccessTokenAndDropsWrittenUrls() throws Exception {
+        assertEquals("1", get(RULESETS + "/us?access_token=a"));
+        assertEquals("1", get(RULESETS + "/us?access_token=b"));
+
+        // a write to an item drops its collection
+        client.newCall(new Request.Builder().url(RULESETS + "/us/rule").patch(RequestBody.create(null, "")).build()).execute().close();
+        assertEquals("3", get(RULESETS + "/us"));
+
+        // not cached
+        assertEquals("4", get(FLIGHTS));
+        assertEquals("5", get(FLIGHTS));
+        assertEquals(1, cache.getMetrics().getMemoryHits());
+        assertEquals(2, cache.getMetrics().getMisses());
+        assertTrue(cache.getMetrics().getHitRatio() > 0);
+    }
+
+    @Test
+    public void cachesOnlyThePilotProfile() throws Exception {
+        assertEquals("1", get(PILOT + "/pilot1"));
+        assertEquals("1", get(PILOT + "/pilot1"));
+
+        // the pilot's aircraft aren't cached
+        assertEquals("2", get(PILOT + "/pilot1/aircraft"));
+        assertEquals("3", get(PILOT + "/pilot1/aircraft"));
+
+        // adding an aircraft drops the profile
+        client.newCall(new Request.Builder().url(PILOT + "/pilot1/aircraft").post(RequestBody.create(null, "")).build()).execute().close();
+        assertEquals("5", get(PILOT + "/pilot1"));
+        assertEquals("5", get(PILOT + "/pilot1"));
+
+        // and so does deleting one
+        client.newCall(new Request.Builder().url(PILOT + "/pilot1/aircraft/aircraft1").delete().build()).execute().close();
+        assertEquals("7", get(PILOT + "/pilot1"));
+        assertEquals(2, cache.getMetrics().getMemoryHits());
+    }
+
+    @Test
+    public void diskTierIgnoresAccessToken() throws Exception {
+        final List<String> queries = new CopyOnWriteArrayList<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                queries.add(exchange.getRequestURI().getQuery());
+                byte[] body = String.valueOf(queries.size()).getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            String rulesets = "http://127.0.0.1:" + server.getAddress().getPort() + "/rules/v1";
+            Cache disk = new Cache(folder.getRoot(), 1024 * 1024);
+            // without a memory tier, every hit comes from disk
+            cache = new ResponseCache(Arrays.asList(new CachePolicy(CachePolicy.RULESETS, rulesets, 10000, 0)), disk, 0);
+            client = new OkHttpClient.Builder()
+                    .cache(disk)
+                    .addInterceptor(cache.interceptor())
+                    .addNetworkInterceptor(cache.networkInterceptor())
+                    .build();
+
+            assertEquals("1", get(rulesets + "/us?access_token=a"));
+            assertEquals("1", get(rulesets + "/us?access_token=b"));
+            assertEquals(1, cache.getMetrics().getDiskHits());
+            // the server still gets the token
+            assertEquals(Arrays.asList("access_token=a"), queries);
+            Iterator<String> urls = disk.urls();
+            assertEquals(rulesets + "/us", urls.next());
+            assertFalse(urls.hasNext());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private String get(String url) throws IOException {
+        Response response = client.newCall(new Request.Builder().url(url).build()).execute();
+        try {
+            return response.body().string();
+        } finally {
+            response.close();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.airmap.airmapsdk.networking.services;
+
+/**
+ * Scripted path for a simulated aircraft, flown at constant speed and repeated forever. Paths are
+ * laid out in meters east and north of an origin and converted to coordinates, which is accurate
+ * enough over the few kilometers a drone covers.
+ */
+abstract class SimulatedFlightPath {
+
+    static final int LATITUDE = 0;
+    static final int LONGITUDE = 1;
+    static final int ALTITUDE = 2;
+
+    private static final double METERS_PER_DEGREE = 111320;
+
+    private final double originLatitude;
+    private final double originLongitude;
+    private final double altitude;
+    final double speed;
+
+    SimulatedFlightPath(double originLatitude, double originLongitude, double altitude, double speed) {
+        this.originLatitude = originLatitude;
+        this.originLongitude = originLongitude;
+        this.altitude = altitude;
+        this.speed = speed;
+    }
+
+    /**
+     * Circle around the origin
+     *
+     * @param radius in meters
+     * @param speed  in meters per second
+     */
+    static SimulatedFlightPath circle(double latitude, double longitude, double altitude, final double radius, double speed) {
+        return new SimulatedFlightPath(latitude, longitude, altitude, speed) {
+            @Override
+            void offsetAt(double distance, double[] out) {
+                double angle = distance / radius;
+                out[0] = radius * Math.cos(angle);
+                out[1] = radius * Math.sin(angle);
+            }
+        };
+    }
+
+    /**
+     * Survey pattern: back and forth across a rectangle north of the origin, stepping east
+     * between passes, then straight back to the start
+     *
+     * @param width   east-west size of the area, in meters
+     * @param height  north-south size of the area, in meters
+     * @param spacing distance between passes, in meters
+     */
+    static SimulatedFlightPath lawnmower(double latitude, double longitude, double altitude, double width, double height, double spacing, double speed) {
+        int passes = Math.max(1, (int) (width / spacing) + 1);
+        double[] east = new double[passes * 2];
+        double[] north = new double[passes * 2];
+        for (int i = 0; i < passes; i++) {
+            boolean up = i % 2 == 0;
+            east[2 * i] = i * spacing;
+            north[2 * i] = up ? 0 : height;
+            east[2 * i + 1] = i * spacing;
+            north[2 * i + 1] = up ? height : 0;
+        }
+        return new Waypoints(latitude, longitude, altitude, east, north, speed);
+    }
+
+    /**
+     * Fly a closed loop through waypoints given as meters east and north of the origin
+     */
+    static SimulatedFlightPath waypoints(double latitude, double longitude, double altitude, double[] east, double[] north, double speed) {
+        return new Waypoints(latitude, longitude, altitude, east, north, speed);
+    }
+
+    /**
+     * Where the aircraft is after flying along the path for a while
+     *
+     * @param seconds time since the aircraft started the path
+     * @param out     receives latitude, longitude and altitude MSL
+     */
+    void positionAt(double seconds, double[] out) {
+        offsetAt(seconds * speed, out);
+        double east = out[0];
+        double north = out[1];
+        out[LATITUDE] = originLatitude + north / METERS_PER_DEGREE;
+        out[LONGITUDE] = originLongitude + east / (METERS_PER_DEGREE * Math.cos(Math.toRadians(originLatitude)));
+        out[ALTITUDE] = altitude;
+    }
+
+    /**
+     * @param distance how far along the path the aircraft has flown, in meters
+     * @param out      receives meters east and north of the origin
+     */
+    abstract void offsetAt(double distance, double[] out);
+
+    private static class Waypoints extends SimulatedFlightPath {
+        private final double[] east;
+        private final double[] north;
+        private final double[] legStart;
+        private final double length;
+
+        Waypoints(double latitude, double longitude, double altitude, double[] east, double[] north, double speed) {
+            super(latitude, longitude, altitude, speed);
+            this.east = east;
+            this.north = north;
+            this.legStart = new double[east.length];
+            double total = 0;
+            for (int i = 0; i < east.length; i++) {
+                legStart[i] = total;
+                int next = (i + 1) % east.length;
+                total += Math.hypot(east[next] - east[i], north[next] - north[i]);
+            }
+            this.length = total;
+        }
+
+        @Override
+        void offsetAt(double distance, double[] out) {
+            double along = length > 0 ? distance % length : 0;
+            int leg = east.length - 1;
+            while (leg > 0 && legStart[leg] > along) {
+                leg--;
+            }
+            int next = (leg + 1) % east.length;
+            double legLength = Math.hypot(east[next] - east[leg], north[next] - north[leg]);
+            double fraction = legLength > 0 ? (along - legStart[leg]) / legLength : 0;
+            out[0] = east[leg] + (east[next] - east[leg]) * fraction;
+            out[1] = north[leg] + (north[next] - north[leg]) * fraction;
+        }
+    }
+}
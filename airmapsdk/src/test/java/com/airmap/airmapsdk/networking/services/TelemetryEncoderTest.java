@@ -0,0 +1,129 @@
+package com.airmap.airmapsdk.networking.services;
+
+import com.airmap.airmapsdk.models.Telemetry;
+import com.google.protobuf.MessageLite;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class TelemetryEncoderTest {
+
+    private static final String FLIGHT_ID = "flight|abc123";
+    private static final byte[] KEY = new byte[32];
+
+    static {
+        for (int i = 0; i < KEY.length; i++) {
+            KEY[i] = (byte) i;
+        }
+    }
+
+    @Test
+    public void encryptedPacketDecodesWithStandardCipher() throws Exception {
+        TelemetryEncoder encoder = new TelemetryEncoder(FLIGHT_ID, KEY, TelemetryEncoder.Encryption.AES256CBC);
+        List<MessageLite> messages = messages();
+
+        int length = encoder.encode(42, messages);
+        ByteBuffer packet = ByteBuffer.wrap(encoder.getBuffer(), 0, length);
+
+        assertEquals(42, packet.getInt());
+        byte[] flightId = new byte[packet.get()];
+        packet.get(flightId);
+        assertEquals(FLIGHT_ID, new String(flightId, "US-ASCII"));
+        assertEquals(1, packet.get());
+        byte[] iv = new byte[TelemetryEncoder.BLOCK_SIZE];
+        packet.get(iv);
+
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(KEY, "AES"), new IvParameterSpec(iv));
+        ByteBuffer payload = ByteBuffer.wrap(cipher.doFinal(encoder.getBuffer(), packet.position(), packet.remaining()));
+
+        assertEquals(TelemetryEncoder.MessageType.POSITION.value, payload.getShort());
+        byte[] position = new byte[payload.getShort()];
+        payload.get(position);
+        assertEquals(messages.get(0), Telemetry.Position.parseFrom(position));
+
+        assertEquals(TelemetryEncoder.MessageType.ATTITUDE.value, payload.getShort());
+        byte[] attitude = new byte[payload.getShort()];
+        payload.get(attitude);
+        assertEquals(messages.get(1), Telemetry.Attitude.parseFrom(attitude));
+        assertFalse(payload.hasRemaining());
+    }
+
+    @Test
+    public void ivChangesBetweenPackets() throws Exception {
+        TelemetryEncoder encoder = new TelemetryEncoder(FLIGHT_ID, KEY, TelemetryEncoder.Encryption.AES256CBC);
+        int ivOffset = 4 + 1 + FLIGHT_ID.length() + 1;
+
+        encoder.encode(1, messages());
+        byte[] first = Arrays.copyOfRange(encoder.getBuffer(), ivOffset, ivOffset + TelemetryEncoder.BLOCK_SIZE);
+        encoder.encode(2, messages());
+        byte[] second = Arrays.copyOfRange(encoder.getBuffer(), ivOffset, ivOffset + TelemetryEncoder.BLOCK_SIZE);
+
+        assertFalse(Arrays.equals(first, second));
+    }
+
+    @Test
+    public void steadyStateEncodeDoesNotAllocate() throws Exception {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threadBean;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        TelemetryEncoder encoder = new TelemetryEncoder(FLIGHT_ID, KEY, TelemetryEncoder.Encryption.AES256CBC);
+        List<MessageLite> messages = messages();
+
+        // warm up so the JIT and the cipher provider have settled
+        for (int i = 0; i < 20000; i++) {
+            encoder.encode(i, messages);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long baseline = allocations.getThreadAllocatedBytes(threadId);
+        long overhead = allocations.getThreadAllocatedBytes(threadId) - baseline;
+
+        int iterations = 10000;
+        long start = allocations.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            encoder.encode(i, messages);
+        }
+        long allocated = allocations.getThreadAllocatedBytes(threadId) - start - overhead;
+
+        // anything per packet would add up to at least one object per iteration
+        assertTrue("Encoding allocated " + allocated + " bytes over " + iterations + " packets", allocated < iterations);
+    }
+
+    private static List<MessageLite> messages() {
+        List<MessageLite> messages = new ArrayList<>();
+        messages.add(Telemetry.Position.newBuilder()
+                .setTimestamp(1500000000000L)
+                .setLatitude(34.0151)
+                .setLongitude(-118.4951)
+                .setAltitudeAgl(30)
+                .setAltitudeMsl(95)
+                .setHorizontalAccuracy(2)
+                .build());
+        messages.add(Telemetry.Attitude.newBuilder()
+                .setTimestamp(1500000000000L)
+                .setYaw(90)
+                .setPitch(5)
+                .setRoll(-3)
+                .build());
+        return messages;
+    }
+}
@@ -0,0 +1,114 @@
+package com.airmap.airmapsdk.networking.services;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class TelemetryJournalTest {
+
+    private static final String FLIGHT_ID = "flight|abc123";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keepsLastSequenceAfterPacketsAreSent() throws Exception {
+        byte[] packet = new byte[100];
+        TelemetryJournal journal = TelemetryJournal.open(folder.getRoot(), FLIGHT_ID, 4);
+        for (int sequence = 1; sequence <= 6; sequence++) {
+            journal.setLastSequence(sequence);
+            journal.append(sequence, packet, packet.length);
+        }
+        // the ring overwrote the first two
+        assertEquals(4, journal.size());
+        while (!journal.isEmpty()) {
+            journal.remove();
+        }
+        journal.setLastSequence(7);
+        journal.close();
+
+        journal = TelemetryJournal.open(folder.getRoot(), FLIGHT_ID, 4);
+        assertTrue(journal.isEmpty());
+        assertEquals(7, journal.getLastSequence());
+        journal.close();
+    }
+
+    @Test
+    public void recoversUnsentPackets() throws Exception {
+        byte[] packet = new byte[]{1, 2, 3};
+        TelemetryJournal journal = TelemetryJournal.open(folder.getRoot(), FLIGHT_ID, 4);
+        journal.setLastSequence(1);
+        journal.append(1, packet, packet.length);
+        journal.setLastSequence(2);
+        journal.close();
+
+        journal = TelemetryJournal.open(folder.getRoot(), FLIGHT_ID, 4);
+        byte[] out = new byte[TelemetryJournal.MAX_PACKET_SIZE];
+        assertEquals(1, journal.size());
+        assertEquals(3, journal.peek(out));
+        assertEquals(3, out[2]);
+        assertEquals(2, journal.getLastSequence());
+        journal.close();
+    }
+
+    @Test
+    public void reopeningAJournalThatIsStillOpenSharesIt() throws Exception {
+        byte[] packet = new byte[]{1, 2, 3};
+        TelemetryJournal ending = TelemetryJournal.open(folder.getRoot(), FLIGHT_ID, 4);
+        ending.setLastSequence(1);
+
+        // a new session of the flight starts before the last one has closed its journal
+        TelemetryJournal starting = TelemetryJournal.open(folder.getRoot(), FLIGHT_ID, 4);
+        assertSame(ending, starting);
+        ending.close();
+        File file = folder.getRoot().listFiles()[0];
+        assertEquals(starting.getFileSize(), file.length());
+
+        starting.setLastSequence(2);
+        starting.append(2, packet, packet.length);
+        assertEquals(1, starting.size());
+        starting.remove();
+        starting.close();
+        assertTrue(file.length() < starting.getFileSize());
+
+        TelemetryJournal reopened = TelemetryJournal.open(folder.getRoot(), FLIGHT_ID, 4);
+        assertNotSame(starting, reopened);
+        assertTrue(reopened.isEmpty());
+        assertEquals(2, reopened.getLastSequence());
+        reopened.close();
+    }
+
+    @Test
+    public void deletesOnlyOldJournalsThatArentOpen() throws Exception {
+        TelemetryJournal running = TelemetryJournal.open(folder.getRoot(), "running", 4);
+        TelemetryJournal finished = TelemetryJournal.open(folder.getRoot(), "finished", 4);
+        finished.close();
+        for (File file : folder.getRoot().listFiles()) {
+            assertTrue(file.setLastModified(System.currentTimeMillis() - TelemetryJournal.MAX_AGE - 1000));
+        }
+
+        // any number of flights can be running at once
+        List<TelemetryJournal> flights = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            flights.add(TelemetryJournal.open(folder.getRoot(), "flight" + i, 4));
+        }
+        assertTrue(new File(folder.getRoot(), "running.journal").exists());
+        assertFalse(new File(folder.getRoot(), "finished.journal").exists());
+        assertEquals(21, folder.getRoot().listFiles().length);
+
+        running.close();
+        for (TelemetryJournal flight : flights) {
+            flight.close();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.airmap.airmapsdk.networking.services;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Capacity test with simulated aircraft. Only runs when benchmarks are enabled, see
+ * {@link Benchmarks}. Configure it with system properties, e.g.
+ *
+ * ./gradlew :airmapsdk:test --tests '*TelemetryLoadBenchmark' -Dbenchmark=true -Dtelemetry.load.aircraft=200 -Dtelemetry.load.target=ENCODER
+ */
+public class TelemetryLoadBenchmark {
+
+    private static final int AIRCRAFT = Integer.getInteger("telemetry.load.aircraft", 20);
+    private static final int RATE = Integer.getInteger("telemetry.load.rate", 10); // per aircraft, per second
+    private static final long DURATION = Long.getLong("telemetry.load.duration", 3000);
+    private static final String TARGET = System.getProperty("telemetry.load.target");
+
+    @Test
+    public void simulatedAircraft() throws Exception {
+        Benchmarks.assumeEnabled();
+        if (TARGET != null) {
+            run(TelemetryLoadGenerator.Target.valueOf(TARGET));
+        } else {
+            for (TelemetryLoadGenerator.Target target : TelemetryLoadGenerator.Target.values()) {
+                run(target);
+            }
+        }
+    }
+
+    private void run(TelemetryLoadGenerator.Target target) throws Exception {
+        TelemetryReceiver sink = new TelemetryReceiver();
+        TelemetryLoadGenerator generator = new TelemetryLoadGenerator(sink, RATE, target, TelemetryLoadGenerator.paths(AIRCRAFT));
+
+        long cpuStart = processCpuTime();
+        generator.run(DURATION);
+        long cpu = cpuStart < 0 ? -1 : processCpuTime() - cpuStart;
+        Thread.sleep(500);
+        sink.close();
+        generator.shutdown();
+
+        double seconds = DURATION / 1000d;
+        Benchmarks.report("%s: %d aircraft at %d Hz: %.0f samples/s generated, %.0f samples/s, %.0f packets/s, %.0f KB/s received, %d packets lost, %d late ticks, %s",
+                target, generator.getAircraftCount(), RATE, generator.getSampleCount() / seconds, sink.getMessageCount() / seconds,
+                sink.getPacketCount() / seconds, sink.getByteCount() / seconds / 1024, sink.getLostPacketCount(), generator.getLateTickCount(),
+                cpu < 0 ? "CPU time unavailable" : String.format("%.2f ms CPU per aircraft-second", cpu / 1e6 / generator.getAircraftCount() / seconds));
+
+        assertTrue(sink.getMessageCount() > 0);
+        assertEquals(0, sink.getInvalidPacketCount());
+    }
+
+    //CPU used by the whole process, including the sender and receiver, in nanoseconds, or -1 if unavailable
+    private static long processCpuTime() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,267 @@
+package com.airmap.airmapsdk.networking.services;
+
+import com.airmap.airmapsdk.models.Telemetry;
+import com.google.protobuf.MessageLite;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+
+/**
+ * Simulates many aircraft flying scripted paths and reporting position, attitude and speed at a
+ * fixed rate, plus barometric pressure once a second, to a {@link TelemetryReceiver}. Samples go
+ * either through a {@link TelemetrySession} per aircraft, exercising the whole pipeline, or
+ * straight through a {@link TelemetryEncoder} per aircraft with one packet per tick, measuring
+ * raw encoding capacity. Every aircraft is simulated on the calling thread.
+ */
+class TelemetryLoadGenerator {
+
+    enum Target {
+        SESSION,
+        ENCODER
+    }
+
+    private static final double GRAVITY = 9.81;
+    private static final double SEA_LEVEL_PRESSURE = 1013.25;
+
+    private final TelemetryReceiver sink;
+    private final int rate;
+    private final Target target;
+    private final List<Aircraft> aircraft = new ArrayList<>();
+
+    private TelemetrySettings settings;
+    private TelemetrySender sender;
+    private Scheduler.Worker scheduler;
+
+    private long samples;
+    private long lateTicks;
+
+    /**
+     * @param sink  where telemetry is sent
+     * @param rate  position, attitude and speed samples per second, per aircraft
+     * @param paths the path each aircraft flies
+     */
+    TelemetryLoadGenerator(TelemetryReceiver sink, int rate, Target target, List<SimulatedFlightPath> paths) throws IOException, GeneralSecurityException {
+        this.sink = sink;
+        this.rate = rate;
+        this.target = target;
+
+        if (target == Target.SESSION) {
+            settings = new TelemetrySettings(null);
+            settings.ratePolicy = new TelemetryRatePolicy() {
+                @Override
+                public boolean shouldSend(MessageLite sample, MessageLite lastSent, long elapsed) {
+                    return true;
+                }
+            };
+            sender = new TelemetrySender();
+            scheduler = Schedulers.computation().createWorker();
+        }
+
+        for (int i = 0; i < paths.size(); i++) {
+            aircraft.add(new Aircraft("simulated|" + i, paths.get(i)));
+        }
+    }
+
+    /**
+     * @return the standard paths, one per aircraft, spread around Santa Monica and cycling
+     * through circles, lawnmower surveys and waypoint loops
+     */
+    static List<SimulatedFlightPath> paths(int count) {
+        List<SimulatedFlightPath> paths = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            double latitude = 34.0 + (i / 20) * 0.01;
+            double longitude = -118.5 + (i % 20) * 0.01;
+            double altitude = 60 + (i % 5) * 10;
+            double speed = 5 + (i % 7) * 2;
+            switch (i % 3) {
+                case 0:
+                    paths.add(SimulatedFlightPath.circle(latitude, longitude, altitude, 50 + (i % 4) * 25, speed));
+                    break;
+                case 1:
+                    paths.add(SimulatedFlightPath.lawnmower(latitude, longitude, altitude, 200, 300, 25, speed));
+                    break;
+                default:
+                    paths.add(SimulatedFlightPath.waypoints(latitude, longitude, altitude,
+                            new double[] {0, 150, 300, 150}, new double[] {0, 200, 0, -200}, speed));
+                    break;
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Fly every aircraft for a while, then send whatever is left and release the sessions
+     */
+    void run(long duration) throws Exception {
+        long period = 1000000000L / rate;
+        long start = System.nanoTime();
+        long end = start + duration * 1000000L;
+        long tick = 0;
+        long nextBarometer = start;
+        while (true) {
+            long due = start + tick * period;
+            if (due >= end) {
+                break;
+            }
+            long now = System.nanoTime();
+            if (due > now) {
+                Thread.sleep((due - now) / 1000000L, (int) ((due - now) % 1000000L));
+            } else if (now - due > period) {
+                lateTicks++;
+            }
+
+            boolean barometer = due >= nextBarometer;
+            if (barometer) {
+                nextBarometer += 1000000000L;
+            }
+            double seconds = (due - start) / 1e9;
+            long timestamp = System.currentTimeMillis();
+            for (int i = 0; i < aircraft.size(); i++) {
+                aircraft.get(i).fly(seconds, 1d / rate, timestamp, barometer);
+            }
+            tick++;
+        }
+
+        for (Aircraft plane : aircraft) {
+            plane.close();
+        }
+    }
+
+    /**
+     * Stop the threads used for the session target, once the sink has received everything
+     */
+    void shutdown() {
+        if (sender != null) {
+            sender.shutdown();
+            scheduler.unsubscribe();
+        }
+    }
+
+    long getSampleCount() {
+        return samples;
+    }
+
+    /**
+     * @return ticks that started more than a period late, i.e. the simulation couldn't keep up
+     */
+    long getLateTickCount() {
+        return lateTicks;
+    }
+
+    int getAircraftCount() {
+        return aircraft.size();
+    }
+
+    private class Aircraft {
+        private final SimulatedFlightPath path;
+        private final double[] position = new double[3];
+        private final double[] previous = new double[3];
+        private double lastHeading = Double.NaN;
+
+        private TelemetrySession session;
+
+        private TelemetryEncoder encoder;
+        private DatagramSocket socket;
+        private DatagramPacket packet;
+        private int packetNumber = 1;
+        private final List<MessageLite> messages = new ArrayList<>();
+
+        Aircraft(String flightId, SimulatedFlightPath path) throws IOException, GeneralSecurityException {
+            this.path = path;
+            byte[] key = new byte[32];
+            key[0] = (byte) flightId.hashCode();
+            sink.addKey(flightId, key);
+
+            if (target == Target.SESSION) {
+                session = new TelemetrySession(flightId, sink.getHost(), sink.getPort(), settings, sender, scheduler);
+                session.start(key);
+            } else {
+                encoder = new TelemetryEncoder(flightId, key, TelemetryEncoder.Encryption.AES256CBC);
+                socket = new DatagramSocket();
+                socket.connect(InetAddress.getByName(sink.getHost()), sink.getPort());
+                packet = new DatagramPacket(encoder.getBuffer(), 0);
+            }
+        }
+
+        void fly(double seconds, double interval, long timestamp, boolean barometer) throws IOException, GeneralSecurityException {
+            path.positionAt(seconds - interval, previous);
+            path.positionAt(seconds, position);
+
+            // north-east-down velocity from the distance covered since the last tick
+            double north = (position[SimulatedFlightPath.LATITUDE] - previous[SimulatedFlightPath.LATITUDE]) * 111320 / interval;
+            double east = (position[SimulatedFlightPath.LONGITUDE] - previous[SimulatedFlightPath.LONGITUDE])
+                    * 111320 * Math.cos(Math.toRadians(position[SimulatedFlightPath.LATITUDE])) / interval;
+            double down = -(position[SimulatedFlightPath.ALTITUDE] - previous[SimulatedFlightPath.ALTITUDE]) / interval;
+
+            // coordinated turn: bank angle from the turn rate, a slight nose-down pitch for forward flight
+            double heading = Math.atan2(east, north);
+            double turnRate = Double.isNaN(lastHeading) ? 0 : Math.IEEEremainder(heading - lastHeading, 2 * Math.PI) / interval;
+            lastHeading = heading;
+            double yaw = (Math.toDegrees(heading) + 360) % 360;
+            double roll = Math.toDegrees(Math.atan(path.speed * turnRate / GRAVITY));
+            double pitch = -Math.min(15, path.speed);
+
+            double altitude = position[SimulatedFlightPath.ALTITUDE];
+            double pressure = SEA_LEVEL_PRESSURE * Math.pow(1 - 2.25577e-5 * altitude, 5.25588);
+
+            if (session != null) {
+                session.write(TelemetryEncoder.MessageType.POSITION, timestamp, position[SimulatedFlightPath.LATITUDE],
+                        position[SimulatedFlightPath.LONGITUDE], altitude - 30, altitude, 2.5);
+                session.write(TelemetryEncoder.MessageType.ATTITUDE, timestamp, yaw, pitch, roll, 0, 0);
+                session.write(TelemetryEncoder.MessageType.SPEED, timestamp, north, east, down, 0, 0);
+                if (barometer) {
+                    session.write(TelemetryEncoder.MessageType.BAROMETER, timestamp, pressure, 0, 0, 0, 0);
+                }
+            } else {
+                messages.clear();
+                messages.add(Telemetry.Position.newBuilder()
+                        .setTimestamp(timestamp)
+                        .setLatitude(position[SimulatedFlightPath.LATITUDE])
+                        .setLongitude(position[SimulatedFlightPath.LONGITUDE])
+                        .setAltitudeAgl((float) altitude - 30)
+                        .setAltitudeMsl((float) altitude)
+                        .setHorizontalAccuracy(2.5f)
+                        .build());
+                messages.add(Telemetry.Attitude.newBuilder()
+                        .setTimestamp(timestamp)
+                        .setYaw((float) yaw)
+                        .setPitch((float) pitch)
+                        .setRoll((float) roll)
+                        .build());
+                messages.add(Telemetry.Speed.newBuilder()
+                        .setTimestamp(timestamp)
+                        .setVelocityX((float) north)
+                        .setVelocityY((float) east)
+                        .setVelocityZ((float) down)
+                        .build());
+                if (barometer) {
+                    messages.add(Telemetry.Barometer.newBuilder()
+                            .setTimestamp(timestamp)
+                            .setPressure((float) pressure)
+                            .build());
+                }
+                int length = encoder.encode(packetNumber++, messages);
+                packet.setData(encoder.getBuffer(), 0, length);
+                socket.send(packet);
+            }
+            samples += barometer ? 4 : 3;
+        }
+
+        void close() {
+            if (session != null) {
+                session.close();
+            } else {
+                encoder.release();
+                socket.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.airmap.airmapsdk.networking.services;
+
+import com.airmap.airmapsdk.models.Telemetry;
+import com.google.protobuf.MessageLite;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Throughput of many concurrent telemetry sessions sharing one sender, measured against a
+ * loopback receiver. Only runs when benchmarks are enabled, see {@link Benchmarks}.
+ */
+public class TelemetryMultiFlightBenchmark {
+
+    private static final int FLIGHTS = 50;
+    private static final int PRODUCERS = 4;
+    private static final int SAMPLE_RATE = 100; // per flight, per second
+    private static final long DURATION = 3000;
+
+    @Test
+    public void fiftyFlights() throws Exception {
+        Benchmarks.assumeEnabled();
+        TelemetryReceiver receiver = new TelemetryReceiver();
+
+        TelemetrySettings settings = new TelemetrySettings(null);
+        settings.ratePolicy = new TelemetryRatePolicy() {
+            @Override
+            public boolean shouldSend(MessageLite sample, MessageLite lastSent, long elapsed) {
+                return true;
+            }
+        };
+        TelemetrySender sender = new TelemetrySender();
+        Scheduler.Worker deadlines = Schedulers.computation().createWorker();
+
+        final List<TelemetrySession> sessions = new ArrayList<>();
+        for (int i = 0; i < FLIGHTS; i++) {
+            String flightId = "flight|" + i;
+            byte[] key = new byte[32];
+            key[0] = (byte) i;
+            receiver.addKey(flightId, key);
+            TelemetrySession session = new TelemetrySession(flightId, receiver.getHost(), receiver.getPort(), settings, sender, deadlines);
+            session.start(key);
+            sessions.add(session);
+        }
+
+        final AtomicLong samples = new AtomicLong();
+        final long end = System.currentTimeMillis() + DURATION;
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long count = 0;
+                    long next = System.currentTimeMillis();
+                    while (System.currentTimeMillis() < end) {
+                        for (int i = producer; i < FLIGHTS; i += PRODUCERS) {
+                            sessions.get(i).accept(Telemetry.Position.newBuilder()
+                                    .setTimestamp(System.currentTimeMillis())
+                                    .setLatitude(34 + i * 0.001)
+                                    .setLongitude(-118 + count * 0.00001)
+                                    .setAltitudeMsl(100)
+                                    .build());
+                            count++;
+                        }
+                        next += 1000 / SAMPLE_RATE;
+                        long delay = next - System.currentTimeMillis();
+                        if (delay > 0) {
+                            try {
+                                Thread.sleep(delay);
+                            } catch (InterruptedException e) {
+                                break;
+                            }
+                        }
+                    }
+                    samples.addAndGet(count);
+                }
+            });
+            producers.add(thread);
+            thread.start();
+        }
+        for (Thread thread : producers) {
+            thread.join();
+        }
+
+        for (TelemetrySession session : sessions) {
+            session.close();
+        }
+        Thread.sleep(500);
+        receiver.close();
+        sender.shutdown();
+        deadlines.unsubscribe();
+
+        double seconds = DURATION / 1000d;
+        Benchmarks.report("%d flights: %.0f samples/s accepted, %.0f packets/s, %.0f KB/s received, %d batches dropped, %.2f ms average time in queue",
+                FLIGHTS, samples.get() / seconds, receiver.getPacketCount() / seconds, receiver.getByteCount() / seconds / 1024,
+                sender.getDroppedCount(), sender.getAverageQueueTime());
+
+        assertTrue(receiver.getPacketCount() > 0);
+        assertEquals(0, receiver.getInvalidPacketCount());
+    }
+}
@@ -0,0 +1,209 @@
+package com.airmap.airmapsdk.networking.services;
+
+import com.airmap.airmapsdk.models.Telemetry;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Loopback stand-in for the telemetry host. Receives packets on 127.0.0.1, decrypts them with
+ * the keys it has been given and decodes every message in the payload, keeping count of what
+ * arrived and of the sequence numbers that didn't.
+ */
+class TelemetryReceiver {
+
+    private final DatagramSocket socket;
+    private final Thread thread;
+    private final Map<String, byte[]> keys = new ConcurrentHashMap<>();
+    private final Map<String, Flight> flights = new ConcurrentHashMap<>();
+
+    private final AtomicLong packets = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong invalidPackets = new AtomicLong();
+    private final long[] messagesByType = new long[TelemetryEncoder.MessageType.values().length];
+
+    TelemetryReceiver() throws IOException {
+        socket = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        socket.setReceiveBufferSize(4 * 1024 * 1024);
+        socket.setSoTimeout(100);
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receive();
+            }
+        }, "TelemetryReceiver");
+        thread.start();
+    }
+
+    String getHost() {
+        return "127.0.0.1";
+    }
+
+    int getPort() {
+        return socket.getLocalPort();
+    }
+
+    /**
+     * Register the comm key packets for a flight are encrypted with
+     */
+    void addKey(String flightId, byte[] key) {
+        keys.put(flightId, key);
+    }
+
+    long getPacketCount() {
+        return packets.get();
+    }
+
+    long getByteCount() {
+        return bytes.get();
+    }
+
+    long getMessageCount() {
+        return messages.get();
+    }
+
+    synchronized long getMessageCount(TelemetryEncoder.MessageType type) {
+        return messagesByType[type.ordinal()];
+    }
+
+    /**
+     * @return packets that couldn't be decrypted or decoded
+     */
+    long getInvalidPacketCount() {
+        return invalidPackets.get();
+    }
+
+    /**
+     * @return sequence numbers missing between the first and last packet received for each flight
+     */
+    long getLostPacketCount() {
+        long lost = 0;
+        for (Flight flight : flights.values()) {
+            lost += flight.lost();
+        }
+        return lost;
+    }
+
+    /**
+     * Stop receiving and wait for the receiver thread to finish
+     */
+    void close() throws InterruptedException {
+        socket.close();
+        thread.join();
+    }
+
+    private void receive() {
+        DatagramPacket packet = new DatagramPacket(new byte[TelemetryEncoder.MAX_PACKET_SIZE], TelemetryEncoder.MAX_PACKET_SIZE);
+        while (!socket.isClosed()) {
+            try {
+                socket.receive(packet);
+            } catch (SocketTimeoutException e) {
+                continue;
+            } catch (IOException e) {
+                return;
+            }
+            if (socket.isClosed()) {
+                // woken up by close() rather than a packet
+                return;
+            }
+
+            packets.incrementAndGet();
+            bytes.addAndGet(packet.getLength());
+            try {
+                decode(ByteBuffer.wrap(packet.getData(), 0, packet.getLength()));
+            } catch (GeneralSecurityException | InvalidProtocolBufferException | RuntimeException e) {
+                invalidPackets.incrementAndGet();
+            }
+        }
+    }
+
+    private void decode(ByteBuffer packet) throws GeneralSecurityException, InvalidProtocolBufferException {
+        int serial = packet.getInt();
+        byte[] flightIdBytes = new byte[packet.get() & 0xFF];
+        packet.get(flightIdBytes);
+        String flightId = new String(flightIdBytes);
+
+        ByteBuffer payload;
+        if (packet.get() == 1) {
+            byte[] key = keys.get(flightId);
+            if (key == null) {
+                throw new GeneralSecurityException("No key for " + flightId);
+            }
+            byte[] iv = new byte[TelemetryEncoder.BLOCK_SIZE];
+            packet.get(iv);
+            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+            payload = ByteBuffer.wrap(cipher.doFinal(packet.array(), packet.position(), packet.remaining()));
+        } else {
+            payload = packet.slice();
+        }
+
+        while (payload.hasRemaining()) {
+            int type = payload.getShort();
+            byte[] message = new byte[payload.getShort() & 0xFFFF];
+            payload.get(message);
+            count(parse(type, message));
+        }
+
+        Flight flight = flights.get(flightId);
+        if (flight == null) {
+            flight = new Flight();
+            flights.put(flightId, flight);
+        }
+        flight.received(serial);
+    }
+
+    private static MessageLite parse(int type, byte[] message) throws InvalidProtocolBufferException {
+        if (type == TelemetryEncoder.MessageType.POSITION.value) {
+            return Telemetry.Position.parseFrom(message);
+        } else if (type == TelemetryEncoder.MessageType.SPEED.value) {
+            return Telemetry.Speed.parseFrom(message);
+        } else if (type == TelemetryEncoder.MessageType.ATTITUDE.value) {
+            return Telemetry.Attitude.parseFrom(message);
+        } else if (type == TelemetryEncoder.MessageType.BAROMETER.value) {
+            return Telemetry.Barometer.parseFrom(message);
+        }
+        throw new InvalidProtocolBufferException("Unknown message type " + type);
+    }
+
+    private synchronized void count(MessageLite message) {
+        messages.incrementAndGet();
+        messagesByType[TelemetryEncoder.MessageType.from(message).ordinal()]++;
+    }
+
+    //Sequence numbers seen for a single flight
+    private static class Flight {
+        private int first = -1;
+        private int last = -1;
+        private long received;
+
+        synchronized void received(int serial) {
+            if (first < 0 || serial < first) {
+                first = serial;
+            }
+            if (serial > last) {
+                last = serial;
+            }
+            received++;
+        }
+
+        synchronized long lost() {
+            return first < 0 ? 0 : Math.max(0, last - first + 1 - received);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.airmap.airmapsdk.networking.services;
+
+import com.airmap.airmapsdk.models.Telemetry;
+import com.google.protobuf.MessageLite;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+
+public class TelemetryRecorderTest {
+
+    private static final String FLIGHT_ID = "flight|abc123";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordingReplaysInOrder() throws Exception {
+        List<MessageLite> samples = samples();
+        TelemetryRecorder recorder = new TelemetryRecorder(folder.getRoot(), FLIGHT_ID);
+        for (MessageLite sample : samples.subList(0, 2)) {
+            recorder.record(sample);
+        }
+        recorder.close();
+
+        // a new session for the same flight appends to the recording
+        recorder = new TelemetryRecorder(folder.getRoot(), FLIGHT_ID);
+        for (MessageLite sample : samples.subList(2, samples.size())) {
+            recorder.record(sample);
+        }
+        recorder.close();
+
+        assertEquals(samples, read(TelemetryRecorder.getFile(folder.getRoot(), FLIGHT_ID)));
+    }
+
+    @Test
+    public void truncatedRecordingReadsCompleteSamples() throws Exception {
+        List<MessageLite> samples = samples();
+        TelemetryRecorder recorder = new TelemetryRecorder(folder.getRoot(), FLIGHT_ID);
+        for (MessageLite sample : samples) {
+            recorder.record(sample);
+        }
+        recorder.close();
+
+        File file = TelemetryRecorder.getFile(folder.getRoot(), FLIGHT_ID);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+
+        assertEquals(samples.subList(0, samples.size() - 1), read(file));
+    }
+
+    private static List<MessageLite> read(File file) throws Exception {
+        TelemetryRecording recording = new TelemetryRecording(file);
+        List<MessageLite> samples = new ArrayList<>();
+        MessageLite sample;
+        while ((sample = recording.next()) != null) {
+            samples.add(sample);
+        }
+        assertNull(recording.next());
+        recording.close();
+        return samples;
+    }
+
+    private static List<MessageLite> samples() {
+        List<MessageLite> samples = new ArrayList<>();
+        samples.add(Telemetry.Position.newBuilder().setTimestamp(1000).setLatitude(34.0158).setLongitude(-118.4951).setAltitudeMsl(120).build());
+        samples.add(Telemetry.Attitude.newBuilder().setTimestamp(1010).setYaw(90).setPitch(2).setRoll(-1).build());
+        samples.add(Telemetry.Speed.newBuilder().setTimestamp(1020).setVelocityX(5).setVelocityY(-1).build());
+        samples.add(Telemetry.Barometer.newBuilder().setTimestamp(1030).setPressure(1013.25f).build());
+        return samples;
+    }
+}
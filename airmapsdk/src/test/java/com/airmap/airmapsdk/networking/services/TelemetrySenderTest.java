@@ -0,0 +1,104 @@
+package com.airmap.airmapsdk.networking.services;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class TelemetrySenderTest {
+
+    private static final int CAPACITY = 4;
+
+    @Test
+    public void dropsOldestSendsButNeverControlTasks() throws Exception {
+        TelemetrySender sender = new TelemetrySender(CAPACITY);
+        final List<String> ran = new CopyOnWriteArrayList<>();
+
+        // hold the sender thread so everything after this queues up
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        sender.submit(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        sender.submitControl(task(ran, "release a"));
+        for (int i = 0; i < 10; i++) {
+            sender.submit(task(ran, "send " + i));
+            if (i == 5) {
+                sender.submitControl(task(ran, "release b"));
+            }
+        }
+        assertEquals(CAPACITY, sender.getQueueDepth());
+        assertEquals(6, sender.getDroppedCount());
+
+        final CountDownLatch done = new CountDownLatch(1);
+        sender.submitControl(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        blocked.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        sender.shutdown();
+
+        // the newest sends, and every control task in the order it was queued
+        assertEquals(Arrays.asList("release a", "release b", "send 6", "send 7", "send 8", "send 9"), ran);
+        assertEquals(0, sender.getQueueDepth());
+    }
+
+    @Test
+    public void failingTaskDoesntStopTheSender() throws Exception {
+        TelemetrySender sender = new TelemetrySender(CAPACITY);
+        final CountDownLatch done = new CountDownLatch(2);
+        sender.submit(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("send failed");
+            }
+        });
+        sender.submitControl(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("release failed");
+            }
+        });
+        sender.submit(countDown(done));
+        sender.submitControl(countDown(done));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        sender.shutdown();
+    }
+
+    private static Runnable task(final List<String> ran, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ran.add(name);
+            }
+        };
+    }
+
+    private static Runnable countDown(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+    }
+}
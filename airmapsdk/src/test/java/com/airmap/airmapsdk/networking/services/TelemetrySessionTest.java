@@ -0,0 +1,167 @@
+package com.airmap.airmapsdk.networking.services;
+
+import com.airmap.airmapsdk.models.Telemetry;
+import com.google.protobuf.MessageLite;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import rx.schedulers.TestScheduler;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class TelemetrySessionTest {
+
+    private static final String FLIGHT_ID = "flight|abc123";
+    private static final byte[] KEY = new byte[32];
+    private static final long TICK = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // the session's clock, which its ticks and batch deadlines run on
+    private final TestScheduler clock = new TestScheduler();
+    private final List<Runnable> sends = new CopyOnWriteArrayList<>();
+    private TelemetryReceiver receiver;
+    private TelemetrySettings settings;
+    private TelemetrySession session;
+
+    @Before
+    public void setUp() throws Exception {
+        receiver = new TelemetryReceiver();
+        receiver.addKey(FLIGHT_ID, KEY);
+        settings = new TelemetrySettings(null);
+        settings.tickInterval = TICK;
+        settings.ratePolicy = new TelemetryRatePolicy() {
+            @Override
+            public boolean shouldSend(MessageLite sample, MessageLite lastSent, long elapsed) {
+                return true;
+            }
+        };
+        // keeps the batches the session hands over, to send them when the test is ready
+        TelemetrySender sender = new TelemetrySender() {
+            @Override
+            void submit(Runnable send) {
+                sends.add(send);
+            }
+        };
+        session = new TelemetrySession(FLIGHT_ID, receiver.getHost(), receiver.getPort(), settings, sender, clock.createWorker());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        receiver.close();
+    }
+
+    @Test
+    public void sendsBatchAtDeadline() throws Exception {
+        session.start(KEY);
+        session.accept(position(1));
+        clock.triggerActions();
+
+        session.accept(attitude(2));
+        clock.advanceTimeBy(TelemetrySettings.DEFAULT_MAX_BATCH_LATENCY - 1, TimeUnit.MILLISECONDS);
+        assertEquals(0, sends.size());
+
+        // the deadline runs from the first message in the batch, not the last
+        clock.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        assertEquals(1, sends.size());
+        sendAll(1, 2);
+    }
+
+    @Test
+    public void sendsBatchWhenNextMessageWontFit() throws Exception {
+        // room for three positions in a packet
+        int size = TelemetryEncoder.messageSize(position(1));
+        settings.maxPacketSize = new TelemetryEncoder(FLIGHT_ID, KEY, TelemetryEncoder.Encryption.AES256CBC).packetSize(3 * size);
+        session.start(KEY);
+        clock.triggerActions();
+
+        for (int i = 1; i <= 3; i++) {
+            session.accept(position(i));
+            clock.advanceTimeBy(TICK, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(0, sends.size());
+        session.accept(position(4));
+        clock.advanceTimeBy(TICK, TimeUnit.MILLISECONDS);
+        assertEquals(1, sends.size());
+
+        // the first batch's deadline passes without sending the second early
+        clock.advanceTimeBy(TelemetrySettings.DEFAULT_MAX_BATCH_LATENCY - 1, TimeUnit.MILLISECONDS);
+        assertEquals(1, sends.size());
+        clock.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        assertEquals(2, sends.size());
+        sendAll(2, 4);
+        assertTrue(receiver.getByteCount() <= 2 * settings.maxPacketSize);
+    }
+
+    @Test
+    public void resendsJournalWithoutLiveSamples() throws Exception {
+        // packets a previous session of the flight couldn't send
+        TelemetryEncoder encoder = new TelemetryEncoder(FLIGHT_ID, KEY, TelemetryEncoder.Encryption.AES256CBC);
+        TelemetryJournal journal = TelemetryJournal.open(folder.getRoot(), FLIGHT_ID, TelemetryJournal.DEFAULT_CAPACITY);
+        for (int i = 1; i <= 3; i++) {
+            int length = encoder.encode(i, Collections.<MessageLite>singletonList(position(i)));
+            journal.append(i, encoder.getBuffer(), length);
+            journal.setLastSequence(i);
+        }
+        journal.close();
+
+        TelemetrySettings settings = new TelemetrySettings(folder.getRoot());
+        session = new TelemetrySession(FLIGHT_ID, receiver.getHost(), receiver.getPort(), settings, new TelemetrySender(), clock.createWorker());
+        session.start(KEY);
+        assertEquals(4, session.getPacketNumber());
+
+        // no samples are given to the session, so only scheduled catch-ups resend the packets
+        long deadline = System.currentTimeMillis() + 5000;
+        while (receiver.getPacketCount() < 3 && System.currentTimeMillis() < deadline) {
+            clock.advanceTimeBy(1000 / settings.catchUpRate, TimeUnit.MILLISECONDS);
+            Thread.sleep(10);
+        }
+        assertEquals(3, receiver.getPacketCount());
+        assertEquals(3, receiver.getMessageCount());
+    }
+
+    //Sends the batches the session handed over, and waits for the receiver to get them
+    private void sendAll(int packets, int messages) throws InterruptedException {
+        for (Runnable send : sends) {
+            send.run();
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (receiver.getMessageCount() < messages && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(packets, receiver.getPacketCount());
+        assertEquals(messages, receiver.getMessageCount());
+        assertEquals(0, receiver.getInvalidPacketCount());
+    }
+
+    private static Telemetry.Position position(int i) {
+        return Telemetry.Position.newBuilder()
+                .setTimestamp(i)
+                .setLatitude(34 + i * 0.0001)
+                .setLongitude(-118)
+                .setAltitudeAgl(50)
+                .setAltitudeMsl(100)
+                .setHorizontalAccuracy(5)
+                .build();
+    }
+
+    private static Telemetry.Attitude attitude(int i) {
+        return Telemetry.Attitude.newBuilder()
+                .setTimestamp(i)
+                .setYaw(i)
+                .setPitch(1)
+                .setRoll(2)
+                .build();
+    }
+}
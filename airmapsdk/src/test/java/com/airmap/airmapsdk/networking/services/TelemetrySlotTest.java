@@ -0,0 +1,68 @@
+package com.airmap.airmapsdk.networking.services;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class TelemetrySlotTest {
+
+    private static final long WRITES = 2000000;
+
+    @Test
+    public void replacesUnreadSample() {
+        TelemetrySlot slot = new TelemetrySlot();
+        double[] fields = new double[TelemetrySlot.FIELDS];
+        assertEquals(-1, slot.take(fields));
+
+        assertTrue(slot.write(1, 1, 2, 3, 4, 5));
+        // replaced before it was taken, so the caller doesn't need to arrange another read
+        assertFalse(slot.write(2, 6, 7, 8, 9, 10));
+        assertEquals(2, slot.take(fields));
+        assertEquals(6.0, fields[0]);
+        assertEquals(10.0, fields[4]);
+        assertEquals(-1, slot.take(fields));
+
+        assertTrue(slot.write(3, 0, 0, 0, 0, 0));
+        assertEquals(3, slot.take(fields));
+    }
+
+    @Test
+    public void readerNeverSeesHalfWrittenSample() throws Exception {
+        final TelemetrySlot slot = new TelemetrySlot();
+        // every field is derived from the timestamp, so a torn read shows up as a mismatch
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (long timestamp = 1; timestamp <= WRITES; timestamp++) {
+                    slot.write(timestamp, timestamp, -timestamp, timestamp * 2, timestamp + 0.5, timestamp * 3);
+                }
+            }
+        });
+        writer.start();
+
+        double[] fields = new double[TelemetrySlot.FIELDS];
+        long last = 0;
+        while (true) {
+            boolean done = !writer.isAlive();
+            long timestamp = slot.take(fields);
+            if (timestamp >= 0) {
+                // never the same sample twice
+                assertTrue(timestamp > last);
+                last = timestamp;
+                assertEquals((double) timestamp, fields[0]);
+                assertEquals((double) -timestamp, fields[1]);
+                assertEquals(timestamp * 2d, fields[2]);
+                assertEquals(timestamp + 0.5, fields[3]);
+                assertEquals(timestamp * 3d, fields[4]);
+            } else if (done) {
+                break;
+            }
+        }
+        writer.join();
+
+        // the latest sample is never lost
+        assertEquals(WRITES, last);
+    }
+}
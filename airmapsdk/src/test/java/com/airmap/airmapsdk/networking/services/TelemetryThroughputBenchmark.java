@@ -0,0 +1,181 @@
+package com.airmap.airmapsdk.networking.services;
+
+import com.airmap.airmapsdk.models.Telemetry;
+import com.google.protobuf.MessageLite;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * End-to-end telemetry throughput against a {@link TelemetryReceiver}, plus encode latency
+ * percentiles. Only runs when benchmarks are enabled, see {@link Benchmarks}. Rates can be
+ * changed without editing the test, e.g.
+ *
+ * ./gradlew :airmapsdk:test --tests '*TelemetryThroughputBenchmark' -Dbenchmark=true -Dtelemetry.benchmark.positionRate=200
+ *
+ * Samples are given straight to each flight's session, as {@link TelemetryService#sendPositionMessage}
+ * and {@link TelemetryService#sendAttitudeMessage} do, since TelemetryService itself needs an
+ * initialized AirMap instance.
+ */
+public class TelemetryThroughputBenchmark {
+
+    private static final int FLIGHTS = Integer.getInteger("telemetry.benchmark.flights", 1);
+    private static final int POSITION_RATE = Integer.getInteger("telemetry.benchmark.positionRate", 50); // per second
+    private static final int ATTITUDE_RATE = Integer.getInteger("telemetry.benchmark.attitudeRate", 50); // per second
+    private static final long DURATION = Long.getLong("telemetry.benchmark.duration", 3000);
+    private static final int ENCODE_ITERATIONS = Integer.getInteger("telemetry.benchmark.encodes", 50000);
+
+    @Test
+    public void endToEnd() throws Exception {
+        Benchmarks.assumeEnabled();
+        TelemetryReceiver receiver = new TelemetryReceiver();
+
+        TelemetrySettings settings = new TelemetrySettings(null);
+        settings.ratePolicy = new TelemetryRatePolicy() {
+            @Override
+            public boolean shouldSend(MessageLite sample, MessageLite lastSent, long elapsed) {
+                return true;
+            }
+        };
+        TelemetrySender sender = new TelemetrySender();
+        Scheduler.Worker deadlines = Schedulers.computation().createWorker();
+
+        List<TelemetrySession> sessions = new ArrayList<>();
+        for (int i = 0; i < FLIGHTS; i++) {
+            String flightId = "flight|" + i;
+            byte[] key = key(i);
+            receiver.addKey(flightId, key);
+            TelemetrySession session = new TelemetrySession(flightId, receiver.getHost(), receiver.getPort(), settings, sender, deadlines);
+            session.start(key);
+            sessions.add(session);
+        }
+
+        long samples = 0;
+        long start = System.nanoTime();
+        long positionPeriod = 1000000000L / Math.max(1, POSITION_RATE);
+        long attitudePeriod = 1000000000L / Math.max(1, ATTITUDE_RATE);
+        long nextPosition = start;
+        long nextAttitude = start;
+        long end = start + DURATION * 1000000L;
+        while (System.nanoTime() < end) {
+            long now = System.nanoTime();
+            if (POSITION_RATE > 0 && now >= nextPosition) {
+                for (TelemetrySession session : sessions) {
+                    session.accept(position(samples));
+                    samples++;
+                }
+                nextPosition += positionPeriod;
+            }
+            if (ATTITUDE_RATE > 0 && now >= nextAttitude) {
+                for (TelemetrySession session : sessions) {
+                    session.accept(attitude(samples));
+                    samples++;
+                }
+                nextAttitude += attitudePeriod;
+            }
+            long sleep = Math.min(nextPosition, nextAttitude) - System.nanoTime();
+            if (sleep > 0) {
+                Thread.sleep(sleep / 1000000L, (int) (sleep % 1000000L));
+            }
+        }
+
+        for (TelemetrySession session : sessions) {
+            session.close();
+        }
+        Thread.sleep(500);
+        receiver.close();
+        sender.shutdown();
+        deadlines.unsubscribe();
+
+        double seconds = DURATION / 1000d;
+        // samples replaced in their slot or suppressed by the rate policy are dropped by design, so
+        // only the ones that were sent and never arrived count as lost
+        long sentSamples = settings.metrics.getSentSamples();
+        long lostSamples = sentSamples - receiver.getMessageCount();
+        Benchmarks.report("%d flights at %d position/s + %d attitude/s: %.0f packets/s, %.0f bytes/s, %d/%d samples sent, %d/%d sent samples lost (%.2f%%), %d packets lost, %d invalid, %d batches dropped",
+                FLIGHTS, POSITION_RATE, ATTITUDE_RATE, receiver.getPacketCount() / seconds, receiver.getByteCount() / seconds,
+                sentSamples, samples, lostSamples, sentSamples, sentSamples == 0 ? 0 : lostSamples * 100d / sentSamples,
+                receiver.getLostPacketCount(), receiver.getInvalidPacketCount(), sender.getDroppedCount());
+        Benchmarks.report("in pipeline: encode %s us, socket send %s us", settings.metrics.getEncodeTime(), settings.metrics.getSocketSendTime());
+
+        assertTrue(receiver.getPacketCount() > 0);
+        assertEquals(0, receiver.getInvalidPacketCount());
+    }
+
+    @Test
+    public void encodeLatency() throws Exception {
+        Benchmarks.assumeEnabled();
+        TelemetryEncoder encoder = new TelemetryEncoder("flight|0", key(0), TelemetryEncoder.Encryption.AES256CBC);
+
+        // a batch as large as the default packet size allows, alternating positions and attitudes
+        List<MessageLite> batch = new ArrayList<>();
+        int payload = 0;
+        for (int i = 0; ; i++) {
+            MessageLite message = i % 2 == 0 ? position(i) : attitude(i);
+            payload += TelemetryEncoder.messageSize(message);
+            if (encoder.packetSize(payload) > TelemetrySettings.DEFAULT_MAX_PACKET_SIZE) {
+                break;
+            }
+            batch.add(message);
+        }
+
+        for (int i = 0; i < ENCODE_ITERATIONS / 10; i++) {
+            encoder.encode(i, batch);
+        }
+
+        long[] latencies = new long[ENCODE_ITERATIONS];
+        int length = 0;
+        for (int i = 0; i < ENCODE_ITERATIONS; i++) {
+            long start = System.nanoTime();
+            length = encoder.encode(i, batch);
+            latencies[i] = System.nanoTime() - start;
+        }
+        encoder.release();
+        Arrays.sort(latencies);
+
+        Benchmarks.report("encode %d messages into %d bytes: p50 %.1f us, p90 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us",
+                batch.size(), length, percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99),
+                percentile(latencies, 99.9), latencies[latencies.length - 1] / 1000d);
+    }
+
+    //Returns the given percentile of sorted nanosecond latencies, in microseconds
+    private static double percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile / 100d * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1000d;
+    }
+
+    private static byte[] key(int flight) {
+        byte[] key = new byte[32];
+        key[0] = (byte) flight;
+        return key;
+    }
+
+    private static Telemetry.Position position(long sample) {
+        return Telemetry.Position.newBuilder()
+                .setTimestamp(System.currentTimeMillis())
+                .setLatitude(34.0158 + sample * 0.000001)
+                .setLongitude(-118.4951)
+                .setAltitudeAgl(50)
+                .setAltitudeMsl(120)
+                .setHorizontalAccuracy(3)
+                .build();
+    }
+
+    private static Telemetry.Attitude attitude(long sample) {
+        return Telemetry.Attitude.newBuilder()
+                .setTimestamp(System.currentTimeMillis())
+                .setYaw(sample % 360)
+                .setPitch(2)
+                .setRoll(-1)
+                .build();
+    }
+}
@@ -0,0 +1,102 @@
+package com.airmap.airmapsdk.networking.services;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.functions.Action0;
+import rx.functions.Func0;
+import rx.functions.Func1;
+import rx.schedulers.TestScheduler;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class TokenRefresherTest {
+
+    private final AtomicInteger refreshes = new AtomicInteger();
+    private final AtomicInteger decodes = new AtomicInteger();
+    private final TestScheduler scheduler = new TestScheduler();
+    private volatile String token = "expired";
+
+    // tokens are named for when they expire
+    private final TokenRefresher refresher = new TokenRefresher(new Func0<String>() {
+        @Override
+        public String call() {
+            return token;
+        }
+    }, new Action0() {
+        @Override
+        public void call() {
+            refreshes.incrementAndGet();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            token = "fresh";
+        }
+    }, new Func1<String, Long>() {
+        @Override
+        public Long call(String token) {
+            decodes.incrementAndGet();
+            switch (token) {
+                case "expired":
+                    return System.currentTimeMillis() - 1000;
+                case "expiring":
+                    return System.currentTimeMillis() + TokenRefresher.REFRESH_AHEAD + 1000;
+                default:
+                    return System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+            }
+        }
+    }, scheduler);
+
+    @Test
+    public void concurrentRequestsShareOneRefresh() throws Exception {
+        assertTrue(refresher.isExpired(token));
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(50);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            results.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    start.await();
+                    return refresher.refresh("expired");
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<String> result : results) {
+            assertEquals("fresh", result.get(5, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+
+        assertEquals(1, refreshes.get());
+        assertFalse(refresher.isExpired(token));
+    }
+
+    @Test
+    public void decodesEachTokenOnceAndRefreshesAhead() throws Exception {
+        token = "expiring";
+        for (int i = 0; i < 100; i++) {
+            assertFalse(refresher.isExpired(token));
+        }
+        assertEquals(1, decodes.get());
+
+        scheduler.advanceTimeBy(500, TimeUnit.MILLISECONDS);
+        assertEquals(0, refreshes.get());
+        scheduler.advanceTimeBy(1000, TimeUnit.MILLISECONDS);
+        assertEquals(1, refreshes.get());
+        assertEquals("fresh", token);
+    }
+}
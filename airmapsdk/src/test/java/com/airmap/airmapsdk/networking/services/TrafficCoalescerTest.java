@@ -0,0 +1,126 @@
+package com.airmap.airmapsdk.networking.services;
+
+import com.airmap.airmapsdk.models.Coordinate;
+import com.airmap.airmapsdk.models.traffic.AirMapTraffic;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+public class TrafficCoalescerTest {
+
+    @Test
+    public void schedulesOncePerDrain() {
+        TrafficCoalescer coalescer = new TrafficCoalescer();
+        assertFalse(coalescer.add(Collections.<AirMapTraffic>emptyList()));
+        assertTrue(coalescer.add(list(traffic("a", 0))));
+        assertFalse(coalescer.update(list(traffic("a", 0))));
+        assertFalse(coalescer.add(list(traffic("b", 0))));
+        coalescer.drain();
+        assertTrue(coalescer.update(list(traffic("a", 0))));
+    }
+
+    @Test
+    public void mergesChangesBetweenDrains() {
+        TrafficCoalescer coalescer = new TrafficCoalescer();
+        AirMapTraffic a = traffic("a", 0);
+        AirMapTraffic b = traffic("b", 0);
+        coalescer.add(list(a, b));
+        coalescer.update(list(traffic("a", 100)));
+        coalescer.add(list(traffic("c", 0)));
+        coalescer.remove(list(traffic("c", 0)));
+
+        TrafficCoalescer.Diff diff = coalescer.drain();
+        assertEquals(Arrays.asList("a", "b"), ids(diff.added));
+        assertEquals(100 / TrafficIndex.METERS_PER_DEGREE, diff.added.get(0).getCoordinate().getLatitude(), 1e-9);
+        assertTrue(diff.updated.isEmpty());
+        assertTrue(diff.removed.isEmpty());
+        assertNull(coalescer.drain());
+
+        // removed wins over an earlier update, and a removed traffic that comes back is an update
+        coalescer.update(list(traffic("a", 200)));
+        coalescer.remove(list(a));
+        coalescer.remove(list(b));
+        coalescer.add(list(traffic("b", 0)));
+        diff = coalescer.drain();
+        assertTrue(diff.added.isEmpty());
+        assertEquals(Collections.singletonList("b"), ids(diff.updated));
+        assertEquals(Collections.singletonList("a"), ids(diff.removed));
+        assertEquals(1, coalescer.getDeliveredCount());
+
+        // removing traffic that was never delivered is not delivered either
+        coalescer.remove(list(traffic("z", 0)));
+        assertNull(coalescer.drain());
+    }
+
+    @Test
+    public void clearForgetsDeliveredTraffic() {
+        TrafficCoalescer coalescer = new TrafficCoalescer();
+        coalescer.add(list(traffic("a", 0), traffic("b", 0)));
+        coalescer.drain();
+        coalescer.update(list(traffic("a", 100)));
+
+        // as on reconnect, traffic that comes back is new again and pending changes are dropped
+        coalescer.clear();
+        assertEquals(0, coalescer.getDeliveredCount());
+        assertNull(coalescer.drain());
+        coalescer.add(list(traffic("a", 0)));
+        coalescer.remove(list(traffic("b", 0)));
+        TrafficCoalescer.Diff diff = coalescer.drain();
+        assertEquals(Collections.singletonList("a"), ids(diff.added));
+        assertTrue(diff.updated.isEmpty());
+        assertTrue(diff.removed.isEmpty());
+    }
+
+    @Test
+    public void suppressesSmallMoves() {
+        TrafficCoalescer coalescer = new TrafficCoalescer();
+        coalescer.add(list(traffic("a", 0)));
+        coalescer.drain();
+
+        coalescer.update(list(traffic("a", 6)));
+        assertNull(coalescer.drain());
+        // measured from where it was last delivered, so small moves add up
+        coalescer.update(list(traffic("a", 12)));
+        assertEquals(1, coalescer.drain().updated.size());
+        coalescer.update(list(traffic("a", 18)));
+        assertNull(coalescer.drain());
+
+        coalescer.update(list(traffic("a", 12).setAltitudeFt(50)));
+        assertEquals(1, coalescer.drain().updated.size());
+
+        coalescer.update(list(traffic("a", 12).setAltitudeFt(50).setShowAlert(true)));
+        assertEquals(1, coalescer.drain().updated.size());
+
+        coalescer.setThreshold(0);
+        coalescer.update(list(traffic("a", 12).setAltitudeFt(50).setShowAlert(true)));
+        assertEquals(1, coalescer.drain().updated.size());
+    }
+
+    private static AirMapTraffic traffic(String id, double north) {
+        Coordinate coordinate = new Coordinate(north / TrafficIndex.METERS_PER_DEGREE, 0);
+        return new AirMapTraffic()
+                .setId(id)
+                .setTrafficType(AirMapTraffic.TrafficType.SituationalAwareness)
+                .setCoordinate(coordinate);
+    }
+
+    private static List<AirMapTraffic> list(AirMapTraffic... traffic) {
+        return Arrays.asList(traffic);
+    }
+
+    private static List<String> ids(List<AirMapTraffic> traffic) {
+        String[] ids = new String[traffic.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = traffic.get(i).getId();
+        }
+        return Arrays.asList(ids);
+    }
+}
@@ -0,0 +1,81 @@
+package com.airmap.airmapsdk.networking.services;
+
+import com.airmap.airmapsdk.models.Coordinate;
+import com.airmap.airmapsdk.models.traffic.AirMapTraffic;
+
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.Random;
+
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Time to assess conflicts for one ownship position, with traffic spread over about 50 km around
+ * ownship. Reloading is measured separately from assessing, as the arrays are only reloaded when a
+ * traffic report arrives. Only runs when benchmarks are enabled, see {@link Benchmarks}. Configure
+ * it with system properties, e.g.
+ *
+ * ./gradlew :airmapsdk:test --tests '*TrafficConflictBenchmark' -Dbenchmark=true -Dtraffic.benchmark.targets=20000
+ */
+public class TrafficConflictBenchmark {
+
+    private static final int TARGETS = Integer.getInteger("traffic.benchmark.targets", 5000);
+    private static final int POSITIONS = Integer.getInteger("traffic.benchmark.positions", 2000);
+    private static final int WARMUP = 500;
+    private static final int RELOADS = 200;
+
+    @Test
+    public void assess() {
+        Benchmarks.assumeEnabled();
+        Random random = new Random(1);
+        long now = System.currentTimeMillis();
+        TrafficStore store = new TrafficStore();
+        for (int i = 0; i < TARGETS; i++) {
+            Coordinate coordinate = new Coordinate(34 + (random.nextDouble() - 0.5) * 0.45, -118.5 + (random.nextDouble() - 0.5) * 0.55);
+            store.put(new AirMapTraffic()
+                    .setId("traffic|" + i)
+                    .setGroundSpeedKt(60 + random.nextInt(200))
+                    .setTrueHeading(random.nextInt(360))
+                    .setAltitudeFt(random.nextInt(5000))
+                    .setRecordedTime(new Date(now))
+                    .setIncomingTime(new Date(now))
+                    .setInitialCoordinate(coordinate)
+                    .setCoordinate(coordinate));
+        }
+        TrafficConflictDetector detector = new TrafficConflictDetector(store);
+        detector.setOwnshipVelocity(10, 5, 0);
+
+        long conflicts = 0;
+        long assessing = 0;
+        long max = 0;
+        for (int i = 0; i < WARMUP + POSITIONS; i++) {
+            if (i == WARMUP) {
+                conflicts = 0;
+                assessing = 0;
+                max = 0;
+            }
+            double seconds = i / 10d;
+            long start = System.nanoTime();
+            conflicts += detector.assess(34 + seconds * 10 / TrafficIndex.METERS_PER_DEGREE, -118.5, 100, now + (long) (seconds * 1000)).size();
+            long elapsed = System.nanoTime() - start;
+            assessing += elapsed;
+            max = Math.max(max, elapsed);
+        }
+
+        long reloading = 0;
+        for (int i = 0; i < RELOADS; i++) {
+            AirMapTraffic traffic = store.snapshot()[i];
+            store.put(traffic);
+            store.remove(traffic.getId());
+            store.put(traffic);
+            long start = System.nanoTime();
+            detector.assess(34, -118.5, 100, now);
+            reloading += System.nanoTime() - start;
+        }
+
+        assertTrue(conflicts > 0);
+        Benchmarks.report("%d targets: %.1f us per position (max %.1f us), %.1f us with a reload, %.1f conflicts per position",
+                TARGETS, assessing / 1e3 / POSITIONS, max / 1e3, reloading / 1e3 / RELOADS, conflicts / (double) POSITIONS);
+    }
+}
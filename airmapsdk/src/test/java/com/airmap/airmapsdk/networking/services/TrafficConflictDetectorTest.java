@@ -0,0 +1,190 @@
+package com.airmap.airmapsdk.networking.services;
+
+import com.airmap.airmapsdk.models.Coordinate;
+import com.airmap.airmapsdk.models.traffic.AirMapTraffic;
+import com.airmap.airmapsdk.models.traffic.AirMapTrafficConflict;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class TrafficConflictDetectorTest {
+
+    private static final double LATITUDE = 34.0;
+    private static final double LONGITUDE = -118.5;
+    private static final long NOW = 1500000000000L;
+    private static final double METERS_PER_KNOT = 0.514444;
+
+    private TrafficStore store;
+    private TrafficConflictDetector detector;
+
+    @Before
+    public void setUp() {
+        store = new TrafficStore();
+        detector = new TrafficConflictDetector(store);
+    }
+
+    @Test
+    public void headOn() {
+        // 1 km north, flying south at 100 kt, straight at ownship
+        store.put(traffic("a", 1000, 0, 100, 180, 400));
+
+        List<AirMapTrafficConflict> conflicts = detector.assess(LATITUDE, LONGITUDE, 120, NOW);
+        assertEquals(1, conflicts.size());
+        AirMapTrafficConflict conflict = conflicts.get(0);
+        assertEquals("a", conflict.getTraffic().getId());
+        assertEquals(1000 / (100 * METERS_PER_KNOT), conflict.getTimeToClosestApproach(), 0.01);
+        assertEquals(0, conflict.getClosestApproachDistance(), 1);
+        assertEquals(1000, conflict.getDistance(), 1);
+        assertEquals(400 - 120 / 0.3048, conflict.getVerticalSeparation(), 0.1);
+    }
+
+    @Test
+    public void deadReckonsFromReport() {
+        store.put(traffic("a", 1000, 0, 100, 180, 400));
+
+        // ten seconds after the report the traffic is about 514 m closer
+        List<AirMapTrafficConflict> conflicts = detector.assess(LATITUDE, LONGITUDE, 120, NOW + 10000);
+        assertEquals(1, conflicts.size());
+        assertEquals(1000 - 1000 * METERS_PER_KNOT, conflicts.get(0).getDistance(), 1);
+        assertEquals(1000 / (100 * METERS_PER_KNOT) - 10, conflicts.get(0).getTimeToClosestApproach(), 0.01);
+    }
+
+    @Test
+    public void passingWide() {
+        // passes 1500 m to the east
+        store.put(traffic("a", 1000, 1500, 100, 180, 400));
+        assertTrue(detector.assess(LATITUDE, LONGITUDE, 120, NOW).isEmpty());
+
+        // until the separation is widened
+        detector.setThresholds(30, 2000, 500);
+        List<AirMapTrafficConflict> conflicts = detector.assess(LATITUDE, LONGITUDE, 120, NOW);
+        assertEquals(1, conflicts.size());
+        assertEquals(1500, conflicts.get(0).getClosestApproachDistance(), 1);
+    }
+
+    @Test
+    public void beyondLookahead() {
+        // 20 km north, closest approach in about 390 s
+        store.put(traffic("a", 20000, 0, 100, 180, 400));
+        assertTrue(detector.assess(LATITUDE, LONGITUDE, 120, NOW).isEmpty());
+    }
+
+    @Test
+    public void diverging() {
+        // 500 m north, flying away: closest approach is now
+        store.put(traffic("a", 500, 0, 100, 0, 400));
+        List<AirMapTrafficConflict> conflicts = detector.assess(LATITUDE, LONGITUDE, 120, NOW);
+        assertEquals(1, conflicts.size());
+        assertEquals(0, conflicts.get(0).getTimeToClosestApproach(), 0);
+        assertEquals(500, conflicts.get(0).getClosestApproachDistance(), 1);
+    }
+
+    @Test
+    public void verticallySeparated() {
+        store.put(traffic("a", 2000, 0, 100, 180, 3000));
+        assertTrue(detector.assess(LATITUDE, LONGITUDE, 120, NOW).isEmpty());
+
+        // ownship climbing at 20 m/s from 400 m is within 300 ft of it 30 s from now
+        detector.setOwnshipVelocity(0, 0, -20);
+        List<AirMapTrafficConflict> conflicts = detector.assess(LATITUDE, LONGITUDE, 400, NOW);
+        assertEquals(1, conflicts.size());
+        assertEquals(30, conflicts.get(0).getTimeToClosestApproach(), 0);
+        assertEquals(3000 - 1000 / 0.3048, conflicts.get(0).getVerticalSeparation(), 0.1);
+    }
+
+    @Test
+    public void comparesAltitudesAboveSeaLevel() {
+        // traffic reports feet MSL, ownship meters MSL: 3000 ft is 914.4 m
+        store.put(traffic("a", 1000, 0, 100, 180, 3000));
+        List<AirMapTrafficConflict> conflicts = detector.assess(LATITUDE, LONGITUDE, 914.4, NOW);
+        assertEquals(1, conflicts.size());
+        assertEquals(0, conflicts.get(0).getVerticalSeparation(), 0.01);
+
+        // taken as feet, 3000 m would be level with it, but it is 6843 ft above
+        assertTrue(detector.assess(LATITUDE, LONGITUDE, 3000, NOW).isEmpty());
+    }
+
+    @Test
+    public void ownshipVelocity() {
+        // stationary traffic 800 m east
+        store.put(traffic("a", 0, 800, -1, -1, 400));
+        detector.setOwnshipVelocity(0, 0, 0);
+        List<AirMapTrafficConflict> conflicts = detector.assess(LATITUDE, LONGITUDE, 120, NOW);
+        assertEquals(1, conflicts.size());
+        assertEquals(0, conflicts.get(0).getTimeToClosestApproach(), 0);
+
+        // flying east at 40 m/s, ownship reaches it in 20 s
+        detector.setOwnshipVelocity(0, 40, 0);
+        conflicts = detector.assess(LATITUDE, LONGITUDE, 120, NOW);
+        assertEquals(20, conflicts.get(0).getTimeToClosestApproach(), 0.01);
+        assertEquals(0, conflicts.get(0).getClosestApproachDistance(), 1);
+    }
+
+    @Test
+    public void rankedSoonestFirst() {
+        // closest approach after the lookahead, but within the separation at the end of it
+        store.put(traffic("late", 2000, 0, 100, 180, 400));
+        store.put(traffic("soon", 0, -1000, 100, 90, 400));
+        store.put(traffic("now", 300, 300, -1, -1, 400));
+        store.put(traffic("clear", -3000, 0, 100, 180, 400));
+
+        List<AirMapTrafficConflict> conflicts = detector.assess(LATITUDE, LONGITUDE, 120, NOW);
+        assertEquals(3, conflicts.size());
+        assertEquals("now", conflicts.get(0).getTraffic().getId());
+        assertEquals("soon", conflicts.get(1).getTraffic().getId());
+        assertEquals("late", conflicts.get(2).getTraffic().getId());
+    }
+
+    @Test
+    public void followsStoreChanges() {
+        AirMapTraffic traffic = traffic("a", 2000, 0, 100, 180, 400);
+        store.put(traffic);
+        assertEquals(1, detector.assess(LATITUDE, LONGITUDE, 120, NOW).size());
+
+        // an update turning the traffic away
+        store.put(traffic("a", 2000, 0, 100, 0, 400));
+        assertTrue(detector.assess(LATITUDE, LONGITUDE, 120, NOW).isEmpty());
+
+        store.put(traffic("b", 2000, 0, 100, 180, 400));
+        store.remove("b");
+        assertTrue(detector.assess(LATITUDE, LONGITUDE, 120, NOW).isEmpty());
+    }
+
+    @Test
+    public void ownshipFarFromAnchor() {
+        store.put(traffic("a", 2000, 0, 100, 180, 400));
+        assertEquals(1, detector.assess(LATITUDE, LONGITUDE, 120, NOW).size());
+
+        // 50 km east, with traffic around the new position
+        double east = 50000 / (TrafficIndex.METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE)));
+        assertTrue(detector.assess(LATITUDE, LONGITUDE + east, 120, NOW).isEmpty());
+        store.put(traffic("b", 1000, 50000, 100, 180, 400));
+        List<AirMapTrafficConflict> conflicts = detector.assess(LATITUDE, LONGITUDE + east, 120, NOW);
+        assertEquals(1, conflicts.size());
+        assertEquals(0, conflicts.get(0).getClosestApproachDistance(), 5);
+    }
+
+    /**
+     * @param north meters north of ownship when reported
+     * @param east  meters east of ownship when reported
+     */
+    private static AirMapTraffic traffic(String id, double north, double east, int groundSpeedKt, int trueHeading, double altitudeFt) {
+        Coordinate coordinate = new Coordinate(LATITUDE + north / TrafficIndex.METERS_PER_DEGREE,
+                LONGITUDE + east / (TrafficIndex.METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE))));
+        return new AirMapTraffic()
+                .setId(id)
+                .setGroundSpeedKt(groundSpeedKt)
+                .setTrueHeading(trueHeading)
+                .setAltitudeFt(altitudeFt)
+                .setRecordedTime(new Date(NOW))
+                .setIncomingTime(new Date(NOW))
+                .setInitialCoordinate(coordinate)
+                .setCoordinate(coordinate);
+    }
+}
@@ -0,0 +1,122 @@
+package com.airmap.airmapsdk.networking.services;
+
+import com.airmap.airmapsdk.models.traffic.AirMapTraffic;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class TrafficDecoderTest {
+
+    private static final String MESSAGE = "{\"traffic\":["
+            + "{\"id\":\"a\",\"direction\":12.5,\"altitude\":1500,\"ground_speed_kts\":120,\"true_heading\":270,"
+            + "\"timestamp\":1500000000123,\"recorded_time\":1500000000,\"latitude\":34.01,\"longitude\":-118.49,"
+            + "\"properties\":{\"aircraft_id\":\"N123AB\",\"aircraft_type\":\"C172\",\"extra\":[1,2]},\"unknown\":{\"x\":null}},"
+            + "{\"id\":\"b\",\"altitude\":null,\"ground_speed_kts\":\"95\",\"true_heading\":null,\"latitude\":34.02,\"longitude\":-118.48,"
+            + "\"properties\":{\"aircraft_id\":null}},"
+            + "{\"id\":\"c\",\"ground_speed_kts\":80.7,\"latitude\":\"34.03\",\"longitude\":-118.47,"
+            + "\"properties\":{\"aircraft_type\":\"\\\"Cessna\\\" \\u00e9 \u00fc\\n\",\"aircraft_id\":true}}"
+            + "],\"other\":true}";
+
+    private final TrafficStore store = new TrafficStore();
+    private final TrafficDecoder decoder = new TrafficDecoder();
+
+    @Test
+    public void matchesJsonObject() throws Exception {
+        List<AirMapTraffic> decoded = apply(MESSAGE, 1000);
+
+        JSONArray array = new JSONObject(MESSAGE).getJSONArray("traffic");
+        assertEquals(array.length(), decoded.size());
+        for (int i = 0; i < array.length(); i++) {
+            AirMapTraffic expected = new AirMapTraffic(array.getJSONObject(i));
+            AirMapTraffic actual = decoded.get(i);
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.getDirection(), actual.getDirection());
+            assertEquals(expected.getAltitudeFt(), actual.getAltitudeFt());
+            assertEquals(expected.getGroundSpeedKt(), actual.getGroundSpeedKt());
+            assertEquals(expected.getTrueHeading(), actual.getTrueHeading());
+            assertEquals(expected.getTimestamp(), actual.getTimestamp());
+            assertEquals(expected.getRecordedTime(), actual.getRecordedTime());
+            assertEquals(expected.getInitialCoordinate().getLatitude(), actual.getInitialCoordinate().getLatitude());
+            assertEquals(expected.getInitialCoordinate().getLongitude(), actual.getInitialCoordinate().getLongitude());
+            assertEquals(expected.getProperties().getAircraftId(), actual.getProperties().getAircraftId());
+            assertEquals(expected.getProperties().getAircraftType(), actual.getProperties().getAircraftType());
+            assertEquals(1000, actual.getIncomingTime().getTime());
+        }
+    }
+
+    @Test
+    public void replacesKnownTraffic() throws Exception {
+        List<AirMapTraffic> first = apply(MESSAGE, 1000);
+
+        String update = "{\"traffic\":[{\"id\":\"a\",\"altitude\":2000,\"latitude\":34.05,\"longitude\":-118.45},{\"id\":\"d\"}]}";
+        List<AirMapTraffic> second = apply(update, 2000);
+        // the traffic listeners were given is left as it was
+        assertNotSame(first.get(0), second.get(0));
+        assertEquals(1500.0, first.get(0).getAltitudeFt());
+        assertEquals("N123AB", first.get(0).getProperties().getAircraftId());
+        assertEquals(1000, first.get(0).getIncomingTime().getTime());
+        assertEquals(2000.0, second.get(0).getAltitudeFt());
+        assertEquals(34.05, second.get(0).getInitialCoordinate().getLatitude());
+        assertEquals(-1, second.get(0).getGroundSpeedKt());
+        assertNull(second.get(0).getProperties().getAircraftId());
+        assertEquals(2000, second.get(0).getIncomingTime().getTime());
+        assertEquals("d", second.get(1).getId());
+        assertSame(second.get(1), store.get("d"));
+    }
+
+    @Test
+    public void malformed() throws Exception {
+        assertEquals(0, decoder.decode("{\"traffic\":null}".getBytes("UTF-8")).size());
+        try {
+            decoder.decode("{\"traffic\":[{\"id\":".getBytes("UTF-8"));
+            fail();
+        } catch (IOException expected) {
+        }
+        try {
+            decoder.decode("[]".getBytes("UTF-8"));
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void malformedMessageChangesNothing() throws Exception {
+        AirMapTraffic a = apply(MESSAGE, 1000).get(0);
+        try {
+            apply("{\"traffic\":[{\"id\":\"a\",\"altitude\":2000},{\"id\":\"b\",\"altitude\":", 2000);
+            fail();
+        } catch (IOException expected) {
+        }
+        assertEquals(1500.0, a.getAltitudeFt());
+        assertEquals(1000, a.getIncomingTime().getTime());
+    }
+
+    //Decodes a message and applies it to the store, like TrafficService does
+    private List<AirMapTraffic> apply(String message, long now) throws IOException {
+        List<TrafficDecoder.Report> reports = decoder.decode(message.getBytes("UTF-8"));
+        List<AirMapTraffic> added = new ArrayList<>();
+        List<AirMapTraffic> updated = new ArrayList<>();
+        store.apply(reports, AirMapTraffic.TrafficType.SituationalAwareness, now, added, updated);
+        List<AirMapTraffic> applied = new ArrayList<>();
+        for (TrafficDecoder.Report report : reports) {
+            applied.add(store.get(report.id));
+        }
+        return applied;
+    }
+}
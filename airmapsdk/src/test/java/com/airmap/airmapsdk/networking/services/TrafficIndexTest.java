@@ -0,0 +1,162 @@
+package com.airmap.airmapsdk.networking.services;
+
+import com.airmap.airmapsdk.models.Coordinate;
+import com.airmap.airmapsdk.models.traffic.AirMapTraffic;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class TrafficIndexTest {
+
+    private static final int TARGETS = 2000;
+
+    @Test
+    public void withinMatchesScan() {
+        Random random = new Random(42);
+        TrafficIndex index = new TrafficIndex();
+        List<AirMapTraffic> all = populate(index, random);
+
+        for (int i = 0; i < 100; i++) {
+            Coordinate center = randomCoordinate(random);
+            double radius = 500 + random.nextDouble() * 10000;
+            List<AirMapTraffic> expected = new ArrayList<>();
+            for (AirMapTraffic traffic : all) {
+                if (traffic.getAltitudeFt() >= 1000 && traffic.getAltitudeFt() <= 5000 && distance(center, traffic) <= radius) {
+                    expected.add(traffic);
+                }
+            }
+            List<AirMapTraffic> found = index.within(center, radius, 1000, 5000);
+            assertEquals(new HashSet<>(expected), new HashSet<>(found));
+            assertEquals(expected.size(), found.size());
+        }
+    }
+
+    @Test
+    public void nearestMatchesScan() {
+        Random random = new Random(7);
+        TrafficIndex index = new TrafficIndex();
+        List<AirMapTraffic> all = populate(index, random);
+
+        for (int i = 0; i < 100; i++) {
+            final Coordinate center = randomCoordinate(random);
+            List<AirMapTraffic> expected = new ArrayList<>(all);
+            Collections.sort(expected, new Comparator<AirMapTraffic>() {
+                @Override
+                public int compare(AirMapTraffic a, AirMapTraffic b) {
+                    return Double.compare(distance(center, a), distance(center, b));
+                }
+            });
+            assertEquals(expected.subList(0, 10), index.nearest(center, 10));
+        }
+        assertEquals(TARGETS, index.nearest(new Coordinate(0, 0), TARGETS + 1).size());
+    }
+
+    @Test
+    public void nearestFindsDistantTraffic() {
+        TrafficIndex index = new TrafficIndex();
+        AirMapTraffic near = traffic("near", 34, -118, 1000);
+        AirMapTraffic far = traffic("far", 40.6, -73.8, 1000);
+        AirMapTraffic farther = traffic("farther", -33.9, 151.2, 1000);
+        index.update(farther);
+        index.update(far);
+        index.update(near);
+
+        assertEquals(Arrays.asList(near, far, farther), index.nearest(new Coordinate(34, -118), 3));
+        assertEquals(Collections.singletonList(far), index.nearest(new Coordinate(45, -75), 1));
+    }
+
+    @Test
+    public void withinMatchesScanAfterRemovals() {
+        Random random = new Random(11);
+        TrafficIndex index = new TrafficIndex();
+        List<AirMapTraffic> all = populate(index, random);
+
+        // drop most of the traffic and move some of the rest, so cells empty out and are refilled
+        for (Iterator<AirMapTraffic> iterator = all.iterator(); iterator.hasNext(); ) {
+            AirMapTraffic traffic = iterator.next();
+            if (random.nextInt(4) != 0) {
+                index.remove(traffic);
+                iterator.remove();
+            } else if (random.nextBoolean()) {
+                traffic.setCoordinate(randomCoordinate(random));
+                index.update(traffic);
+            }
+        }
+        assertEquals(all.size(), index.size());
+
+        for (int i = 0; i < 100; i++) {
+            Coordinate center = randomCoordinate(random);
+            double radius = 500 + random.nextDouble() * 10000;
+            List<AirMapTraffic> expected = new ArrayList<>();
+            for (AirMapTraffic traffic : all) {
+                if (distance(center, traffic) <= radius) {
+                    expected.add(traffic);
+                }
+            }
+            assertEquals(new HashSet<>(expected), new HashSet<>(index.within(center, radius, 0, 10000)));
+        }
+    }
+
+    @Test
+    public void movedAndReplacedTraffic() {
+        TrafficIndex index = new TrafficIndex();
+        AirMapTraffic first = traffic("a", 34, -118, 1000);
+        index.update(first);
+
+        first.setCoordinate(new Coordinate(35, -117));
+        index.update(first);
+        assertTrue(index.within(new Coordinate(34, -118), 1000, 0, 10000).isEmpty());
+        assertEquals(1, index.within(new Coordinate(35, -117), 1000, 0, 10000).size());
+
+        // removing traffic that has since been replaced leaves the replacement indexed
+        AirMapTraffic second = traffic("a", 35, -117, 1000);
+        index.update(second);
+        index.remove(first);
+        assertEquals(Collections.singletonList(second), index.nearest(new Coordinate(35, -117), 5));
+
+        index.remove(second);
+        assertEquals(0, index.size());
+        assertTrue(index.nearest(new Coordinate(35, -117), 5).isEmpty());
+    }
+
+    private static List<AirMapTraffic> populate(TrafficIndex index, Random random) {
+        List<AirMapTraffic> all = new ArrayList<>();
+        for (int i = 0; i < TARGETS; i++) {
+            Coordinate coordinate = randomCoordinate(random);
+            AirMapTraffic traffic = traffic("traffic|" + i, coordinate.getLatitude(), coordinate.getLongitude(), random.nextInt(10000));
+            index.update(traffic);
+            all.add(traffic);
+        }
+        return all;
+    }
+
+    // within about 25 km of Santa Monica
+    private static Coordinate randomCoordinate(Random random) {
+        return new Coordinate(34 + (random.nextDouble() - 0.5) * 0.45, -118.5 + (random.nextDouble() - 0.5) * 0.55);
+    }
+
+    private static AirMapTraffic traffic(String id, double latitude, double longitude, double altitude) {
+        return new AirMapTraffic()
+                .setId(id)
+                .setAltitudeFt(altitude)
+                .setCoordinate(new Coordinate(latitude, longitude));
+    }
+
+    private static double distance(Coordinate center, AirMapTraffic traffic) {
+        double north = (traffic.getCoordinate().getLatitude() - center.getLatitude()) * TrafficIndex.METERS_PER_DEGREE;
+        double east = (traffic.getCoordinate().getLongitude() - center.getLongitude()) * TrafficIndex.METERS_PER_DEGREE
+                * Math.cos(Math.toRadians(center.getLatitude()));
+        return Math.sqrt(north * north + east * east);
+    }
+}
@@ -0,0 +1,151 @@
+package com.airmap.airmapsdk.networking.services;
+
+import com.airmap.airmapsdk.models.traffic.AirMapTraffic;
+import com.airmap.airmapsdk.networking.callbacks.AirMapTrafficListener;
+
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * End to end capacity test of the TrafficService, from an MQTT broker on localhost through to the
+ * listeners, with simulated aircraft. Only runs when benchmarks are enabled, see {@link Benchmarks}.
+ * Configure it with system properties, e.g.
+ *
+ * ./gradlew :airmapsdk:test --tests '*TrafficLoadBenchmark' -Dbenchmark=true -Dtraffic.load.rate=20000 -Dtraffic.load.aircraft=2000
+ *
+ * The duration is kept under a minute, when the service would ask the API for the current flight.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class TrafficLoadBenchmark {
+
+    private static final int AIRCRAFT = Integer.getInteger("traffic.load.aircraft", 500);
+    private static final int RATE = Integer.getInteger("traffic.load.rate", 10000); // messages per minute
+    private static final int BATCH = Integer.getInteger("traffic.load.batch", 1); // aircraft per message
+    private static final int ALERT_EVERY = Integer.getInteger("traffic.load.alertEvery", 20); // messages
+    private static final long DURATION = Long.getLong("traffic.load.duration", 20000);
+    private static final String FLIGHT_ID = "flight|load";
+
+    @Test
+    public void keepsUpWithSimulatedAircraft() throws Exception {
+        Benchmarks.assumeEnabled();
+        AirMap.setConfig(new JSONObject("{\"airmap\":{\"domain\":\"localhost\"}}"));
+        MqttTestBroker broker = new MqttTestBroker();
+        TrafficService service = new TrafficService(new MqttAsyncClient(broker.getUri(), "traffic-load-benchmark", new MemoryPersistence()), "");
+        service.setUpdateThreshold(0);
+        service.setDispatchInterval(16);
+        final TelemetryMetrics.Histogram latency = new TelemetryMetrics.Histogram();
+        final long[] notified = new long[1];
+        AirMapTrafficListener listener = new AirMapTrafficListener() {
+            @Override
+            public void onAddTraffic(List<AirMapTraffic> added) {
+                record(added);
+            }
+
+            @Override
+            public void onUpdateTraffic(List<AirMapTraffic> updated) {
+                record(updated);
+            }
+
+            @Override
+            public void onRemoveTraffic(List<AirMapTraffic> removed) {
+            }
+
+            private void record(List<AirMapTraffic> traffic) {
+                long now = System.currentTimeMillis();
+                for (AirMapTraffic target : traffic) {
+                    latency.record(now - target.getTimestamp().getTime());
+                }
+                notified[0] += traffic.size();
+            }
+        };
+
+        service.connect(FLIGHT_ID);
+        service.addListener(listener);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (broker.getSubscriptionCount() < 2) {
+            assertTrue("Didn't subscribe", System.currentTimeMillis() < deadline);
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+            Thread.sleep(10);
+        }
+
+        final TrafficLoadGenerator generator = new TrafficLoadGenerator(broker.getUri(), FLIGHT_ID, TelemetryLoadGenerator.paths(AIRCRAFT), BATCH, ALERT_EVERY);
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread publisher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    generator.run(RATE, DURATION);
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+            }
+        }, "traffic-load-publisher");
+
+        System.gc();
+        long heapStart = usedHeap();
+        long heapPeak = heapStart;
+        long cpuStart = processCpuTime();
+        publisher.start();
+        // the service notifies listeners on the main looper, so keep it running
+        while (publisher.isAlive()) {
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+            heapPeak = Math.max(heapPeak, usedHeap());
+            Thread.sleep(5);
+        }
+        deadline = System.currentTimeMillis() + 5000;
+        while (service.getMetrics().getMessages() < generator.getMessageCount() && System.currentTimeMillis() < deadline) {
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+            Thread.sleep(5);
+        }
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        long cpu = cpuStart < 0 ? -1 : processCpuTime() - cpuStart;
+        System.gc();
+        long heapEnd = usedHeap();
+
+        service.removeListener(listener);
+        service.disconnect();
+        generator.close();
+        broker.close();
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+
+        double minutes = DURATION / 60000d;
+        Benchmarks.report("%d aircraft, %d per message: %.0f messages/min published, %.0f received, %d late, %d listener notifications, latency ms %s, %s, heap %d KB retained, %d KB peak growth",
+                AIRCRAFT, BATCH, generator.getMessageCount() / minutes, service.getMetrics().getMessages() / minutes, generator.getLateCount(),
+                notified[0], latency, cpu < 0 ? "CPU time unavailable" : String.format("%.1f%% of a core", cpu / 1e6 / DURATION * 100),
+                (heapEnd - heapStart) / 1024, (heapPeak - heapStart) / 1024);
+
+        assertEquals(generator.getMessageCount(), broker.getPublishedCount());
+        assertEquals(generator.getMessageCount(), service.getMetrics().getMessages());
+        assertTrue(latency.getCount() > 0);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    //CPU used by the whole process, including the broker and publisher, in nanoseconds, or -1 if unavailable
+    private static long processCpuTime() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1;
+    }
+}
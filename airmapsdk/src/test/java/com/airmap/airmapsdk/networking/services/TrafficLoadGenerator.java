@@ -0,0 +1,131 @@
+package com.airmap.airmapsdk.networking.services;
+
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Publishes synthetic traffic for simulated aircraft to the situational awareness and alert
+ * channels of a flight, in the JSON the traffic service sends, at a fixed message rate. Each
+ * message reports the next few aircraft in turn, and carries the time it was published as its
+ * timestamp so receivers can measure latency.
+ */
+class TrafficLoadGenerator {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final double FEET_PER_METER = 3.28084;
+    private static final double KNOTS_PER_METER_PER_SECOND = 1.94384;
+
+    private final MqttClient client;
+    private final String saTopic;
+    private final String alertTopic;
+    private final List<SimulatedFlightPath> paths;
+    private final int batch;
+    private final int alertEvery;
+    private final StringBuilder json = new StringBuilder();
+    private final double[] position = new double[3];
+    private final double[] ahead = new double[3];
+
+    private int next;
+    private long messageCount;
+    private long trafficCount;
+    private long lateCount;
+
+    /**
+     * @param batch      how many aircraft each message reports
+     * @param alertEvery send every n-th message to the alert channel, or 0 for none
+     */
+    TrafficLoadGenerator(String brokerUri, String flightId, List<SimulatedFlightPath> paths, int batch, int alertEvery) throws MqttException {
+        this.paths = paths;
+        this.batch = Math.max(1, Math.min(batch, paths.size()));
+        this.alertEvery = alertEvery;
+        saTopic = String.format(BaseService.situationalAwarenessChannel, flightId);
+        alertTopic = String.format(BaseService.trafficAlertChannel, flightId);
+        client = new MqttClient(brokerUri, "traffic-load-generator", new MemoryPersistence());
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setCleanSession(true);
+        client.connect(options);
+    }
+
+    /**
+     * Publish at a steady rate, on the calling thread
+     *
+     * @param messagesPerMinute the rate to publish at
+     * @param duration          how long to publish for, in milliseconds
+     */
+    void run(int messagesPerMinute, long duration) throws MqttException {
+        long period = TimeUnit.MINUTES.toNanos(1) / messagesPerMinute;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(duration);
+        long due = start;
+        while (due < end) {
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            } else if (wait < -period) {
+                lateCount++;
+            }
+            publish((System.nanoTime() - start) / 1e9);
+            due += period;
+        }
+    }
+
+    private void publish(double seconds) throws MqttException {
+        boolean alert = alertEvery > 0 && messageCount % alertEvery == alertEvery - 1;
+        long now = System.currentTimeMillis();
+        json.setLength(0);
+        json.append("{\"traffic\":[");
+        for (int i = 0; i < batch; i++) {
+            int aircraft = next;
+            next = (next + 1) % paths.size();
+            SimulatedFlightPath path = paths.get(aircraft);
+            path.positionAt(seconds, position);
+            path.positionAt(seconds + 1, ahead);
+            double heading = Math.toDegrees(Math.atan2((ahead[1] - position[1]) * Math.cos(Math.toRadians(position[0])), ahead[0] - position[0]));
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(String.format(Locale.US,
+                    "{\"id\":\"flight|sim-%d\",\"direction\":%.1f,\"altitude\":%.0f,\"ground_speed_kts\":%d,\"true_heading\":%d,"
+                            + "\"timestamp\":%d,\"recorded_time\":%d,\"latitude\":%.6f,\"longitude\":%.6f,"
+                            + "\"properties\":{\"aircraft_id\":\"SIM%d\",\"aircraft_type\":\"C172\"}}",
+                    aircraft, (heading + 360) % 360, position[2] * FEET_PER_METER, Math.round(path.speed * KNOTS_PER_METER_PER_SECOND),
+                    Math.round((heading + 360) % 360) % 360, now, now / 1000, position[0], position[1], aircraft));
+            trafficCount++;
+        }
+        json.append("]}");
+        client.publish(alert ? alertTopic : saTopic, json.toString().getBytes(UTF_8), 0, false);
+        messageCount++;
+    }
+
+    long getMessageCount() {
+        return messageCount;
+    }
+
+    /**
+     * @return the number of aircraft reports, over all messages
+     */
+    long getTrafficCount() {
+        return trafficCount;
+    }
+
+    /**
+     * @return the number of messages published more than a period late, because publishing
+     * couldn't keep up
+     */
+    long getLateCount() {
+        return lateCount;
+    }
+
+    void close() throws MqttException {
+        client.disconnect();
+        client.close();
+    }
+}
@@ -0,0 +1,57 @@
+package com.airmap.airmapsdk.networking.services;
+
+import com.airmap.airmapsdk.models.traffic.AirMapTraffic;
+import com.airmap.airmapsdk.networking.callbacks.AirMapTrafficListener;
+
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class TrafficServiceTest {
+
+    @Test
+    public void connectsAgainAfterThereWasNoCurrentFlight() throws Exception {
+        AirMap.setConfig(new JSONObject("{\"airmap\":{\"domain\":\"localhost\"}}"));
+        final AtomicInteger requests = new AtomicInteger();
+        // there is no current flight, e.g. it has ended
+        TrafficService service = new TrafficService(new MqttAsyncClient("tcp://localhost:1883", "traffic-service-test", new MemoryPersistence()), "") {
+            @Override
+            void requestCurrentFlight() {
+                requests.incrementAndGet();
+                onCurrentFlight(null);
+            }
+        };
+
+        // adding the first listener connects
+        service.addListener(new AirMapTrafficListener() {
+            @Override
+            public void onAddTraffic(List<AirMapTraffic> added) {
+            }
+
+            @Override
+            public void onUpdateTraffic(List<AirMapTraffic> updated) {
+            }
+
+            @Override
+            public void onRemoveTraffic(List<AirMapTraffic> removed) {
+            }
+        });
+        assertEquals(1, requests.get());
+
+        // not left connecting, which would ignore this
+        service.connect();
+        assertEquals(2, requests.get());
+        service.disconnect();
+    }
+}
@@ -0,0 +1,179 @@
+package com.airmap.airmapsdk.networking.services;
+
+import com.airmap.airmapsdk.models.Coordinate;
+import com.airmap.airmapsdk.models.traffic.AirMapTraffic;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Per-tick cost of tracking situational awareness traffic: every target reports once, then the
+ * projections are updated and expired traffic removed, as TrafficService does each second. The
+ * copy-on-write list TrafficService used before is measured alongside for comparison. Only runs
+ * when benchmarks are enabled, see {@link Benchmarks}. Configure it with system properties, e.g.
+ *
+ * ./gradlew :airmapsdk:test --tests '*TrafficStoreBenchmark' -Dbenchmark=true -Dtraffic.benchmark.targets=5000
+ */
+public class TrafficStoreBenchmark {
+
+    private static final int TARGETS = Integer.getInteger("traffic.benchmark.targets", 2000);
+    private static final int TICKS = Integer.getInteger("traffic.benchmark.ticks", 20);
+    private static final int WARMUP = 5;
+
+    @Test
+    public void tick() {
+        Benchmarks.assumeEnabled();
+        TrafficStore store = new TrafficStore();
+        long[] phases = new long[3];
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < WARMUP + TICKS; i++) {
+            if (i == WARMUP) {
+                phases = new long[3];
+            }
+            now += 1000;
+            long start = System.nanoTime();
+            List<AirMapTraffic> added = new ArrayList<>();
+            List<AirMapTraffic> updated = new ArrayList<>();
+            for (int t = 0; t < TARGETS; t++) {
+                AirMapTraffic traffic = target(t, i, now);
+                traffic.setCoordinate(TrafficStore.projectedCoordinate(traffic, now));
+                if (store.put(traffic)) {
+                    added.add(traffic);
+                } else {
+                    updated.add(traffic);
+                }
+            }
+            long ingested = System.nanoTime();
+            store.expire(now);
+            long expired = System.nanoTime();
+            store.project(now);
+            long projected = System.nanoTime();
+
+            phases[0] += ingested - start;
+            phases[1] += expired - ingested;
+            phases[2] += projected - expired;
+        }
+        assertEquals(TARGETS, store.size());
+        report("TrafficStore", phases);
+    }
+
+    @Test
+    public void tickCopyOnWriteList() {
+        Benchmarks.assumeEnabled();
+        List<AirMapTraffic> list = new CopyOnWriteArrayList<>();
+        long[] phases = new long[3];
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < WARMUP + TICKS; i++) {
+            if (i == WARMUP) {
+                phases = new long[3];
+            }
+            now += 1000;
+            long start = System.nanoTime();
+            List<AirMapTraffic> added = new ArrayList<>();
+            List<AirMapTraffic> updated = new ArrayList<>();
+            for (int t = 0; t < TARGETS; t++) {
+                AirMapTraffic traffic = target(t, i, now);
+                traffic.setCoordinate(TrafficStore.projectedCoordinate(traffic, now));
+                int index = list.indexOf(traffic);
+                if (index != -1) {
+                    list.set(index, traffic);
+                    updated.add(traffic);
+                } else {
+                    list.add(traffic);
+                    added.add(traffic);
+                }
+            }
+            long ingested = System.nanoTime();
+            List<AirMapTraffic> old = new ArrayList<>();
+            for (AirMapTraffic traffic : list) {
+                if (traffic.getIncomingTime().getTime() + TrafficStore.EXPIRY < now) {
+                    old.add(traffic);
+                    list.remove(traffic);
+                }
+            }
+            long expired = System.nanoTime();
+            List<AirMapTraffic> moved = new ArrayList<>();
+            for (AirMapTraffic traffic : list) {
+                if (traffic.getGroundSpeedKt() > -1 && traffic.getTrueHeading() > -1) {
+                    list.remove(traffic);
+                    traffic.setCoordinate(TrafficStore.projectedCoordinate(traffic, now));
+                    traffic.setShowAlert(false);
+                    list.add(traffic);
+                    moved.add(traffic);
+                }
+            }
+            long projected = System.nanoTime();
+
+            phases[0] += ingested - start;
+            phases[1] += expired - ingested;
+            phases[2] += projected - expired;
+        }
+        assertEquals(TARGETS, list.size());
+        report("CopyOnWriteArrayList", phases);
+    }
+
+    @Test
+    public void query() {
+        Benchmarks.assumeEnabled();
+        TrafficStore store = new TrafficStore();
+        long now = System.currentTimeMillis();
+        for (int t = 0; t < TARGETS; t++) {
+            AirMapTraffic traffic = target(t, 0, now);
+            traffic.setCoordinate(traffic.getInitialCoordinate());
+            store.put(traffic);
+        }
+        Coordinate ownship = new Coordinate(34.1, -118.4);
+        int queries = 10000;
+        int found = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            found += store.within(ownship, 2000, 0, 3000).size();
+            found += store.nearest(ownship, 5).size();
+        }
+        long indexed = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            for (AirMapTraffic traffic : store.snapshot()) {
+                Coordinate coordinate = traffic.getCoordinate();
+                double north = (coordinate.getLatitude() - ownship.getLatitude()) * TrafficIndex.METERS_PER_DEGREE;
+                double east = (coordinate.getLongitude() - ownship.getLongitude()) * TrafficIndex.METERS_PER_DEGREE * Math.cos(Math.toRadians(ownship.getLatitude()));
+                if (traffic.getAltitudeFt() <= 3000 && north * north + east * east <= 2000 * 2000) {
+                    found--;
+                }
+            }
+        }
+        long scanned = System.nanoTime() - start;
+
+        assertTrue(found > 0);
+        Benchmarks.report("%d targets: radius and nearest-5 query %.1f us, radius scan %.1f us",
+                TARGETS, indexed / 1e3 / queries, scanned / 1e3 / queries);
+    }
+
+    private static AirMapTraffic target(int index, int tick, long now) {
+        double latitude = 34.0 + (index / 50) * 0.005;
+        double longitude = -118.5 + (index % 50) * 0.005;
+        return new AirMapTraffic()
+                .setId("traffic|" + index)
+                .setGroundSpeedKt(80 + index % 100)
+                .setTrueHeading((index * 37 + tick) % 360)
+                .setAltitudeFt(1000 + index % 20 * 500)
+                .setRecordedTime(new Date(now - 2000))
+                .setInitialCoordinate(new Coordinate(latitude, longitude))
+                .setIncomingTime(new Date(now))
+                .setTrafficType(AirMapTraffic.TrafficType.SituationalAwareness);
+    }
+
+    private static void report(String name, long[] phases) {
+        Benchmarks.report("%s: %d targets: %.2f ms per tick (ingest %.2f ms, expire %.2f ms, project %.2f ms)",
+                name, TARGETS, (phases[0] + phases[1] + phases[2]) / 1e6 / TICKS,
+                phases[0] / 1e6 / TICKS, phases[1] / 1e6 / TICKS, phases[2] / 1e6 / TICKS);
+    }
+}
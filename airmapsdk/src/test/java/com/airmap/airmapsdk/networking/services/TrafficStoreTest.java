@@ -0,0 +1,101 @@
+package com.airmap.airmapsdk.networking.services;
+
+import com.airmap.airmapsdk.models.Coordinate;
+import com.airmap.airmapsdk.models.traffic.AirMapTraffic;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class TrafficStoreTest {
+
+    private static final long NOW = 1500000000000L;
+
+    @Test
+    public void expiresUnheardTraffic() {
+        TrafficStore store = new TrafficStore();
+        AirMapTraffic a = traffic("a", NOW);
+        AirMapTraffic b = traffic("b", NOW + 10000);
+        store.put(a);
+        store.put(b);
+
+        assertTrue(store.expire(NOW + TrafficStore.EXPIRY).isEmpty());
+        assertEquals(Collections.singletonList(a), store.expire(NOW + TrafficStore.EXPIRY + 1));
+        assertNull(store.get("a"));
+        assertEquals(1, store.snapshot().length);
+        assertTrue(store.nearest(new Coordinate(34, -118.5), 5).contains(b));
+
+        assertEquals(Collections.singletonList(b), store.expire(NOW + 10000 + TrafficStore.EXPIRY + 1));
+        assertEquals(0, store.size());
+        assertEquals(0, store.snapshot().length);
+    }
+
+    @Test
+    public void updateDelaysExpiry() {
+        TrafficStore store = new TrafficStore();
+        store.put(traffic("a", NOW));
+        AirMapTraffic update = traffic("a", NOW + 20000);
+        store.put(update);
+
+        // the first report's deadline passes, and the entry moves to the update's
+        assertTrue(store.expire(NOW + TrafficStore.EXPIRY + 1).isEmpty());
+        assertSame(update, store.get("a"));
+
+        List<AirMapTraffic> expired = store.expire(NOW + 20000 + TrafficStore.EXPIRY + 1);
+        assertEquals(1, expired.size());
+        assertSame(update, expired.get(0));
+    }
+
+    @Test
+    public void expiresAfterRemoveAndReadd() {
+        TrafficStore store = new TrafficStore();
+        store.put(traffic("a", NOW));
+        store.remove("a");
+        assertTrue(store.expire(NOW + TrafficStore.EXPIRY + 1).isEmpty());
+
+        AirMapTraffic again = traffic("a", NOW + 5000);
+        assertTrue(store.put(again));
+        assertEquals(Collections.singletonList(again), store.expire(NOW + 5000 + TrafficStore.EXPIRY + 1));
+
+        store.put(traffic("b", NOW));
+        store.clear();
+        assertTrue(store.expire(NOW + TrafficStore.EXPIRY + 1).isEmpty());
+    }
+
+    @Test
+    public void tracksReportsUntilRemoved() {
+        TrafficStore store = new TrafficStore();
+        store.setTrackCapacity(2);
+        store.put(traffic("a", NOW).setRecordedTime(new Date(NOW)));
+        store.put(traffic("a", NOW + 1000).setRecordedTime(new Date(NOW + 1000)).setInitialCoordinate(new Coordinate(35, -118.5)));
+        store.project(NOW + 2000);
+        TrafficTrack track = store.track("a");
+        assertEquals(2, track.size());
+        assertEquals(NOW + 1000, track.getTime(1));
+        assertEquals(35.0, track.getLatitude(1));
+
+        store.remove("a");
+        assertNull(store.track("a"));
+        // without a recorded time, the time it was heard
+        store.put(traffic("b", NOW).setRecordedTime(new Date(0)));
+        assertEquals(NOW, store.track("b").getTime(0));
+        store.expire(NOW + TrafficStore.EXPIRY + 1);
+        assertNull(store.track("b"));
+    }
+
+    private static AirMapTraffic traffic(String id, long heard) {
+        Coordinate coordinate = new Coordinate(34, -118.5);
+        return new AirMapTraffic()
+                .setId(id)
+                .setIncomingTime(new Date(heard))
+                .setInitialCoordinate(coordinate)
+                .setCoordinate(coordinate);
+    }
+}
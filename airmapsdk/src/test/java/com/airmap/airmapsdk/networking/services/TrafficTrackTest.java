@@ -0,0 +1,61 @@
+package com.airmap.airmapsdk.networking.services;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class TrafficTrackTest {
+
+    @Test
+    public void keepsNewestPositionsOldestFirst() {
+        TrafficTrack track = new TrafficTrack(4);
+        for (int i = 0; i < 6; i++) {
+            track.add(i * 1000, i, -i, i * 100);
+        }
+        assertEquals(4, track.size());
+        assertEquals(2000, track.getTime(0));
+        assertEquals(5.0, track.getLatitude(3));
+        assertEquals(-5.0, track.getLongitude(3));
+
+        // the same time replaces the newest position, and older times are ignored
+        track.add(5000, 50, -50, 5000);
+        track.add(1000, 1, -1, 100);
+        assertEquals(4, track.size());
+        assertEquals(50.0, track.getLatitude(3));
+
+        long[] times = new long[3];
+        double[] altitudes = new double[3];
+        assertEquals(3, track.copy(times, null, null, altitudes));
+        assertEquals(3000, times[0]);
+        assertEquals(5000, times[2]);
+        assertEquals(300.0, altitudes[0]);
+        assertEquals(5000.0, altitudes[2]);
+
+        try {
+            track.getTime(4);
+            assertTrue(false);
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    @Test
+    public void estimatesClimbRate() {
+        TrafficTrack track = new TrafficTrack(60);
+        assertTrue(Double.isNaN(track.getClimbRate(60000)));
+
+        // 500 feet per minute, reported in 100 foot steps with a missing altitude
+        for (int i = 0; i < 30; i++) {
+            double altitude = i == 10 ? Double.NaN : 1000 + Math.floor(i * 500 / 60d / 100) * 100;
+            track.add(i * 1000, 34, -118, altitude);
+        }
+        assertEquals(500, track.getClimbRate(60000), 50);
+
+        // then level off
+        for (int i = 30; i < 60; i++) {
+            track.add(i * 1000, 34, -118, 1200);
+        }
+        assertEquals(0, track.getClimbRate(20000), 1e-9);
+        assertTrue(Double.isNaN(track.getClimbRate(0)));
+    }
+}